@@ -97,7 +97,210 @@ public interface ConfigurationSettings extends KibanaIndexMode{
      */
     static final String OPENSHIFT_ACL_ROLE_STRATEGY = "openshift.acl.role_strategy";
     static final String DEFAULT_ACL_ROLE_STRATEGY = "user";
-    
+
+    /**
+     * The implementation of the user project cache: 'heap' (default) or
+     * 'offheap' which stores entries in direct memory outside of the ES heap
+     */
+    static final String OPENSHIFT_ACL_CACHE_TYPE = "openshift.acl.cache.type";
+    static final String HEAP_ACL_CACHE_TYPE = "heap";
+    static final String OFFHEAP_ACL_CACHE_TYPE = "offheap";
+    static final String DEFAULT_ACL_CACHE_TYPE = HEAP_ACL_CACHE_TYPE;
+
+    static final String OPENSHIFT_ACL_CACHE_OFFHEAP_MAX_SIZE = "openshift.acl.cache.offheap.max_size";
+    static final String OPENSHIFT_ACL_CACHE_OFFHEAP_EXPIRE = "openshift.acl.cache.offheap.expire";
+    static final String DEFAULT_ACL_CACHE_OFFHEAP_MAX_SIZE = "64mb";
+    static final String DEFAULT_ACL_CACHE_OFFHEAP_EXPIRE = "1m";
+
+    /**
+     * Snapshot the user project cache to the node's data path on shutdown and
+     * periodically so unexpired entries survive a restart
+     */
+    static final String OPENSHIFT_ACL_CACHE_SNAPSHOT_ENABLED = "openshift.acl.cache.snapshot.enabled";
+    static final String OPENSHIFT_ACL_CACHE_SNAPSHOT_INTERVAL = "openshift.acl.cache.snapshot.interval";
+    static final boolean DEFAULT_ACL_CACHE_SNAPSHOT_ENABLED = true;
+    static final String DEFAULT_ACL_CACHE_SNAPSHOT_INTERVAL = "5m";
+    static final String ACL_CACHE_SNAPSHOT_FILE = "openshift_acl_cache.snapshot";
+
+    /**
+     * Publish users resolved on this node to the other nodes of the cluster
+     * so each user is only resolved against the master once
+     */
+    static final String OPENSHIFT_ACL_CACHE_PUBLISH_ENABLED = "openshift.acl.cache.publish.enabled";
+    static final String OPENSHIFT_ACL_CACHE_PUBLISH_INTERVAL = "openshift.acl.cache.publish.interval";
+    static final boolean DEFAULT_ACL_CACHE_PUBLISH_ENABLED = true;
+    static final String DEFAULT_ACL_CACHE_PUBLISH_INTERVAL = "1s";
+
+    /**
+     * Refresh the cache entries of users who made at least 'min_hits' requests
+     * once the entry is within 'window' of expiring
+     */
+    static final String OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_ENABLED = "openshift.acl.cache.refresh_ahead.enabled";
+    static final String OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_WINDOW = "openshift.acl.cache.refresh_ahead.window";
+    static final String OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_MIN_HITS = "openshift.acl.cache.refresh_ahead.min_hits";
+    static final boolean DEFAULT_ACL_CACHE_REFRESH_AHEAD_ENABLED = true;
+    static final String DEFAULT_ACL_CACHE_REFRESH_AHEAD_WINDOW = "15s";
+    static final int DEFAULT_ACL_CACHE_REFRESH_AHEAD_MIN_HITS = 2;
+
+    /**
+     * The circuit breaker around the calls to the OpenShift master. Cached
+     * entries are served for up to 'grace' past their expiration while it is open
+     */
+    static final String OPENSHIFT_MASTER_BREAKER_ENABLED = "openshift.master.breaker.enabled";
+    static final String OPENSHIFT_MASTER_BREAKER_WINDOW_SIZE = "openshift.master.breaker.window_size";
+    static final String OPENSHIFT_MASTER_BREAKER_FAILURE_RATE = "openshift.master.breaker.failure_rate";
+    static final String OPENSHIFT_MASTER_BREAKER_SLOW_CALL_THRESHOLD = "openshift.master.breaker.slow_call_threshold";
+    static final String OPENSHIFT_MASTER_BREAKER_OPEN_DURATION = "openshift.master.breaker.open_duration";
+    static final String OPENSHIFT_MASTER_BREAKER_GRACE = "openshift.master.breaker.grace";
+    static final boolean DEFAULT_MASTER_BREAKER_ENABLED = true;
+    static final int DEFAULT_MASTER_BREAKER_WINDOW_SIZE = 10;
+    static final double DEFAULT_MASTER_BREAKER_FAILURE_RATE = 0.5;
+    static final String DEFAULT_MASTER_BREAKER_SLOW_CALL_THRESHOLD = "5s";
+    static final String DEFAULT_MASTER_BREAKER_OPEN_DURATION = "30s";
+    static final String DEFAULT_MASTER_BREAKER_GRACE = "5m";
+
+    /**
+     * Block tokens rejected by the master for 'backoff', doubling for each
+     * further rejection of the same token up to 'max_backoff'
+     */
+    static final String OPENSHIFT_REJECTED_TOKEN_CACHE_ENABLED = "openshift.auth.rejected_tokens.enabled";
+    static final String OPENSHIFT_REJECTED_TOKEN_CACHE_BACKOFF = "openshift.auth.rejected_tokens.backoff";
+    static final String OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_BACKOFF = "openshift.auth.rejected_tokens.max_backoff";
+    static final String OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_SIZE = "openshift.auth.rejected_tokens.max_size";
+    static final boolean DEFAULT_REJECTED_TOKEN_CACHE_ENABLED = true;
+    static final String DEFAULT_REJECTED_TOKEN_CACHE_BACKOFF = "1s";
+    static final String DEFAULT_REJECTED_TOKEN_CACHE_MAX_BACKOFF = "1m";
+    static final int DEFAULT_REJECTED_TOKEN_CACHE_MAX_SIZE = 10000;
+
+    /**
+     * Token bucket limits for the requests that need the master, Kibana
+     * seeding and an ACL sync, per token and for the node. Requests answered
+     * from the cache are not limited
+     */
+    static final String OPENSHIFT_ADMISSION_ENABLED = "openshift.auth.admission.enabled";
+    static final String OPENSHIFT_ADMISSION_USER_RATE = "openshift.auth.admission.user.rate";
+    static final String OPENSHIFT_ADMISSION_USER_BURST = "openshift.auth.admission.user.burst";
+    static final String OPENSHIFT_ADMISSION_GLOBAL_RATE = "openshift.auth.admission.global.rate";
+    static final String OPENSHIFT_ADMISSION_GLOBAL_BURST = "openshift.auth.admission.global.burst";
+    static final String OPENSHIFT_ADMISSION_MAX_USERS = "openshift.auth.admission.max_users";
+    static final boolean DEFAULT_ADMISSION_ENABLED = true;
+    static final double DEFAULT_ADMISSION_USER_RATE = 1.0;
+    static final int DEFAULT_ADMISSION_USER_BURST = 10;
+    static final double DEFAULT_ADMISSION_GLOBAL_RATE = 50.0;
+    static final int DEFAULT_ADMISSION_GLOBAL_BURST = 100;
+    static final int DEFAULT_ADMISSION_MAX_USERS = 10000;
+
+    /**
+     * Remember what was seeded into the Kibana index of each user so seeding
+     * is skipped when nothing changed and only applies the difference when
+     * the projects did. Entries are dropped after 'expire' to pick up changes
+     * made to the Kibana index by others
+     */
+    static final String OPENSHIFT_KIBANA_SEED_STATE_ENABLED = "openshift.kibana.seed_state.enabled";
+    static final String OPENSHIFT_KIBANA_SEED_STATE_EXPIRE = "openshift.kibana.seed_state.expire";
+    static final String OPENSHIFT_KIBANA_SEED_STATE_MAX_SIZE = "openshift.kibana.seed_state.max_size";
+    static final boolean DEFAULT_KIBANA_SEED_STATE_ENABLED = true;
+    static final String DEFAULT_KIBANA_SEED_STATE_EXPIRE = "1h";
+    static final int DEFAULT_KIBANA_SEED_STATE_MAX_SIZE = 10000;
+
+    /**
+     * PEM encoded public keys used to verify service account tokens that
+     * expire locally instead of with the master. Disabled when no keys are
+     * configured
+     */
+    static final String OPENSHIFT_SA_TOKEN_PUBLIC_KEYS = "openshift.auth.serviceaccount.public_keys";
+    static final String OPENSHIFT_SA_TOKEN_ISSUER = "openshift.auth.serviceaccount.issuer";
+    static final String DEFAULT_SA_TOKEN_ISSUER = "kubernetes/serviceaccount";
+
+    /**
+     * Decide operations users from watched cluster role bindings to 'roles'
+     * instead of a SubjectAccessReview. Users not bound to one of the roles
+     * are still checked with a SAR unless the evaluation is 'authoritative'
+     */
+    static final String OPENSHIFT_OPS_RBAC_LOCAL_ENABLED = "openshift.operations.rbac.local.enabled";
+    static final String OPENSHIFT_OPS_RBAC_LOCAL_AUTHORITATIVE = "openshift.operations.rbac.local.authoritative";
+    static final String OPENSHIFT_OPS_RBAC_ROLES = "openshift.operations.rbac.roles";
+    static final boolean DEFAULT_OPS_RBAC_LOCAL_ENABLED = false;
+    static final boolean DEFAULT_OPS_RBAC_LOCAL_AUTHORITATIVE = false;
+    static final String[] DEFAULT_OPS_RBAC_ROLES = new String[] { "cluster-admin", "cluster-reader" };
+
+    /**
+     * Update the projects of cached users from watched namespaces and role
+     * bindings instead of only when they log in
+     */
+    static final String OPENSHIFT_ACL_MEMBERSHIP_WATCH_ENABLED = "openshift.acl.membership.watch.enabled";
+    static final boolean DEFAULT_ACL_MEMBERSHIP_WATCH_ENABLED = false;
+
+    /**
+     * The cluster roles that grant viewing a project. Only users bound to one
+     * of them are added to the project by the membership watch
+     */
+    static final String OPENSHIFT_ACL_MEMBERSHIP_VIEW_ROLES = "openshift.acl.membership.view_roles";
+    static final String[] DEFAULT_ACL_MEMBERSHIP_VIEW_ROLES = new String[] { "admin", "edit", "view" };
+
+    /**
+     * The number of projects requested per page when listing a user's
+     * projects. 0 requests all projects at once
+     */
+    static final String OPENSHIFT_ACL_PROJECTS_PAGE_SIZE = "openshift.acl.projects.page_size";
+    static final int DEFAULT_ACL_PROJECTS_PAGE_SIZE = 500;
+
+    /**
+     * Wait after an ACL sync, up to 'timeout', until SearchGuard on every node
+     * acknowledged reloading the ACL before the request continues
+     */
+    static final String OPENSHIFT_ACL_AWAIT_ACTIVE_ENABLED = "openshift.acl.sync.await_active.enabled";
+    static final String OPENSHIFT_ACL_AWAIT_ACTIVE_TIMEOUT = "openshift.acl.sync.await_active.timeout";
+    static final boolean DEFAULT_ACL_AWAIT_ACTIVE_ENABLED = false;
+    static final String DEFAULT_ACL_AWAIT_ACTIVE_TIMEOUT = "5s";
+
+    /**
+     * The number of cached users from which the roles and rolesmapping of an
+     * ACL sync are generated in parallel over the available processors. 0
+     * always generates them on the syncing thread
+     */
+    static final String OPENSHIFT_ACL_SYNC_PARALLEL_THRESHOLD = "openshift.acl.sync.parallel_threshold";
+    static final int DEFAULT_ACL_SYNC_PARALLEL_THRESHOLD = 5000;
+
+    /**
+     * The ES thread pools of the plugin, sized with 'threadpool.{name}.size'
+     * and 'threadpool.{name}.queue_size' like the built in pools. The auth
+     * pool runs the requests needing the master off of the HTTP worker
+     * threads, the refresh pool refreshes cached users ahead of expiring,
+     * the seed pool seeds the Kibana indices of users and the acl pool runs
+     * the requested ACL syncs
+     */
+    static final String OPENSHIFT_AUTH_THREAD_POOL = "openshift_auth";
+    static final String OPENSHIFT_REFRESH_THREAD_POOL = "openshift_refresh";
+    static final String OPENSHIFT_SEED_THREAD_POOL = "openshift_seed";
+    static final String OPENSHIFT_ACL_THREAD_POOL = "openshift_acl";
+    static final int DEFAULT_AUTH_THREAD_POOL_SIZE = 4;
+    static final int DEFAULT_AUTH_THREAD_POOL_QUEUE_SIZE = 1000;
+    static final int DEFAULT_REFRESH_THREAD_POOL_SIZE = 2;
+    static final int DEFAULT_REFRESH_THREAD_POOL_QUEUE_SIZE = 100;
+    static final int DEFAULT_SEED_THREAD_POOL_SIZE = 2;
+    static final int DEFAULT_SEED_THREAD_POOL_QUEUE_SIZE = 1000;
+    static final int DEFAULT_ACL_THREAD_POOL_SIZE = 1;
+    static final int DEFAULT_ACL_THREAD_POOL_QUEUE_SIZE = 1;
+
+    /**
+     * Seed the Kibana index of a user on the seed pool instead of before the
+     * request continues. A request only waits, up to 'await_timeout', when
+     * the Kibana index of the user does not exist yet
+     */
+    static final String OPENSHIFT_KIBANA_SEED_ASYNC_ENABLED = "openshift.kibana.seed.async.enabled";
+    static final String OPENSHIFT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT = "openshift.kibana.seed.async.await_timeout";
+    static final boolean DEFAULT_KIBANA_SEED_ASYNC_ENABLED = true;
+    static final String DEFAULT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT = "10s";
+
+    /**
+     * Add and remove the index-patterns of the users with a seeded state when
+     * the indices of their projects are created or deleted, instead of looking
+     * for the indices of their projects on every request
+     */
+    static final String OPENSHIFT_KIBANA_SEED_WATCH_INDICES_ENABLED = "openshift.kibana.seed.watch_indices.enabled";
+    static final boolean DEFAULT_KIBANA_SEED_WATCH_INDICES_ENABLED = true;
+
     static final String OPENSHIFT_KIBANA_REWRITE_ENABLED_FLAG = "openshift.kibana.rewrite.enabled";
     
     /**
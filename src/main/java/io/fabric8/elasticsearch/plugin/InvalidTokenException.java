@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Thrown when the OpenShift master answered that the token of a request is
+ * not valid, as opposed to failing to authorize it for any other reason
+ */
+@SuppressWarnings("serial")
+public class InvalidTokenException extends ElasticsearchSecurityException {
+
+    public InvalidTokenException(String message, Object... args) {
+        super(message, RestStatus.UNAUTHORIZED, args);
+    }
+
+}
@@ -46,6 +46,11 @@ public class KibanaUserReindexFilter extends RestFilter implements Configuration
 
     @Override
     public void process(RestRequest request, RestChannel channel, RestFilterChain chain) throws Exception {
+        if (!request.hasInContext(OPENSHIFT_REQUEST_CONTEXT)) {
+            // not a user of the plugin e.g. client cert authenticated ingestion
+            chain.continueProcessing(request, channel);
+            return;
+        }
         try {
             OpenshiftRequestContext userContext = (OpenshiftRequestContext) 
                     ObjectUtils.defaultIfNull(request.getFromContext(OPENSHIFT_REQUEST_CONTEXT), OpenshiftRequestContext.EMPTY);
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Circuit breaker around the calls made to the OpenShift master to resolve a
+ * user. The breaker opens when the share of failed or slow calls in the last
+ * 'window_size' calls reaches 'failure_rate'. While open, calls are rejected
+ * immediately until 'open_duration' has passed, after which a single trial
+ * call decides whether it closes again.
+ */
+public class MasterCircuitBreaker implements ConfigurationSettings, ToXContent {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private static final ESLogger LOGGER = Loggers.getLogger(MasterCircuitBreaker.class);
+
+    private final boolean enabled;
+    private final boolean[] window;
+    private final double failureRate;
+    private final long slowCallThreshold;
+    private final long openDuration;
+    private final long grace;
+
+    private State state = State.CLOSED;
+    private int position;
+    private int recorded;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private long calls;
+    private long failures;
+    private long slowCalls;
+    private long rejected;
+    private long timesOpened;
+
+    @Inject
+    public MasterCircuitBreaker(final Settings settings) {
+        this.enabled = settings.getAsBoolean(OPENSHIFT_MASTER_BREAKER_ENABLED, DEFAULT_MASTER_BREAKER_ENABLED);
+        this.window = new boolean[Math.max(1,
+                settings.getAsInt(OPENSHIFT_MASTER_BREAKER_WINDOW_SIZE, DEFAULT_MASTER_BREAKER_WINDOW_SIZE))];
+        this.failureRate = settings.getAsDouble(OPENSHIFT_MASTER_BREAKER_FAILURE_RATE,
+                DEFAULT_MASTER_BREAKER_FAILURE_RATE);
+        this.slowCallThreshold = parseMillis(settings, OPENSHIFT_MASTER_BREAKER_SLOW_CALL_THRESHOLD,
+                DEFAULT_MASTER_BREAKER_SLOW_CALL_THRESHOLD);
+        this.openDuration = parseMillis(settings, OPENSHIFT_MASTER_BREAKER_OPEN_DURATION,
+                DEFAULT_MASTER_BREAKER_OPEN_DURATION);
+        this.grace = parseMillis(settings, OPENSHIFT_MASTER_BREAKER_GRACE, DEFAULT_MASTER_BREAKER_GRACE);
+    }
+
+    private static long parseMillis(Settings settings, String name, String defaultValue) {
+        return TimeValue.parseTimeValue(settings.get(name, defaultValue), null, name).millis();
+    }
+
+    /**
+     * Make a call to the master through the breaker. Authentication failures
+     * are considered a successful call to the master.
+     *
+     * @param callable  The call to make
+     * @return the result of the call
+     * @throws OpenShiftMasterUnavailableException if the breaker is open
+     * @throws Exception any exception thrown by the call
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        if (!enabled) {
+            return callable.call();
+        }
+        if (!allowRequest()) {
+            throw new OpenShiftMasterUnavailableException("The OpenShift master is unavailable");
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            T result = callable.call();
+            record(System.currentTimeMillis() - start, false);
+            return result;
+        } catch (ElasticsearchSecurityException e) {
+            record(System.currentTimeMillis() - start, e.status() == RestStatus.SERVICE_UNAVAILABLE);
+            throw e;
+        } catch (Exception e) {
+            record(System.currentTimeMillis() - start, true);
+            throw e;
+        }
+    }
+
+    synchronized boolean allowRequest() {
+        switch (state) {
+        case OPEN:
+            if (System.currentTimeMillis() - openedAt < openDuration) {
+                rejected++;
+                return false;
+            }
+            LOGGER.info("Allowing a trial call to the OpenShift master");
+            state = State.HALF_OPEN;
+            trialInFlight = true;
+            return true;
+        case HALF_OPEN:
+            if (trialInFlight) {
+                rejected++;
+                return false;
+            }
+            trialInFlight = true;
+            return true;
+        default:
+            return true;
+        }
+    }
+
+    synchronized void record(long took, boolean failed) {
+        final boolean slow = took > slowCallThreshold;
+        calls++;
+        if (failed) {
+            failures++;
+        }
+        if (slow) {
+            slowCalls++;
+        }
+        final boolean bad = failed || slow;
+        if (state == State.HALF_OPEN) {
+            trialInFlight = false;
+            if (bad) {
+                open();
+            } else {
+                LOGGER.info("Closing the OpenShift master circuit breaker");
+                state = State.CLOSED;
+                recorded = 0;
+                position = 0;
+            }
+            return;
+        }
+        window[position] = bad;
+        position = (position + 1) % window.length;
+        recorded = Math.min(recorded + 1, window.length);
+        if (state == State.CLOSED && recorded == window.length && badCalls() >= failureRate * window.length) {
+            open();
+        }
+    }
+
+    private int badCalls() {
+        int bad = 0;
+        for (boolean call : window) {
+            if (call) {
+                bad++;
+            }
+        }
+        return bad;
+    }
+
+    private void open() {
+        LOGGER.warn("Opening the OpenShift master circuit breaker for {} ms", openDuration);
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        timesOpened++;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if calls to the master are currently being rejected or trialed
+     */
+    public synchronized boolean isOpen() {
+        return enabled && state != State.CLOSED;
+    }
+
+    /**
+     * @return the time in millis expired cache entries may still be served
+     *         while the breaker is open
+     */
+    public long getGrace() {
+        return grace;
+    }
+
+    @Override
+    public synchronized XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("master_circuit_breaker");
+        builder.field("enabled", enabled);
+        builder.field("state", state.name().toLowerCase());
+        builder.field("calls", calls);
+        builder.field("failures", failures);
+        builder.field("slow_calls", slowCalls);
+        builder.field("rejected", rejected);
+        builder.field("times_opened", timesOpened);
+        builder.endObject();
+        return builder;
+    }
+}
@@ -17,22 +17,55 @@
 package io.fabric8.elasticsearch.plugin;
 
 import org.elasticsearch.common.inject.AbstractModule;
+import org.elasticsearch.common.settings.Settings;
 
 import io.fabric8.elasticsearch.plugin.acl.DynamicACLFilter;
+import io.fabric8.elasticsearch.plugin.acl.OffHeapUserProjectCache;
+import io.fabric8.elasticsearch.plugin.acl.ProjectMembershipTracker;
+import io.fabric8.elasticsearch.plugin.acl.SearchGuardACLSynchronizer;
 import io.fabric8.elasticsearch.plugin.acl.UserProjectCache;
 import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheMapAdapter;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCachePublisher;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheRefresher;
+import io.fabric8.elasticsearch.plugin.auth.AdmissionController;
+import io.fabric8.elasticsearch.plugin.auth.OperationsUserEvaluator;
+import io.fabric8.elasticsearch.plugin.auth.RejectedTokenCache;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaIndexPatternWatcher;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache;
 
 /**
  * The module controls loading and specific implementations we want to use
  *
  */
-public class OpenShiftElasticSearchModule extends AbstractModule {
+public class OpenShiftElasticSearchModule extends AbstractModule implements ConfigurationSettings {
+
+    private final Settings settings;
+
+    public OpenShiftElasticSearchModule(final Settings settings) {
+        this.settings = settings;
+    }
 
     @Override
     protected void configure() {
 
-        bind(UserProjectCache.class).to(UserProjectCacheMapAdapter.class).asEagerSingleton();
+        if (OFFHEAP_ACL_CACHE_TYPE.equalsIgnoreCase(settings.get(OPENSHIFT_ACL_CACHE_TYPE, DEFAULT_ACL_CACHE_TYPE))) {
+            bind(UserProjectCache.class).to(OffHeapUserProjectCache.class).asEagerSingleton();
+        } else {
+            bind(UserProjectCache.class).to(UserProjectCacheMapAdapter.class).asEagerSingleton();
+        }
 
+        bind(MasterCircuitBreaker.class).asEagerSingleton();
+        bind(RejectedTokenCache.class).asEagerSingleton();
+        bind(AdmissionController.class).asEagerSingleton();
+        bind(KibanaSeedStateCache.class).asEagerSingleton();
+        bind(KibanaSeedExecutor.class).asEagerSingleton();
+        bind(KibanaIndexPatternWatcher.class).asEagerSingleton();
+        bind(OperationsUserEvaluator.class).asEagerSingleton();
+        bind(UserProjectCachePublisher.class).asEagerSingleton();
+        bind(SearchGuardACLSynchronizer.class).asEagerSingleton();
+        bind(UserProjectCacheRefresher.class).asEagerSingleton();
+        bind(ProjectMembershipTracker.class).asEagerSingleton();
         bind(DynamicACLFilter.class).asEagerSingleton();
     }
 
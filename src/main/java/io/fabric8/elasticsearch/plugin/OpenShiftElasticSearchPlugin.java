@@ -35,6 +35,7 @@ import com.google.common.collect.Lists;
 
 import io.fabric8.elasticsearch.plugin.filter.FieldStatsResponseFilter;
 import io.fabric8.elasticsearch.rest.KibanaUserRestHandler;
+import io.fabric8.elasticsearch.rest.OpenShiftStatsRestHandler;
 
 public class OpenShiftElasticSearchPlugin extends Plugin implements ConfigurationSettings {
 
@@ -72,6 +73,7 @@ public class OpenShiftElasticSearchPlugin extends Plugin implements Configuratio
         searchguard.onModule(restModule);
         sgSSL.onModule(restModule);
         restModule.addRestAction(KibanaUserRestHandler.class);
+        restModule.addRestAction(OpenShiftStatsRestHandler.class);
     }
     
     public void onModule(final TransportModule module) {
@@ -107,7 +109,7 @@ public class OpenShiftElasticSearchPlugin extends Plugin implements Configuratio
         Collection<Module> modules = Lists.newArrayList();
         modules.addAll(searchguard.nodeModules());
         modules.addAll(sgSSL.nodeModules());
-        modules.add(new OpenShiftElasticSearchModule());
+        modules.add(new OpenShiftElasticSearchModule(settings));
         return modules;
     }
     
@@ -139,9 +141,30 @@ public class OpenShiftElasticSearchPlugin extends Plugin implements Configuratio
     @Override
     public Settings additionalSettings() {
         Settings.Builder settingsBuilder = Settings.builder()
+                .put(threadPoolSettings(OPENSHIFT_AUTH_THREAD_POOL, DEFAULT_AUTH_THREAD_POOL_SIZE,
+                        DEFAULT_AUTH_THREAD_POOL_QUEUE_SIZE))
+                .put(threadPoolSettings(OPENSHIFT_REFRESH_THREAD_POOL, DEFAULT_REFRESH_THREAD_POOL_SIZE,
+                        DEFAULT_REFRESH_THREAD_POOL_QUEUE_SIZE))
+                .put(threadPoolSettings(OPENSHIFT_SEED_THREAD_POOL, DEFAULT_SEED_THREAD_POOL_SIZE,
+                        DEFAULT_SEED_THREAD_POOL_QUEUE_SIZE))
+                .put(threadPoolSettings(OPENSHIFT_ACL_THREAD_POOL, DEFAULT_ACL_THREAD_POOL_SIZE,
+                        DEFAULT_ACL_THREAD_POOL_QUEUE_SIZE))
                 .put(settings)
                 .put(searchguard.additionalSettings())
                 .put(sgSSL.additionalSettings());
         return settingsBuilder.build();
     }
+
+    /*
+     * Default settings of a fixed ES thread pool of the plugin. Pools with a
+     * name ES does not know are built from their 'threadpool' settings
+     */
+    private static Settings threadPoolSettings(String name, int size, int queueSize) {
+        final String prefix = "threadpool." + name + ".";
+        return Settings.builder()
+                .put(prefix + "type", "fixed")
+                .put(prefix + "size", size)
+                .put(prefix + "queue_size", queueSize)
+                .build();
+    }
 }
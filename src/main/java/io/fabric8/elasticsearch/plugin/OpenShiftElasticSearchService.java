@@ -16,6 +16,8 @@
 
 package io.fabric8.elasticsearch.plugin;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -28,12 +30,24 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.util.concurrent.FutureUtils;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.rest.RestController;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import io.fabric8.elasticsearch.plugin.acl.DynamicACLFilter;
+import io.fabric8.elasticsearch.plugin.acl.ProjectMembershipTracker;
+import io.fabric8.elasticsearch.plugin.acl.SearchGuardACLSynchronizer;
 import io.fabric8.elasticsearch.plugin.acl.UserProjectCache;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheEntry;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCachePublisher;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheRefresher;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheSnapshot;
+import io.fabric8.elasticsearch.plugin.auth.OperationsUserEvaluator;
+import io.fabric8.elasticsearch.plugin.auth.RejectedTokenCache;
 
 /**
  * Service to handle spawning threads, lifecycles, and REST filter registrations
@@ -47,18 +61,64 @@ public class OpenShiftElasticSearchService extends AbstractLifecycleComponent<Op
     private final ESLogger logger;
     private final UserProjectCache cache;
     private final Settings settings;
+    private final UserProjectCacheSnapshot snapshot;
+    private final UserProjectCachePublisher publisher;
+    private final UserProjectCacheRefresher refresher;
+    private final MasterCircuitBreaker breaker;
+    private final RejectedTokenCache rejectedTokens;
+    private final OperationsUserEvaluator operationsUsers;
+    private final ProjectMembershipTracker membershipTracker;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final ThreadPool threadPool;
     private ScheduledThreadPoolExecutor scheduler;
 
     @SuppressWarnings("rawtypes")
     private ScheduledFuture scheduledFuture;
 
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture snapshotFuture;
+
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture publishFuture;
+
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture refreshFuture;
+
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture watchFuture;
+
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture membershipFuture;
+
+    @SuppressWarnings("rawtypes")
+    private ScheduledFuture syncFuture;
+
     @Inject
     public OpenShiftElasticSearchService(final Settings settings, final Client esClient,
-            final RestController restController, final UserProjectCache cache, final DynamicACLFilter aclFilter) {
+            final RestController restController, final UserProjectCache cache, final DynamicACLFilter aclFilter,
+            final NodeEnvironment nodeEnvironment, final UserProjectCachePublisher publisher,
+            final UserProjectCacheRefresher refresher, final MasterCircuitBreaker breaker,
+            final RejectedTokenCache rejectedTokens, final OperationsUserEvaluator operationsUsers,
+            final ProjectMembershipTracker membershipTracker, final SearchGuardACLSynchronizer synchronizer,
+            final ThreadPool threadPool) {
         super(settings);
         this.settings = settings;
         this.logger = Loggers.getLogger(getClass(), settings);
         this.cache = cache;
+        this.publisher = publisher;
+        this.refresher = refresher;
+        this.breaker = breaker;
+        this.rejectedTokens = rejectedTokens;
+        this.operationsUsers = operationsUsers;
+        this.membershipTracker = membershipTracker;
+        this.synchronizer = synchronizer;
+        this.threadPool = threadPool;
+        if (settings.getAsBoolean(OPENSHIFT_ACL_CACHE_SNAPSHOT_ENABLED, DEFAULT_ACL_CACHE_SNAPSHOT_ENABLED)
+                && nodeEnvironment.hasNodeFile()) {
+            this.snapshot = new UserProjectCacheSnapshot(nodeEnvironment.nodeDataPaths()[0].resolve(ACL_CACHE_SNAPSHOT_FILE));
+        } else {
+            this.snapshot = null;
+        }
         restController.registerFilter(aclFilter);
     }
 
@@ -70,6 +130,8 @@ public class OpenShiftElasticSearchService extends AbstractLifecycleComponent<Op
         logger.debug("Starting with Dynamic ACL feature enabled: {}", dynamicEnabled);
 
         if (dynamicEnabled) {
+            restoreCache();
+
             // expiration thread
             logger.debug("Starting the expiration thread...");
             this.scheduler = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(1,
@@ -80,22 +142,165 @@ public class OpenShiftElasticSearchService extends AbstractLifecycleComponent<Op
             Runnable expire = new Runnable() {
                 @Override
                 public void run() {
-                    cache.expire();
+                    // keep serving expired entries for a while if the master is unavailable
+                    long now = System.currentTimeMillis();
+                    Collection<String> expired = cache.expire(breaker.isOpen() ? now - breaker.getGrace() : now);
+                    publisher.invalidate(expired);
+                    if (!expired.isEmpty()) {
+                        // drop the roles of the expired users with the next sync
+                        synchronizer.requestSync();
+                    }
+                    rejectedTokens.prune(now);
                 }
             };
             this.scheduledFuture = this.scheduler.scheduleWithFixedDelay(expire, 5, 60, TimeUnit.SECONDS);
+
+            if (snapshot != null) {
+                final long interval = TimeValue.parseTimeValue(
+                        settings.get(OPENSHIFT_ACL_CACHE_SNAPSHOT_INTERVAL, DEFAULT_ACL_CACHE_SNAPSHOT_INTERVAL), null,
+                        OPENSHIFT_ACL_CACHE_SNAPSHOT_INTERVAL).millis();
+                Runnable snapshotCache = new Runnable() {
+                    @Override
+                    public void run() {
+                        snapshotCache();
+                    }
+                };
+                this.snapshotFuture = this.scheduler.scheduleWithFixedDelay(snapshotCache, interval, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+
+            if (publisher.isEnabled()) {
+                final long interval = TimeValue.parseTimeValue(
+                        settings.get(OPENSHIFT_ACL_CACHE_PUBLISH_INTERVAL, DEFAULT_ACL_CACHE_PUBLISH_INTERVAL), null,
+                        OPENSHIFT_ACL_CACHE_PUBLISH_INTERVAL).millis();
+                Runnable publish = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            publisher.flush();
+                        } catch (RuntimeException e) {
+                            logger.warn("Unable to publish the user project cache", e);
+                        }
+                    }
+                };
+                this.publishFuture = this.scheduler.scheduleWithFixedDelay(publish, interval, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+
+            if (refresher.isEnabled()) {
+                final long interval = Math.max(1000, refresher.getWindow() / 3);
+                Runnable refresh = new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresher.refreshExpiring();
+                        } catch (RuntimeException e) {
+                            logger.warn("Unable to refresh the user project cache", e);
+                        }
+                    }
+                };
+                this.refreshFuture = this.scheduler.scheduleWithFixedDelay(refresh, interval, interval,
+                        TimeUnit.MILLISECONDS);
+            }
+
+            if (operationsUsers.isEnabled()) {
+                // (re)establish the watches whenever they were closed
+                Runnable watch = new Runnable() {
+                    @Override
+                    public void run() {
+                        operationsUsers.ensureWatching();
+                    }
+                };
+                this.watchFuture = this.scheduler.scheduleWithFixedDelay(watch, 0, 30, TimeUnit.SECONDS);
+            }
+
+            if (membershipTracker.isEnabled()) {
+                Runnable membership = new Runnable() {
+                    @Override
+                    public void run() {
+                        membershipTracker.ensureWatching();
+                    }
+                };
+                this.membershipFuture = this.scheduler.scheduleWithFixedDelay(membership, 0, 30, TimeUnit.SECONDS);
+            }
+
+            // coalesce the requested ACL changes into a single sync, run on the
+            // acl pool as a sync blocks until the ACL is written and reloaded
+            final Runnable syncIfPending = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        synchronizer.syncIfPending();
+                    } catch (RuntimeException e) {
+                        logger.warn("Unable to sync the ACL", e);
+                    }
+                }
+            };
+            Runnable sync = new Runnable() {
+                @Override
+                public void run() {
+                    if (!synchronizer.isPending()) {
+                        return;
+                    }
+                    try {
+                        threadPool.executor(OPENSHIFT_ACL_THREAD_POOL).execute(syncIfPending);
+                    } catch (EsRejectedExecutionException e) {
+                        logger.debug("Deferring the ACL sync. The {} queue is full", OPENSHIFT_ACL_THREAD_POOL);
+                    }
+                }
+            };
+            this.syncFuture = this.scheduler.scheduleWithFixedDelay(sync, 1, 1, TimeUnit.SECONDS);
         }
 
         logger.debug("Started");
 
     }
 
+    private void restoreCache() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            int restored = 0;
+            for (UserProjectCacheEntry entry : snapshot.read(System.currentTimeMillis())) {
+                cache.restore(entry);
+                restored++;
+            }
+            logger.info("Restored {} user project cache entries from the snapshot", restored);
+            if (restored > 0) {
+                synchronizer.requestSync();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to restore the user project cache from the snapshot", e);
+        }
+    }
+
+    private void snapshotCache() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            snapshot.write(cache.getEntries());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Unable to snapshot the user project cache", e);
+        }
+    }
+
     @Override
     protected void doStop() throws ElasticsearchException {
         // cleanup expire thread
         FutureUtils.cancel(this.scheduledFuture);
+        FutureUtils.cancel(this.snapshotFuture);
+        FutureUtils.cancel(this.publishFuture);
+        FutureUtils.cancel(this.refreshFuture);
+        FutureUtils.cancel(this.watchFuture);
+        FutureUtils.cancel(this.membershipFuture);
+        FutureUtils.cancel(this.syncFuture);
+        operationsUsers.stop();
+        membershipTracker.stop();
         if (scheduler != null) {
             this.scheduler.shutdown();
+            snapshotCache();
         }
         logger.debug("Stopped");
     }
@@ -103,9 +308,18 @@ public class OpenShiftElasticSearchService extends AbstractLifecycleComponent<Op
     @Override
     protected void doClose() throws ElasticsearchException {
         FutureUtils.cancel(this.scheduledFuture);
+        FutureUtils.cancel(this.snapshotFuture);
+        FutureUtils.cancel(this.publishFuture);
+        FutureUtils.cancel(this.refreshFuture);
+        FutureUtils.cancel(this.watchFuture);
+        FutureUtils.cancel(this.membershipFuture);
+        FutureUtils.cancel(this.syncFuture);
+        operationsUsers.stop();
+        membershipTracker.stop();
         if (this.scheduler != null) {
             this.scheduler.shutdown();
         }
+        synchronizer.close();
         logger.debug("Closed");
     }
 
@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * Thrown when a request can not be authorized because the OpenShift master
+ * is unavailable or its circuit breaker is open
+ */
+@SuppressWarnings("serial")
+public class OpenShiftMasterUnavailableException extends ElasticsearchSecurityException {
+
+    public OpenShiftMasterUnavailableException(String message, Object... args) {
+        super(message, RestStatus.SERVICE_UNAVAILABLE, args);
+    }
+
+    public OpenShiftMasterUnavailableException(String message, Throwable cause, Object... args) {
+        super(message, RestStatus.SERVICE_UNAVAILABLE, cause, args);
+    }
+
+}
@@ -19,13 +19,14 @@ package io.fabric8.elasticsearch.plugin;
 import static io.fabric8.elasticsearch.plugin.KibanaIndexMode.SHARED_NON_OPS;
 import static io.fabric8.elasticsearch.plugin.KibanaIndexMode.SHARED_OPS;
 import static io.fabric8.elasticsearch.plugin.KibanaIndexMode.UNIQUE;
-import static io.fabric8.elasticsearch.plugin.KibanaUserReindexFilter.getUsernameHash;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang.StringUtils;
@@ -35,12 +36,16 @@ import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
 
+import io.fabric8.elasticsearch.plugin.acl.UserIdentity;
 import io.fabric8.elasticsearch.plugin.acl.UserProjectCache;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheEntry;
+import io.fabric8.elasticsearch.plugin.auth.OperationsUserEvaluator;
+import io.fabric8.elasticsearch.plugin.auth.RejectedTokenCache;
 import io.fabric8.elasticsearch.util.RequestUtils;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.openshift.api.model.Project;
 import io.fabric8.openshift.client.OpenShiftClient;
 
 /**
@@ -52,16 +57,23 @@ public class OpenshiftRequestContextFactory  {
     
     private final OpenshiftClientFactory clientFactory;
     private final RequestUtils utils;
-    private final String[] operationsProjects;
+    private final MasterCircuitBreaker breaker;
+    private final RejectedTokenCache rejectedTokens;
+    private final OperationsUserEvaluator operationsUsers;
+    private final ProjectLister projectLister;
     private final String kibanaPrefix;
     private String kibanaIndexMode;
 
     @Inject
-    public OpenshiftRequestContextFactory(final Settings settings, final RequestUtils utils, final OpenshiftClientFactory clientFactory) {
+    public OpenshiftRequestContextFactory(final Settings settings, final RequestUtils utils, final OpenshiftClientFactory clientFactory,
+            final MasterCircuitBreaker breaker, final RejectedTokenCache rejectedTokens,
+            final OperationsUserEvaluator operationsUsers) {
         this.clientFactory = clientFactory;
         this.utils = utils;
-        this.operationsProjects = settings.getAsArray(ConfigurationSettings.OPENSHIFT_CONFIG_OPS_PROJECTS,
-                ConfigurationSettings.DEFAULT_OPENSHIFT_OPS_PROJECTS);
+        this.breaker = breaker;
+        this.rejectedTokens = rejectedTokens;
+        this.operationsUsers = operationsUsers;
+        this.projectLister = new ProjectLister(settings);
         this.kibanaPrefix = settings.get(ConfigurationSettings.KIBANA_CONFIG_INDEX_NAME, ConfigurationSettings.DEFAULT_USER_PROFILE_PREFIX);
         this.kibanaIndexMode = settings.get(ConfigurationSettings.OPENSHIFT_KIBANA_INDEX_MODE, UNIQUE);
         if(!ArrayUtils.contains(new String [] {UNIQUE, SHARED_OPS, SHARED_NON_OPS}, kibanaIndexMode.toLowerCase())) {
@@ -78,21 +90,54 @@ public class OpenshiftRequestContextFactory  {
      * @throws  All exceptions
      */
     public OpenshiftRequestContext create(final RestRequest request, final UserProjectCache cache) throws Exception {
+        final String token = utils.getBearerToken(request);
+        return create(request, cache, StringUtils.isNotBlank(token) ? cache.getByToken(token) : null);
+    }
+
+    /**
+     * Create a user context from the given request and the cache entry the
+     * caller already retrieved for its token
+     *
+     * @param   cache - The cache of user projects to create ACLs
+     * @param   entry - The cache entry of the request's token or null if it is not cached
+     * @return  an OpenshiftRequestContext
+     * @throws  All exceptions
+     */
+    public OpenshiftRequestContext create(final RestRequest request, final UserProjectCache cache,
+            final UserProjectCacheEntry entry) throws Exception {
         logRequest(request, cache);
 
-        Set<String> projects = new HashSet<>();
-        boolean isClusterAdmin = false;
         String user = utils.getUser(request);
-        String token = utils.getBearerToken(request);
+        final String token = utils.getBearerToken(request);
         if (StringUtils.isNotBlank(token)){
-            user = utils.assertUser(request);
-            isClusterAdmin = utils.isOperationsUser(request);
-            projects = listProjectsFor(user, token);
-            if(user.contains("\\")){
-                user = user.replace("\\", "/");
+            OpenshiftRequestContext context;
+            if (entry != null) {
+                LOGGER.debug("Using the {} cache entry for user '{}'", entry.isRestored() ? "restored" : "cached", entry.getUser());
+                context = new OpenshiftRequestContext(entry.getUser(), token, entry.isOperationsUser(), entry.getProjects(),
+                        getKibanaIndex(entry.getIdentity(), entry.isOperationsUser()), this.kibanaIndexMode, !entry.isRestored(),
+                        entry.getIdentity());
+            } else {
+                if (rejectedTokens.isBlocked(token)) {
+                    LOGGER.debug("Rejecting a request with a token that was recently rejected by the master");
+                    throw new ElasticsearchSecurityException("Could not authenticate with given token", RestStatus.UNAUTHORIZED);
+                }
+                try {
+                    context = breaker.call(new Callable<OpenshiftRequestContext>() {
+                        @Override
+                        public OpenshiftRequestContext call() throws Exception {
+                            String username = utils.assertUser(request);
+                            boolean isClusterAdmin = isOperationsUser(username, token);
+                            return newContext(username, token, isClusterAdmin, listProjectsFor(username, token));
+                        }
+                    });
+                } catch (InvalidTokenException e) {
+                    // only tokens the master answered are not valid are blocked
+                    rejectedTokens.reject(token);
+                    throw e;
+                }
             }
-            utils.setUser(request, user);
-            return new OpenshiftRequestContext(user, token, isClusterAdmin, projects, getKibanaIndex(user, isClusterAdmin), this.kibanaIndexMode);
+            utils.setUser(request, context.getUser());
+            return context;
         }
         if(StringUtils.isNotBlank(user)) {
             LOGGER.debug("Received a request with a user but no token. Setting userheader to empty.");
@@ -101,6 +146,45 @@ public class OpenshiftRequestContextFactory  {
         LOGGER.debug("Returing EMPTY request context; either was provided client cert or empty token.");
         return OpenshiftRequestContext.EMPTY;
     }
+
+    /**
+     * Resolve the context for a token against the OpenShift master without a
+     * request, e.g. to refresh a cached entry before it expires
+     *
+     * @param   user - The user the token was last resolved to
+     * @param   token - The user's token
+     * @return  an OpenshiftRequestContext
+     * @throws  All exceptions
+     */
+    public OpenshiftRequestContext resolve(final String user, final String token) throws Exception {
+        return breaker.call(new Callable<OpenshiftRequestContext>() {
+            @Override
+            public OpenshiftRequestContext call() throws Exception {
+                String username = utils.assertUser(user, token);
+                boolean isClusterAdmin = isOperationsUser(username, token);
+                return newContext(username, token, isClusterAdmin, listProjectsFor(username, token));
+            }
+        });
+    }
+
+    private boolean isOperationsUser(final String username, final String token) {
+        Boolean local = operationsUsers.isOperationsUser(username);
+        if (local != null) {
+            LOGGER.debug("Evaluated locally that '{}' is {}an operations user", username, local ? "" : "not ");
+            return local;
+        }
+        return utils.isOperationsUser(username, token);
+    }
+
+    private OpenshiftRequestContext newContext(String user, final String token, boolean isClusterAdmin, Set<String> projects) {
+        if(user.contains("\\")){
+            user = user.replace("\\", "/");
+        }
+        // the identity is kept with the context so caching the user does not derive it again
+        final UserIdentity identity = new UserIdentity(user);
+        return new OpenshiftRequestContext(user, token, isClusterAdmin, projects,
+                getKibanaIndex(identity, isClusterAdmin), this.kibanaIndexMode, false, identity);
+    }
     
     private void logRequest(final RestRequest request, final UserProjectCache cache) {
         if (LOGGER.isDebugEnabled()) {
@@ -131,46 +215,25 @@ public class OpenshiftRequestContextFactory  {
     // throw
     // an exception if the token is invalid.
     private Set<String> listProjectsFor(final String user, final String token) throws Exception {
-        Set<String> names = new HashSet<>();
         try {
             ConfigBuilder builder = new ConfigBuilder().withOauthToken(token);
             try (OpenShiftClient client = clientFactory.create(builder.build())) {
-                List<Project> projects = client.projects().list().getItems();
-                for (Project project : projects) {
-                    if (!isBlacklistProject(project.getMetadata().getName())) {
-                        names.add(project.getMetadata().getName() + "." + project.getMetadata().getUid());
-                    }
-                }
+                return projectLister.list(client, token);
             }
+        } catch (ElasticsearchSecurityException e) {
+            LOGGER.error("Error retrieving project list for '{}'", e, user);
+            throw e;
         } catch (KubernetesClientException e) {
             LOGGER.error("Error retrieving project list for '{}'", e, user);
             throw new ElasticsearchSecurityException(e.getMessage());
         } catch (Exception e) {
             LOGGER.error("Error retrieving project list for '{}'", e, user);
+            throw new OpenShiftMasterUnavailableException("Unable to retrieve the projects of '{}'", e, user);
         }
-        return names;
     }
     
-    private boolean isBlacklistProject(String project) {
-        return ArrayUtils.contains(operationsProjects, project.toLowerCase());
-    }
-    
-    private String getKibanaIndex(String username, boolean isOpsUser) {
-        return getKibanaIndex(kibanaPrefix, kibanaIndexMode, username, isOpsUser);
-    }
-    
-    public static String getKibanaIndex(final String kibanaPrefix, final String kibanaIndexMode, final String username, final boolean isOpsUser) {
-        if(StringUtils.isBlank(username)) {
-            return "";
-        }
-        if((SHARED_OPS.equals(kibanaIndexMode) || SHARED_NON_OPS.equals(kibanaIndexMode)) && isOpsUser) {
-            return kibanaPrefix;
-        }
-        if(SHARED_NON_OPS.equals(kibanaIndexMode)) {
-            return kibanaPrefix + "_non_ops";
-        }
-        return kibanaPrefix + "." + getUsernameHash(username);
-        
+    private String getKibanaIndex(UserIdentity identity, boolean isOpsUser) {
+        return identity.getKibanaIndex(kibanaPrefix, kibanaIndexMode, isOpsUser);
     }
     
     public static class OpenshiftRequestContext {
@@ -183,15 +246,30 @@ public class OpenshiftRequestContextFactory  {
         private final Set<String> projects;
         private final String kibanaIndex;
         private final String kibanaIndexMode;
+        private final boolean cached;
+        private volatile UserIdentity identity;
 
         public OpenshiftRequestContext(final String user, final String token, boolean isClusterAdmin, 
                 Set<String> projects, String kibanaIndex, final String kibanaIndexMode) {
+            this(user, token, isClusterAdmin, projects, kibanaIndex, kibanaIndexMode, false);
+        }
+
+        public OpenshiftRequestContext(final String user, final String token, boolean isClusterAdmin, 
+                Set<String> projects, String kibanaIndex, final String kibanaIndexMode, boolean cached) {
+            this(user, token, isClusterAdmin, projects, kibanaIndex, kibanaIndexMode, cached, null);
+        }
+
+        public OpenshiftRequestContext(final String user, final String token, boolean isClusterAdmin,
+                Set<String> projects, String kibanaIndex, final String kibanaIndexMode, boolean cached,
+                UserIdentity identity) {
             this.user = user;
             this.token = token;
             this.isClusterAdmin = isClusterAdmin;
-            this.projects = new HashSet<>(projects);
+            this.projects = Collections.unmodifiableSet(projects);
             this.kibanaIndex = kibanaIndex;
             this.kibanaIndexMode = kibanaIndexMode;
+            this.cached = cached;
+            this.identity = identity;
         }
 
         /**
@@ -211,12 +289,24 @@ public class OpenshiftRequestContextFactory  {
             return this.token;
         }
 
+        /**
+         * @return the names derived from the user, derived on first use when
+         *         the context was not created with them
+         */
+        public UserIdentity getIdentity() {
+            if (identity == null) {
+                identity = new UserIdentity(user);
+            }
+            return identity;
+        }
+
         public boolean isOperationsUser() {
             return isClusterAdmin;
         }
 
         /**
-         * The Set of projects with UUID
+         * The Set of projects with UUID. The set given to the context is
+         * wrapped rather than copied
          * 
          * @return the set of project names formatted with their UUID (e.g. project.UUID)
          */
@@ -231,5 +321,13 @@ public class OpenshiftRequestContextFactory  {
         public String getKibanaIndexMode() {
             return this.kibanaIndexMode;
         }
+
+        /**
+         * @return true if the context was created from an entry already in the
+         *         cache instead of being resolved with the OpenShift master
+         */
+        public boolean isCached() {
+            return this.cached;
+        }
     }
 }
@@ -17,9 +17,15 @@
 package io.fabric8.elasticsearch.plugin;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.lang.StringUtils;
@@ -36,32 +42,49 @@ import org.elasticsearch.action.admin.indices.get.GetIndexRequestBuilder;
 import org.elasticsearch.action.admin.indices.get.GetIndexResponse;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequestBuilder;
 import org.elasticsearch.action.admin.indices.refresh.RefreshResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequestBuilder;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequestBuilder;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.update.UpdateRequestBuilder;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.regex.Regex;
 
+import com.carrotsearch.hppc.cursors.ObjectCursor;
 import com.floragunn.searchguard.support.ConfigConstants;
 import com.google.common.collect.UnmodifiableIterator;
 
 /**
- * Facade to the ES client to simplify calls
+ * Facade to the ES client to simplify calls. Index and alias lookups are
+ * answered from the cluster state of the local node
  *
  */
 public class PluginClient {
 
     private static ESLogger LOGGER = Loggers.getLogger(PluginClient.class);
     private final Client client;
+    private final ClusterService clusterService;
+    private volatile IndexNames names;
 
     @Inject
-    public PluginClient(Client client) {
+    public PluginClient(Client client, ClusterService clusterService) {
         this.client = client;
+        this.clusterService = clusterService;
     }
     
     public UpdateResponse update(String index, String type, String id, String source) {
@@ -95,12 +118,20 @@ public class PluginClient {
     
     public CreateIndexResponse copyIndex(final String source, final String target, String... types) throws InterruptedException, ExecutionException, IOException {
         LOGGER.trace("Copying {} index to {} for types {}", source, target, types);
-        GetIndexResponse response = getIndices(source);
-        CreateIndexRequestBuilder builder = client.admin().indices()
-                .prepareCreate(target)
-                .setSettings(response.getSettings().get(source));
-        for (String type : types) {
-            builder.addMapping(type, response.mappings().get(source).get(type).getSourceAsMap());
+        CreateIndexRequestBuilder builder = client.admin().indices().prepareCreate(target);
+        IndexMetaData metaData = clusterService.state().metaData().index(source);
+        if (metaData != null) {
+            builder.setSettings(metaData.getSettings());
+            for (String type : types) {
+                MappingMetaData mapping = metaData.getMappings().get(type);
+                builder.addMapping(type, mapping == null ? null : mapping.getSourceAsMap());
+            }
+        } else {
+            GetIndexResponse response = getIndices(source);
+            builder.setSettings(response.getSettings().get(source));
+            for (String type : types) {
+                builder.addMapping(type, response.mappings().get(source).get(type).getSourceAsMap());
+            }
         }
         addCommonHeaders(builder);
         return builder.get();
@@ -115,8 +146,17 @@ public class PluginClient {
         return response;
     }
 
+    /**
+     * @param index  An index or alias name, which may contain wildcards
+     * @return true if an index or alias matches
+     */
     public boolean indexExists(final String index) {
         LOGGER.trace("Checking for existance of index '{}'", index);
+        if (isLocalExpression(index)) {
+            boolean exists = getIndexNames().exists(index);
+            LOGGER.trace("Index '{}' exists? {}", index, exists);
+            return exists;
+        }
         IndicesExistsRequestBuilder builder = client.admin().indices().prepareExists(index);
         addCommonHeaders(builder);
         IndicesExistsResponse response = builder.get();
@@ -139,6 +179,40 @@ public class PluginClient {
         return exists;
     }
     
+    /**
+     * Check the existence of several documents with one multi-get
+     *
+     * @return the ids of the documents that exist
+     */
+    public Set<String> documentsExist(final String index, final String type, final Collection<String> ids) {
+        LOGGER.trace("Checking for existence of documents: '{}/{}/{}'", index, type, ids);
+        Set<String> existing = new HashSet<>();
+        if (ids.isEmpty()) {
+            return existing;
+        }
+        MultiGetRequestBuilder builder = client.prepareMultiGet();
+        for (String id : ids) {
+            builder.add(new MultiGetRequest.Item(index, type, id).fields(new String[] {}));
+        }
+        addCommonHeaders(builder);
+        MultiGetResponse response = builder.get();
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if (!item.isFailed() && item.getResponse().isExists()) {
+                existing.add(item.getId());
+            }
+        }
+        LOGGER.trace("Documents '{}/{}/{}' exist", index, type, existing);
+        return existing;
+    }
+
+    public BulkResponse bulk(final BulkRequest request) {
+        LOGGER.debug("BULK: {} actions", request.numberOfActions());
+        request.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
+        BulkResponse response = client.bulk(request).actionGet();
+        LOGGER.debug("Bulk request has failures? {}", response.hasFailures());
+        return response;
+    }
+
     /**
      * Retrieve the set of indices for a given alias
      * 
@@ -147,6 +221,11 @@ public class PluginClient {
      */
     public Set<String> getIndicesForAlias(String alias){
         LOGGER.trace("Retrieving indices for alias '{}'", alias);
+        if (isLocalExpression(alias)) {
+            Set<String> indices = getIndexNames().indicesForAlias(alias);
+            LOGGER.trace("Indices for alias '{}': {}", alias, indices);
+            return indices;
+        }
         GetAliasesRequestBuilder builder = this.client.admin().indices().prepareGetAliases(alias);
         addCommonHeaders(builder);
         GetAliasesResponse response = builder.get();
@@ -188,4 +267,84 @@ public class PluginClient {
     private void addCommonHeaders(ActionRequestBuilder builder) {
         builder.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
     }
+
+    /*
+     * Lists, exclusions and '_all' are left to the admin requests
+     */
+    private static boolean isLocalExpression(String expression) {
+        return StringUtils.isNotBlank(expression) && !MetaData.ALL.equals(expression)
+                && expression.indexOf(',') < 0 && expression.charAt(0) != '-' && expression.charAt(0) != '+';
+    }
+
+    private IndexNames getIndexNames() {
+        MetaData metaData = clusterService.state().metaData();
+        IndexNames current = names;
+        if (current == null || current.version != metaData.version()
+                || !current.clusterUuid.equals(metaData.clusterUUID())) {
+            current = new IndexNames(metaData);
+            names = current;
+        }
+        return current;
+    }
+
+    /**
+     * Sorted index and alias names of one version of the cluster metadata,
+     * so names with a prefix are found without scanning every index
+     */
+    static class IndexNames {
+
+        private final long version;
+        private final String clusterUuid;
+        private final NavigableSet<String> indices = new TreeSet<>();
+        private final NavigableMap<String, Set<String>> aliases = new TreeMap<>();
+
+        IndexNames(MetaData metaData) {
+            this.version = metaData.version();
+            this.clusterUuid = metaData.clusterUUID();
+            for (IndexMetaData index : metaData) {
+                indices.add(index.getIndex());
+                for (ObjectCursor<AliasMetaData> alias : index.getAliases().values()) {
+                    Set<String> aliased = aliases.get(alias.value.alias());
+                    if (aliased == null) {
+                        aliased = new HashSet<>();
+                        aliases.put(alias.value.alias(), aliased);
+                    }
+                    aliased.add(index.getIndex());
+                }
+            }
+        }
+
+        boolean exists(String expression) {
+            if (!Regex.isSimpleMatchPattern(expression)) {
+                return indices.contains(expression) || aliases.containsKey(expression);
+            }
+            return !matching(indices, expression).isEmpty() || !matching(aliases.navigableKeySet(), expression).isEmpty();
+        }
+
+        Set<String> indicesForAlias(String expression) {
+            if (!Regex.isSimpleMatchPattern(expression)) {
+                Set<String> aliased = aliases.get(expression);
+                return aliased == null ? Collections.<String>emptySet() : new HashSet<>(aliased);
+            }
+            Set<String> result = new HashSet<>();
+            for (String alias : matching(aliases.navigableKeySet(), expression)) {
+                result.addAll(aliases.get(alias));
+            }
+            return result;
+        }
+
+        private static Set<String> matching(NavigableSet<String> names, String pattern) {
+            String prefix = pattern.substring(0, pattern.indexOf('*'));
+            Set<String> result = new HashSet<>();
+            for (String name : names.tailSet(prefix, true)) {
+                if (!name.startsWith(prefix)) {
+                    break;
+                }
+                if (Regex.simpleMatch(pattern, name)) {
+                    result.add(name);
+                }
+            }
+            return result;
+        }
+    }
 }
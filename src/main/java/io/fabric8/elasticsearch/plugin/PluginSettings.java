@@ -28,6 +28,7 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 
 public class PluginSettings implements ConfigurationSettings {
 
@@ -42,6 +43,10 @@ public class PluginSettings implements ConfigurationSettings {
     private final String kbnVersionHeader;
     private final Boolean enabled;
     private final Set<String> opsIndexPatterns;
+    private final boolean aclAwaitActive;
+    private final long aclAwaitActiveTimeout;
+    private final int aclSyncParallelThreshold;
+    private final boolean kibanaSeedWatchIndices;
     
     @Inject
     public PluginSettings(final Settings settings) {
@@ -63,6 +68,13 @@ public class PluginSettings implements ConfigurationSettings {
         this.kbnVersionHeader = settings.get(KIBANA_VERSION_HEADER, DEFAULT_KIBANA_VERSION_HEADER);
         this.enabled = settings.getAsBoolean(OPENSHIFT_DYNAMIC_ENABLED_FLAG, OPENSHIFT_DYNAMIC_ENABLED_DEFAULT);
         this.opsIndexPatterns = new HashSet<String>(Arrays.asList(settings.getAsArray(OPENSHIFT_KIBANA_OPS_INDEX_PATTERNS, DEFAULT_KIBANA_OPS_INDEX_PATTERNS)));
+        this.aclAwaitActive = settings.getAsBoolean(OPENSHIFT_ACL_AWAIT_ACTIVE_ENABLED, DEFAULT_ACL_AWAIT_ACTIVE_ENABLED);
+        this.aclAwaitActiveTimeout = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_ACL_AWAIT_ACTIVE_TIMEOUT, DEFAULT_ACL_AWAIT_ACTIVE_TIMEOUT), null,
+                OPENSHIFT_ACL_AWAIT_ACTIVE_TIMEOUT).millis();
+        this.aclSyncParallelThreshold = settings.getAsInt(OPENSHIFT_ACL_SYNC_PARALLEL_THRESHOLD, DEFAULT_ACL_SYNC_PARALLEL_THRESHOLD);
+        this.kibanaSeedWatchIndices = settings.getAsBoolean(OPENSHIFT_KIBANA_SEED_WATCH_INDICES_ENABLED,
+                DEFAULT_KIBANA_SEED_WATCH_INDICES_ENABLED);
 
         LOGGER.info("Using kibanaIndexMode: '{}'", this.kibanaIndexMode);
         LOGGER.debug("searchGuardIndex: {}", this.searchGuardIndex);
@@ -109,4 +121,20 @@ public class PluginSettings implements ConfigurationSettings {
     public Set<String> getKibanaOpsIndexPatterns() {
         return opsIndexPatterns;
     }
+
+    public boolean isAclAwaitActive() {
+        return aclAwaitActive;
+    }
+
+    public long getAclAwaitActiveTimeout() {
+        return aclAwaitActiveTimeout;
+    }
+
+    public int getAclSyncParallelThreshold() {
+        return aclSyncParallelThreshold;
+    }
+
+    public boolean isKibanaSeedWatchIndices() {
+        return kibanaSeedWatchIndices;
+    }
 }
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentParser.Token;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.RestStatus;
+
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.openshift.api.model.Project;
+import io.fabric8.openshift.client.OpenShiftClient;
+
+/**
+ * Lists the projects a user can see as the '{name}.{uid}' values cached for
+ * the user. The response is requested in pages of 'page_size' and streamed
+ * through a parser that only keeps the name and uid of each project, so
+ * listing thousands of projects for a cluster admin does not build the
+ * model objects of the full project list. Masters that do not support
+ * paging return all projects in a single page.
+ */
+public class ProjectLister implements ConfigurationSettings {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(ProjectLister.class);
+
+    private final Set<String> operationsProjects = new HashSet<>();
+    private final int pageSize;
+
+    public ProjectLister(final Settings settings) {
+        for (String project : settings.getAsArray(OPENSHIFT_CONFIG_OPS_PROJECTS, DEFAULT_OPENSHIFT_OPS_PROJECTS)) {
+            operationsProjects.add(project.toLowerCase());
+        }
+        this.pageSize = settings.getAsInt(OPENSHIFT_ACL_PROJECTS_PAGE_SIZE, DEFAULT_ACL_PROJECTS_PAGE_SIZE);
+    }
+
+    /**
+     * @param client  A client configured with the user's token
+     * @param token   The user's token
+     * @return the projects of the user other than the operations projects
+     */
+    public Set<String> list(final OpenShiftClient client, final String token) throws IOException {
+        if (!(client instanceof HttpClientAware)) {
+            return listModels(client);
+        }
+        Set<String> names = new HashSet<>();
+        String next = null;
+        int pages = 0;
+        while (pages == 0 || StringUtils.isNotEmpty(next)) {
+            HttpUrl.Builder url = HttpUrl.parse(client.getMasterUrl() + "oapi/v1/projects").newBuilder();
+            if (pageSize > 0) {
+                url.addQueryParameter("limit", String.valueOf(pageSize));
+            }
+            if (next != null) {
+                url.addQueryParameter("continue", next);
+            }
+            Request request = new Request.Builder()
+                    .addHeader("Authorization", "Bearer " + token)
+                    .url(url.build())
+                    .build();
+            Response response = ((HttpClientAware) client).getHttpClient().newCall(request).execute();
+            try (InputStream body = response.body().byteStream()) {
+                if (response.code() >= RestStatus.INTERNAL_SERVER_ERROR.getStatus()) {
+                    throw new OpenShiftMasterUnavailableException("The OpenShift master responded with '{}'", response.code());
+                }
+                if (response.code() != RestStatus.OK.getStatus()) {
+                    throw new ElasticsearchSecurityException("Unable to list projects. The OpenShift master responded with '{}'",
+                            RestStatus.UNAUTHORIZED, response.code());
+                }
+                next = parse(body, names);
+            }
+            pages++;
+        }
+        LOGGER.debug("Listed {} projects in {} pages", names.size(), pages);
+        return names;
+    }
+
+    private Set<String> listModels(final OpenShiftClient client) {
+        Set<String> names = new HashSet<>();
+        for (Project project : client.projects().list().getItems()) {
+            add(names, project.getMetadata().getName(), project.getMetadata().getUid());
+        }
+        return names;
+    }
+
+    /*
+     * Read the project names and uids of a ProjectList into names
+     *
+     * @return the continue token of the list, if any
+     */
+    String parse(final InputStream body, final Set<String> names) throws IOException {
+        String next = null;
+        try (XContentParser parser = JsonXContent.jsonXContent.createParser(body)) {
+            if (parser.nextToken() != Token.START_OBJECT) {
+                throw new IOException("Expected a project list");
+            }
+            while (parser.nextToken() == Token.FIELD_NAME) {
+                final String field = parser.currentName();
+                final Token token = parser.nextToken();
+                if ("metadata".equals(field) && token == Token.START_OBJECT) {
+                    while (parser.nextToken() == Token.FIELD_NAME) {
+                        final String name = parser.currentName();
+                        if (parser.nextToken() == Token.VALUE_STRING && "continue".equals(name)) {
+                            next = parser.text();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("items".equals(field) && token == Token.START_ARRAY) {
+                    while (parser.nextToken() == Token.START_OBJECT) {
+                        parseProject(parser, names);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return next;
+    }
+
+    private void parseProject(final XContentParser parser, final Set<String> names) throws IOException {
+        String name = null;
+        String uid = null;
+        while (parser.nextToken() == Token.FIELD_NAME) {
+            final String field = parser.currentName();
+            if (parser.nextToken() == Token.START_OBJECT && "metadata".equals(field)) {
+                while (parser.nextToken() == Token.FIELD_NAME) {
+                    final String key = parser.currentName();
+                    parser.nextToken();
+                    if ("name".equals(key)) {
+                        name = parser.text();
+                    } else if ("uid".equals(key)) {
+                        uid = parser.text();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (name != null) {
+            add(names, name, uid);
+        }
+    }
+
+    private void add(final Set<String> names, final String name, final String uid) {
+        if (!operationsProjects.contains(name.toLowerCase())) {
+            names.add(name + "." + uid);
+        }
+    }
+}
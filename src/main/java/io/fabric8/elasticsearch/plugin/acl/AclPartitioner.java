@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates the part of an ACL built from each cached user either on the
+ * calling thread or, once the cache holds at least 'threshold' users, split
+ * over a fork-join pool. Partial results are merged in the order of the
+ * users so both produce the same ACL. The pool is created on first use and
+ * shut down by {@link #close()}, after which ACLs are built on the calling
+ * thread.
+ */
+public class AclPartitioner {
+
+    public static final AclPartitioner SERIAL = new AclPartitioner(0);
+
+    /**
+     * The users added into one builder
+     */
+    public interface Partition<B> {
+
+        B newBuilder();
+
+        void add(UserProjectCacheEntry entry, B builder);
+
+        void merge(B into, B from);
+    }
+
+    private final int threshold;
+    private final int parallelism;
+    private volatile ForkJoinPool pool;
+    private volatile boolean closed;
+
+    public AclPartitioner(final int threshold) {
+        this(threshold, Runtime.getRuntime().availableProcessors());
+    }
+
+    AclPartitioner(final int threshold, final int parallelism) {
+        this.threshold = threshold;
+        this.parallelism = parallelism;
+    }
+
+    public <B> B build(final List<UserProjectCacheEntry> entries, final Partition<B> partition) {
+        final boolean parallel = threshold > 0 && parallelism > 1 && entries.size() >= threshold;
+        final ForkJoinPool forkJoinPool = parallel ? getPool() : null;
+        if (forkJoinPool == null) {
+            B builder = partition.newBuilder();
+            for (UserProjectCacheEntry entry : entries) {
+                partition.add(entry, builder);
+            }
+            return builder;
+        }
+        int leafSize = Math.max(1, entries.size() / (parallelism * 4));
+        return forkJoinPool.invoke(new PartitionTask<B>(entries, 0, entries.size(), leafSize, partition));
+    }
+
+    /*
+     * @return the pool, or null once the partitioner is closed
+     */
+    private ForkJoinPool getPool() {
+        if (pool == null) {
+            synchronized (this) {
+                if (pool == null && !closed) {
+                    pool = new ForkJoinPool(parallelism);
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Shut down the pool of the partitioner
+     */
+    public synchronized void close() {
+        closed = true;
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    private static class PartitionTask<B> extends RecursiveTask<B> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<UserProjectCacheEntry> entries;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+        private final Partition<B> partition;
+
+        PartitionTask(final List<UserProjectCacheEntry> entries, final int from, final int to, final int leafSize,
+                final Partition<B> partition) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+            this.partition = partition;
+        }
+
+        @Override
+        protected B compute() {
+            if (to - from <= leafSize) {
+                B builder = partition.newBuilder();
+                for (int i = from; i < to; i++) {
+                    partition.add(entries.get(i), builder);
+                }
+                return builder;
+            }
+            int middle = (from + to) >>> 1;
+            PartitionTask<B> left = new PartitionTask<B>(entries, from, middle, leafSize, partition);
+            PartitionTask<B> right = new PartitionTask<B>(entries, middle, to, leafSize, partition);
+            left.fork();
+            B rightBuilder = right.compute();
+            B builder = left.join();
+            partition.merge(builder, rightBuilder);
+            return builder;
+        }
+    }
+}
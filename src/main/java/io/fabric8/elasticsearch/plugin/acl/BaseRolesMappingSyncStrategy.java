@@ -18,16 +18,20 @@ package io.fabric8.elasticsearch.plugin.acl;
 
 import static io.fabric8.elasticsearch.plugin.acl.SearchGuardRoles.ROLE_PREFIX;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 
+import io.fabric8.elasticsearch.plugin.acl.AclPartitioner.Partition;
 import io.fabric8.elasticsearch.plugin.acl.SearchGuardRolesMapping.RolesMapping;
 
 public abstract class BaseRolesMappingSyncStrategy implements RolesMappingSyncStrategy {
 
     protected final SearchGuardRolesMapping mappings;
+    private final AclPartitioner partitioner;
     
-    protected BaseRolesMappingSyncStrategy(final SearchGuardRolesMapping mappings) {
+    protected BaseRolesMappingSyncStrategy(final SearchGuardRolesMapping mappings, final AclPartitioner partitioner) {
         this.mappings = mappings;
+        this.partitioner = partitioner;
     }
 
 
@@ -42,13 +46,32 @@ public abstract class BaseRolesMappingSyncStrategy implements RolesMappingSyncSt
     }
 
 
-    protected abstract void syncFromImpl(UserProjectCache cache, RolesMappingBuilder builder);
+    /**
+     * Map one user to their roles. Called concurrently for different users
+     * when the ACL is generated in parallel
+     */
+    protected abstract void syncUserMappings(UserProjectCacheEntry entry, RolesMappingBuilder builder);
     
     @Override
     public void syncFrom(UserProjectCache cache) {
         removeSyncAcls();
-        RolesMappingBuilder builder = new RolesMappingBuilder();
-        syncFromImpl(cache, builder);
+        RolesMappingBuilder builder = partitioner.build(new ArrayList<>(cache.getAclEntries()), new Partition<RolesMappingBuilder>() {
+
+            @Override
+            public RolesMappingBuilder newBuilder() {
+                return new RolesMappingBuilder();
+            }
+
+            @Override
+            public void add(UserProjectCacheEntry entry, RolesMappingBuilder builder) {
+                syncUserMappings(entry, builder);
+            }
+
+            @Override
+            public void merge(RolesMappingBuilder into, RolesMappingBuilder from) {
+                into.addAll(from);
+            }
+        });
         mappings.addAll(builder.build());
     }
 
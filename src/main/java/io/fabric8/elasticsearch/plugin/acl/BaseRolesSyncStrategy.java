@@ -16,32 +16,72 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import static io.fabric8.elasticsearch.plugin.acl.SearchGuardRoles.USER_PREFIX;
-
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
-import io.fabric8.elasticsearch.plugin.KibanaUserReindexFilter;
-import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
+import io.fabric8.elasticsearch.plugin.acl.AclPartitioner.Partition;
 import io.fabric8.elasticsearch.plugin.acl.SearchGuardRoles.Roles;
 
 public abstract class BaseRolesSyncStrategy implements RolesSyncStrategy {
 
     protected SearchGuardRoles roles;
     private final String userProfilePrefix;
+    private final AclPartitioner partitioner;
    
-    protected BaseRolesSyncStrategy(SearchGuardRoles roles, String userProfilePrefix) {
+    protected BaseRolesSyncStrategy(SearchGuardRoles roles, String userProfilePrefix, AclPartitioner partitioner) {
         this.roles = roles;
         this.userProfilePrefix = userProfilePrefix;
+        this.partitioner = partitioner;
+    }
 
+    /**
+     * Add the roles not specific to one user, before those of the users. The
+     * entries are those the ACL is generated from, including restored ones
+     */
+    protected void syncSharedRoles(List<UserProjectCacheEntry> entries, RolesBuilder builder) {
     }
-    
-    protected abstract void syncFromImpl(UserProjectCache cache, RolesBuilder builder);
+
+    /**
+     * Add the roles of one user. Called concurrently for different users
+     * when the ACL is generated in parallel
+     */
+    protected abstract void syncUserRoles(UserProjectCacheEntry entry, RolesBuilder builder);
+
+    /**
+     * Add the roles needed when at least one user is an operations user
+     */
+    protected abstract void syncOperationsRoles(RolesBuilder builder);
     
     @Override
     public void syncFrom(UserProjectCache cache) {
         removeSyncAcls();
+        List<UserProjectCacheEntry> entries = new ArrayList<>(cache.getAclEntries());
         RolesBuilder builder = new RolesBuilder();
-        syncFromImpl(cache, builder);
+        syncSharedRoles(entries, builder);
+        builder.addAll(partitioner.build(entries, new Partition<RolesBuilder>() {
+
+            @Override
+            public RolesBuilder newBuilder() {
+                return new RolesBuilder();
+            }
+
+            @Override
+            public void add(UserProjectCacheEntry entry, RolesBuilder builder) {
+                syncUserRoles(entry, builder);
+            }
+
+            @Override
+            public void merge(RolesBuilder into, RolesBuilder from) {
+                into.addAll(from);
+            }
+        }));
+        for (UserProjectCacheEntry entry : entries) {
+            if (entry.isOperationsUser()) {
+                syncOperationsRoles(builder);
+                break;
+            }
+        }
         roles.addAll(builder.build());
     }
 
@@ -55,24 +95,25 @@ public abstract class BaseRolesSyncStrategy implements RolesSyncStrategy {
         }
     }
     
-    protected String formatKibanaIndexName(UserProjectCache cache, String username, String token, String kibanaIndexMode) {
-        String kibanaIndex = OpenshiftRequestContextFactory.getKibanaIndex(userProfilePrefix, 
-                kibanaIndexMode, username, cache.isOperationsUser(username, token));
-        return kibanaIndex.replace('.','?');
+    protected String formatKibanaIndexName(UserProjectCacheEntry entry, String kibanaIndexMode) {
+        return entry.getIdentity().getKibanaIndexPattern(userProfilePrefix, kibanaIndexMode, entry.isOperationsUser());
     }
     
     
-    protected String formatKibanaRoleName(UserProjectCache cache, String username, String token) {
-        boolean isOperationsUser = cache.isOperationsUser(username, token);
-        if (isOperationsUser) {
+    protected String formatKibanaRoleName(UserProjectCacheEntry entry) {
+        if (entry.isOperationsUser()) {
             return SearchGuardRolesMapping.KIBANA_SHARED_ROLE;
         } else {
-            return SearchGuardRoles.formatUniqueKibanaRoleName(username);
+            return entry.getIdentity().getKibanaRoleName();
         }
     }
     
-    public static String formatUserRoleName(String username) {
-        return String.format("%s_%s", USER_PREFIX, KibanaUserReindexFilter.getUsernameHash(username));
+    public static String formatUserRoleName(UserIdentity identity) {
+        return identity.getUserRoleName();
+    }
+
+    protected static String formatProjectRoleName(String project) {
+        return SearchGuardRoles.PROJECT_PREFIX + "_" + project.replace('.', '_');
     }
 
 }
@@ -16,54 +16,47 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.elasticsearch.ElasticsearchSecurityException;
-import org.elasticsearch.action.WriteConsistencyLevel;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkRequestBuilder;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.get.MultiGetItemResponse;
-import org.elasticsearch.action.get.MultiGetRequest;
-import org.elasticsearch.action.get.MultiGetResponse;
-import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
-import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestFilter;
 import org.elasticsearch.rest.RestFilterChain;
 import org.elasticsearch.rest.RestRequest;
 import org.elasticsearch.rest.RestStatus;
-
-import com.floragunn.searchguard.action.configupdate.ConfigUpdateAction;
-import com.floragunn.searchguard.action.configupdate.ConfigUpdateRequest;
-import com.floragunn.searchguard.action.configupdate.ConfigUpdateResponse;
-import com.floragunn.searchguard.support.ConfigConstants;
+import org.elasticsearch.threadpool.ThreadPool;
 
 import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenShiftMasterUnavailableException;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
 import io.fabric8.elasticsearch.plugin.PluginSettings;
-import io.fabric8.elasticsearch.plugin.kibana.KibanaSeed;
+import io.fabric8.elasticsearch.plugin.auth.AdmissionController;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor.SeedJob;
 import io.fabric8.elasticsearch.util.RequestUtils;
 
 /**
- * REST filter to update the ACL when a user first makes a request
+ * REST filter to update the ACL when a user first makes a request. Requests
+ * that can not be answered from the cache are processed on the
+ * 'openshift_auth' thread pool and continue down the chain from there,
+ * once admitted by the {@link AdmissionController}.
  */
 public class DynamicACLFilter extends RestFilter implements ConfigurationSettings {
 
     private static final ESLogger LOGGER = Loggers.getLogger(DynamicACLFilter.class);
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
 
     private final UserProjectCache cache;
-    private final String searchGuardIndex;
     private final String kibanaVersion;
-    private final ReentrantLock lock = new ReentrantLock();
 
     private final String kbnVersionHeader;
 
@@ -71,34 +64,84 @@ public class DynamicACLFilter extends RestFilter implements ConfigurationSetting
 
     private final String cdmProjectPrefix;
 
-    private KibanaSeed kibanaSeed;
+    private final KibanaSeedExecutor kibanaSeeds;
 
     private final Client client;
     private final OpenshiftRequestContextFactory contextFactory;
-    private final SearchGuardSyncStrategyFactory documentFactory;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final UserProjectCacheRefresher refresher;
     private final RequestUtils utils;
-
+    private final UserProjectCachePublisher publisher;
+    private final ThreadPool threadPool;
+    private final AdmissionController admission;
 
     @Inject
-    public DynamicACLFilter(final UserProjectCache cache, final PluginSettings settings, final KibanaSeed seed, 
+    public DynamicACLFilter(final UserProjectCache cache, final PluginSettings settings, final KibanaSeedExecutor seeds, 
             final Client client, final OpenshiftRequestContextFactory contextFactory,
-            final SearchGuardSyncStrategyFactory documentFactory,
-            final RequestUtils utils) {
+            final SearchGuardACLSynchronizer synchronizer, final UserProjectCacheRefresher refresher,
+            final RequestUtils utils, final UserProjectCachePublisher publisher, final ThreadPool threadPool,
+            final AdmissionController admission) {
         this.client = client;
         this.cache = cache;
-        this.kibanaSeed = seed;
+        this.kibanaSeeds = seeds;
         this.contextFactory = contextFactory;
-        this.documentFactory = documentFactory;
-        this.searchGuardIndex = settings.getSearchGuardIndex();
+        this.synchronizer = synchronizer;
+        this.refresher = refresher;
         this.kibanaVersion = settings.getKibanaVersion();
         this.kbnVersionHeader = settings.getKbnVersionHeader();
         this.cdmProjectPrefix = settings.getCdmProjectPrefix();
         this.enabled = settings.isEnabled();
         this.utils = utils;
+        this.publisher = publisher;
+        this.threadPool = threadPool;
+        this.admission = admission;
     }
 
     @Override
-    public void process(RestRequest request, RestChannel channel, RestFilterChain chain) throws Exception {
+    public void process(final RestRequest request, final RestChannel channel, final RestFilterChain chain) throws Exception {
+        if (!enabled || !utils.requiresUserContext(request)) {
+            chain.continueProcessing(request, channel);
+            return;
+        }
+        final String token = utils.getBearerToken(request);
+        if (StringUtils.isBlank(token)) {
+            handle(request, channel, chain, null);
+            return;
+        }
+        final UserProjectCacheEntry entry = cache.getByToken(token);
+        if (entry != null && !entry.isRestored()) {
+            handle(request, channel, chain, entry);
+            return;
+        }
+        final long retryAfter = admission.tryAdmit(token);
+        if (retryAfter > 0) {
+            LOGGER.debug("Rejecting a request. The token is over its admission limit");
+            BytesRestResponse response = new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS,
+                    "Too many requests that need authorization. Retry later");
+            response.addHeader(RETRY_AFTER_HEADER, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(retryAfter + 999)));
+            channel.sendResponse(response);
+            return;
+        }
+        try {
+            threadPool.executor(OPENSHIFT_AUTH_THREAD_POOL).execute(new Runnable() {
+                @Override
+                public void run() {
+                    // the token may have been cached while the request was queued
+                    handle(request, channel, chain, entry != null ? entry : cache.getByToken(token));
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            LOGGER.debug("Rejecting a request. The {} queue is full", OPENSHIFT_AUTH_THREAD_POOL);
+            channel.sendResponse(new BytesRestResponse(RestStatus.TOO_MANY_REQUESTS));
+        }
+    }
+
+    /*
+     * Handle a request with the cache entry of its token. Requests without an
+     * entry, or with a restored one, may need the master, Kibana seeding or an
+     * ACL sync
+     */
+    private void handle(RestRequest request, RestChannel channel, RestFilterChain chain, UserProjectCacheEntry entry) {
         boolean continueProcessing = true;
 
         try {
@@ -108,7 +151,7 @@ public class DynamicACLFilter extends RestFilter implements ConfigurationSetting
                 // next plugin for processing e.g. client cert auth with no username/password
                 // if create throws an exception, it means there was an issue with the token
                 // and username and the request failed authentication
-                final OpenshiftRequestContext requestContext = contextFactory.create(request, cache);
+                final OpenshiftRequestContext requestContext = contextFactory.create(request, cache, entry);
                 request = utils.modifyRequest(request, requestContext);
                 if (requestContext == OpenshiftRequestContext.EMPTY) {
                     return; // do not process in this plugin
@@ -117,11 +160,19 @@ public class DynamicACLFilter extends RestFilter implements ConfigurationSetting
                 // grab the kibana version here out of "kbn-version" if we can
                 // -- otherwise use the config one
                 final String kbnVersion = getKibanaVersion(request);
-                if (updateCache(requestContext, kbnVersion)) {
-                    kibanaSeed.setDashboards(requestContext, client, kbnVersion, cdmProjectPrefix);
-                    syncAcl(requestContext);
+                if (requestContext.isCached()) {
+                    LOGGER.debug("User '{}' is cached. Skipping seeding and ACL sync", requestContext.getUser());
+                    refresher.recordAccess(requestContext.getToken());
+                } else if (updateCache(requestContext, kbnVersion, entry)) {
+                    SeedJob seeding = kibanaSeeds.submit(requestContext, client, kbnVersion, cdmProjectPrefix);
+                    synchronizer.awaitSync();
+                    kibanaSeeds.awaitKibanaIndex(requestContext, seeding);
                 }
             }
+        } catch (OpenShiftMasterUnavailableException e) {
+            LOGGER.info("Could not authenticate user: {}", e.getMessage());
+            channel.sendResponse(new BytesRestResponse(RestStatus.SERVICE_UNAVAILABLE));
+            continueProcessing = false;
         } catch (ElasticsearchSecurityException ese) {
             LOGGER.info("Could not authenticate user");
             channel.sendResponse(new BytesRestResponse(RestStatus.UNAUTHORIZED));
@@ -143,10 +194,16 @@ public class DynamicACLFilter extends RestFilter implements ConfigurationSetting
         return kbnVersion;
     }
 
-    private boolean updateCache(final OpenshiftRequestContext context, final String kbnVersion) {
+    private boolean updateCache(final OpenshiftRequestContext context, final String kbnVersion,
+            final UserProjectCacheEntry restored) {
         LOGGER.debug("Updating the cache for user '{}'", context.getUser());
         try {
-            cache.update(context.getUser(), context.getToken(), context.getProjects(), context.isOperationsUser());
+            UserProjectCacheEntry entry = cache.update(context.getUser(), context.getToken(), context.getProjects(),
+                    context.isOperationsUser(), context.getIdentity());
+            // entries restored from a snapshot or a peer were already published
+            if (restored == null && entry != null) {
+                publisher.publish(entry);
+            }
         } catch (Exception e) {
             LOGGER.error("Error updating cache for user '{}'", e, context.getUser());
             return false;
@@ -154,93 +211,6 @@ public class DynamicACLFilter extends RestFilter implements ConfigurationSetting
         return true;
     }
 
-    private void syncAcl(OpenshiftRequestContext context) {
-        LOGGER.debug("Syncing the ACL to ElasticSearch");
-        try {
-            lock.lock();
-            LOGGER.debug("Loading SearchGuard ACL...");
-
-            final MultiGetRequest mget = new MultiGetRequest();
-            mget.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true"); //header needed here
-            mget.refresh(true);
-            mget.realtime(true);
-            mget.add(searchGuardIndex, SEARCHGUARD_ROLE_TYPE, SEARCHGUARD_CONFIG_ID);
-            mget.add(searchGuardIndex, SEARCHGUARD_MAPPING_TYPE, SEARCHGUARD_CONFIG_ID);
-
-            SearchGuardRoles roles = null;
-            SearchGuardRolesMapping rolesMapping = null;
-            MultiGetResponse response = client.multiGet(mget).actionGet();
-            for (MultiGetItemResponse item : response.getResponses()) {
-                if(!item.isFailed()) {
-                    if(LOGGER.isDebugEnabled()){
-                        LOGGER.debug("Read in {}: {}", item.getType(), XContentHelper.convertToJson(item.getResponse().getSourceAsBytesRef(), true, true));
-                    }
-                    switch (item.getType()) {
-                    case SEARCHGUARD_ROLE_TYPE:
-                        roles = new SearchGuardRoles().load(item.getResponse().getSource());
-                        break;
-                    case SEARCHGUARD_MAPPING_TYPE:
-                        rolesMapping = new SearchGuardRolesMapping().load(item.getResponse().getSource());
-                        break;
-                    }
-                }else {
-                    LOGGER.error("There was a failure loading document type {}", item.getFailure(), item.getType());
-                }
-            }
-
-            if(roles == null || rolesMapping == null) {
-                return;
-            }
-
-            LOGGER.debug("Syncing from cache to ACL...");
-            RolesMappingSyncStrategy rolesMappingSync = documentFactory.createRolesMappingSyncStrategy(rolesMapping);
-            rolesMappingSync.syncFrom(cache);
-            
-            RolesSyncStrategy rolesSync = documentFactory.createRolesSyncStrategy(roles);
-            rolesSync.syncFrom(cache);
-
-            writeAcl(roles, rolesMapping);
-        } catch (Exception e) {
-            LOGGER.error("Exception while syncing ACL with cache", e);
-        } finally {
-            lock.unlock();
-        }
-    }
-
-    private void writeAcl(SearchGuardACLDocument... documents) throws Exception {
-
-        BulkRequestBuilder builder = this.client.prepareBulk().setRefresh(true);
-
-        for (SearchGuardACLDocument doc : documents) {
-            UpdateRequest update = this.client
-                    .prepareUpdate(searchGuardIndex, doc.getType(), SEARCHGUARD_CONFIG_ID)
-                    .setConsistencyLevel(WriteConsistencyLevel.DEFAULT)
-                    .setDoc(doc.toXContentBuilder())
-                    .request();
-            builder.add(update);
-            if(LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Built {} update request: {}", doc.getType(), XContentHelper.convertToJson(doc.toXContentBuilder().bytes(),true, true));
-            }
-        }
-        BulkRequest request = builder.request();
-        request.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
-        BulkResponse response = this.client.bulk(request).actionGet();
-
-        if(!response.hasFailures()) {
-            ConfigUpdateRequest confRequest = new ConfigUpdateRequest(SEARCHGUARD_INITIAL_CONFIGS);
-            confRequest.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
-            ConfigUpdateResponse cur = this.client
-                    .execute(ConfigUpdateAction.INSTANCE, confRequest).actionGet();
-            if (cur.getNodes().length > 0) {
-                LOGGER.debug("Successfully reloaded config with '{}' nodes", cur.getNodes().length);
-            }else {
-                LOGGER.warn("Failed to reloaded configs", cur.getNodes().length);
-            }
-        }else {
-            LOGGER.error("Unable to write ACL {}", response.buildFailureMessage());
-        }
-    }
-
     @Override
     public int order() {
         // need to run before search guard
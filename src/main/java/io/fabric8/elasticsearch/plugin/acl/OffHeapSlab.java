@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The direct memory of the {@link OffHeapUserProjectCache}. It is reserved in
+ * segments as it is first needed and handed out in fixed size blocks. Blocks
+ * are reused as soon as they are released, so the memory of an evicted entry
+ * is available again right away instead of once the GC collects a buffer.
+ * The slab never reserves more than its capacity, and allocating fails
+ * instead of exceeding it. Released blocks are chained through their first
+ * four bytes, so the free list takes no heap.
+ */
+class OffHeapSlab {
+
+    static final int BLOCK_SIZE = 32;
+    private static final int SEGMENT_SIZE = 1024 * 1024;
+    private static final int BLOCKS_PER_SEGMENT = SEGMENT_SIZE / BLOCK_SIZE;
+    private static final int NONE = -1;
+
+    private final int maxBlocks;
+    private final ByteBuffer[] segments;
+    private int reserved;
+    private int used;
+    private int freeHead = NONE;
+
+    OffHeapSlab(final long capacity) {
+        this.maxBlocks = (int) Math.min(Integer.MAX_VALUE, capacity / BLOCK_SIZE);
+        this.segments = new ByteBuffer[(maxBlocks + BLOCKS_PER_SEGMENT - 1) / BLOCKS_PER_SEGMENT];
+    }
+
+    /**
+     * @return the most bytes a single allocation can hold
+     */
+    long getCapacity() {
+        return (long) maxBlocks * BLOCK_SIZE;
+    }
+
+    /**
+     * Reserve the blocks to hold the given number of bytes
+     *
+     * @return the blocks or null when there are not enough blocks left
+     */
+    synchronized int[] allocate(final int bytes) {
+        final int count = Math.max(1, (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (count > maxBlocks - used) {
+            return null;
+        }
+        int[] blocks = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (freeHead != NONE) {
+                blocks[i] = freeHead;
+                freeHead = segment(freeHead).getInt(offset(freeHead));
+            } else {
+                if (reserved % BLOCKS_PER_SEGMENT == 0) {
+                    final int blocksInSegment = Math.min(BLOCKS_PER_SEGMENT, maxBlocks - reserved);
+                    segments[reserved / BLOCKS_PER_SEGMENT] = ByteBuffer.allocateDirect(blocksInSegment * BLOCK_SIZE);
+                }
+                blocks[i] = reserved++;
+            }
+        }
+        used += count;
+        return blocks;
+    }
+
+    synchronized void release(final int[] blocks) {
+        for (int block : blocks) {
+            segment(block).putInt(offset(block), freeHead);
+            freeHead = block;
+        }
+        used -= blocks.length;
+    }
+
+    /**
+     * Copy data into allocated blocks
+     */
+    void write(final int[] blocks, final byte[] data) {
+        for (int i = 0, position = 0; position < data.length; i++, position += BLOCK_SIZE) {
+            ByteBuffer segment = segment(blocks[i]).duplicate();
+            segment.position(offset(blocks[i]));
+            segment.put(data, position, Math.min(BLOCK_SIZE, data.length - position));
+        }
+    }
+
+    /**
+     * Copy the data of allocated blocks
+     */
+    void read(final int[] blocks, final byte[] data) {
+        for (int i = 0, position = 0; position < data.length; i++, position += BLOCK_SIZE) {
+            ByteBuffer segment = segment(blocks[i]).duplicate();
+            segment.position(offset(blocks[i]));
+            segment.get(data, position, Math.min(BLOCK_SIZE, data.length - position));
+        }
+    }
+
+    /**
+     * @return the number of bytes in the blocks in use
+     */
+    synchronized long getUsedBytes() {
+        return (long) used * BLOCK_SIZE;
+    }
+
+    private ByteBuffer segment(final int block) {
+        return segments[block / BLOCKS_PER_SEGMENT];
+    }
+
+    private static int offset(final int block) {
+        return (block % BLOCKS_PER_SEGMENT) * BLOCK_SIZE;
+    }
+}
@@ -0,0 +1,478 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+/**
+ * A cache implementation for users->projects that keeps the project
+ * lists out of the ES heap. The projects of each entry are encoded into the
+ * blocks of a shared {@link OffHeapSlab} as:
+ *
+ * <pre>
+ * int     number of projects
+ * [short  length, byte[] UTF-8 project name]...
+ * </pre>
+ *
+ * The token digest, the expiration, the operations flag and the
+ * {@link UserIdentity} of each entry are small and kept on the heap with its
+ * blocks, so they are computed once when the entry is stored. Blocks are released
+ * under the write lock and read under the read lock, so an entry removed
+ * while it is being read is seen as missing instead of reading reused blocks.
+ *
+ * The decoded projects of an entry are shared as an immutable set through a
+ * soft reference, so requests with the same token do not decode them again
+ * while the heap allows keeping them.
+ */
+public class OffHeapUserProjectCache implements UserProjectCache, ConfigurationSettings {
+
+    private final ESLogger logger;
+    private final Map<SimpleImmutableEntry<String, String>, Slot> cache = new ConcurrentHashMap<>();
+    private final Map<String, SimpleImmutableEntry<String, String>> tokens = new ConcurrentHashMap<>();
+    private final Map<String, Slot> restored = new ConcurrentHashMap<>();
+    // digests of the entries dropped to make room, until they are reported by expire
+    private final Queue<String> dropped = new ConcurrentLinkedQueue<>();
+    private final ReadWriteLock releaseLock = new ReentrantReadWriteLock();
+    private final OffHeapSlab slab;
+    private final long expire;
+
+    @Inject
+    public OffHeapUserProjectCache(final Settings settings) {
+        this.logger = Loggers.getLogger(getClass(), settings);
+        final long maxBytes = ByteSizeValue.parseBytesSizeValue(
+                settings.get(OPENSHIFT_ACL_CACHE_OFFHEAP_MAX_SIZE, DEFAULT_ACL_CACHE_OFFHEAP_MAX_SIZE),
+                OPENSHIFT_ACL_CACHE_OFFHEAP_MAX_SIZE).bytes();
+        this.slab = new OffHeapSlab(maxBytes);
+        this.expire = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_ACL_CACHE_OFFHEAP_EXPIRE, DEFAULT_ACL_CACHE_OFFHEAP_EXPIRE), null,
+                OPENSHIFT_ACL_CACHE_OFFHEAP_EXPIRE).millis();
+        logger.info("Using off-heap user project cache with max size {} bytes and expiration of {} ms", maxBytes, expire);
+    }
+
+    @Override
+    public Map<SimpleImmutableEntry<String, String>, Set<String>> getUserProjects() {
+        Map<SimpleImmutableEntry<String, String>, Set<String>> userProjects = new HashMap<>(cache.size());
+        for (Map.Entry<SimpleImmutableEntry<String, String>, Slot> entry : cache.entrySet()) {
+            Set<String> projects = readProjects(entry.getValue());
+            if (projects != null) {
+                userProjects.put(entry.getKey(), projects);
+            }
+        }
+        return Collections.unmodifiableMap(userProjects);
+    }
+
+    @Override
+    public boolean hasUser(String user, String token) {
+        return cache.containsKey(new SimpleImmutableEntry<>(user, token));
+    }
+
+    @Override
+    public boolean isOperationsUser(String user, String token) {
+        Slot slot = cache.get(new SimpleImmutableEntry<>(user, token));
+        return slot != null && slot.operationsUser;
+    }
+
+    @Override
+    public UserProjectCacheEntry update(final String user, final String token, final Set<String> projects,
+            boolean operationsUser) {
+        return update(user, token, projects, operationsUser, null);
+    }
+
+    @Override
+    public UserProjectCacheEntry update(final String user, final String token, final Set<String> projects,
+            boolean operationsUser, UserIdentity given) {
+        SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>(user, token);
+        Slot existing = cache.get(sie);
+        final String tokenDigest = existing != null ? existing.tokenDigest : UserProjectCacheEntry.digest(token);
+        final UserIdentity identity = existing != null ? existing.identity : given != null ? given : new UserIdentity(user);
+        Slot slot = store(user, tokenDigest, System.currentTimeMillis() + expire, operationsUser, projects, identity,
+                true);
+        if (slot == null) {
+            return null;
+        }
+        Slot previous = cache.put(sie, slot);
+        tokens.put(token, sie);
+        if (previous != null) {
+            release(previous);
+        }
+        if (!restored.isEmpty()) {
+            Slot entry = restored.remove(tokenDigest);
+            if (entry != null) {
+                release(entry);
+            }
+        }
+        return new UserProjectCacheEntry(user, tokenDigest, new HashSet<>(projects), operationsUser, slot.expires,
+                identity);
+    }
+
+    @Override
+    public boolean updateProjects(final String user, final String token, final Set<String> projects) {
+        SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>(user, token);
+        Slot previous = cache.get(sie);
+        if (previous == null) {
+            return false;
+        }
+        Slot slot = store(user, previous.tokenDigest, previous.expires, previous.operationsUser, projects,
+                previous.identity, true);
+        if (slot == null) {
+            return false;
+        }
+        if (!cache.replace(sie, previous, slot)) {
+            release(slot);
+            return false;
+        }
+        release(previous);
+        return true;
+    }
+
+    @Override
+    public Collection<String> expire() {
+        return expire(System.currentTimeMillis());
+    }
+
+    /**
+     * Remove the entries that expired before the given time
+     *
+     * @param now
+     *            The time in millis to compare the expiration of entries to
+     * @return The token digests of the cached entries that were removed,
+     *         including those dropped to make room for other entries since
+     *         the last call
+     */
+    @Override
+    public Collection<String> expire(final long now) {
+        List<String> expired = expireEntries(now);
+        String digest;
+        while ((digest = dropped.poll()) != null) {
+            expired.add(digest);
+        }
+        return expired;
+    }
+
+    private List<String> expireEntries(final long now) {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<SimpleImmutableEntry<String, String>, Slot> entry : new ArrayList<>(cache.entrySet())) {
+            if (now > entry.getValue().expires) {
+                logger.debug("Expiring cache entry for {}", entry.getKey());
+                if (remove(entry.getKey(), entry.getValue())) {
+                    expired.add(entry.getValue().tokenDigest);
+                }
+            }
+        }
+        for (Map.Entry<String, Slot> entry : new ArrayList<>(restored.entrySet())) {
+            if (now > entry.getValue().expires) {
+                logger.debug("Expiring restored cache entry for {}", entry.getValue().user);
+                if (restored.remove(entry.getKey(), entry.getValue())) {
+                    release(entry.getValue());
+                }
+            }
+        }
+        return expired;
+    }
+
+    @Override
+    public Set<String> getAllProjects() {
+        Set<String> projects = new HashSet<>();
+        for (Slot slot : cache.values()) {
+            Set<String> slotProjects = readProjects(slot);
+            if (slotProjects != null) {
+                projects.addAll(slotProjects);
+            }
+        }
+        return Collections.unmodifiableSet(projects);
+    }
+
+    @Override
+    public UserProjectCacheEntry getByToken(String token) {
+        SimpleImmutableEntry<String, String> sie = tokens.get(token);
+        if (sie != null) {
+            Slot slot = cache.get(sie);
+            if (slot != null) {
+                UserProjectCacheEntry entry = decode(slot);
+                if (entry != null) {
+                    return entry;
+                }
+            }
+        }
+        if (restored.isEmpty()) {
+            return null;
+        }
+        final String digest = UserProjectCacheEntry.digest(token);
+        Slot slot = restored.get(digest);
+        if (slot != null && !slot.isExpired(System.currentTimeMillis())) {
+            UserProjectCacheEntry restoredEntry = decode(slot);
+            if (restoredEntry != null) {
+                return restoredEntry.asRestored();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<UserProjectCacheEntry> getEntries() {
+        List<UserProjectCacheEntry> entries = new ArrayList<>(cache.size());
+        for (Slot slot : cache.values()) {
+            UserProjectCacheEntry decoded = decode(slot);
+            if (decoded != null) {
+                entries.add(decoded);
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public Collection<UserProjectCacheEntry> getAclEntries() {
+        Collection<UserProjectCacheEntry> entries = getEntries();
+        final long now = System.currentTimeMillis();
+        for (Slot slot : restored.values()) {
+            if (!slot.isExpired(now)) {
+                UserProjectCacheEntry decoded = decode(slot);
+                if (decoded != null) {
+                    entries.add(decoded);
+                }
+            }
+        }
+        return entries;
+    }
+
+    @Override
+    public void restore(UserProjectCacheEntry entry) {
+        if (entry.isExpired(System.currentTimeMillis())) {
+            return;
+        }
+        Slot slot = store(entry.getUser(), entry.getTokenDigest(), entry.getExpires(), entry.isOperationsUser(),
+                entry.getProjects(), entry.getIdentity(), false);
+        if (slot == null) {
+            logger.debug("Unable to restore the cache entry for '{}'. The cache is full", entry.getUser());
+            return;
+        }
+        Slot previous = restored.put(entry.getTokenDigest(), slot);
+        if (previous != null) {
+            release(previous);
+        }
+    }
+
+    @Override
+    public void invalidate(String tokenDigest) {
+        Slot slot = restored.remove(tokenDigest);
+        if (slot != null) {
+            release(slot);
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory used by the cache entries
+     */
+    public long getUsedBytes() {
+        return slab.getUsedBytes();
+    }
+
+    /*
+     * Encode the projects into blocks of the slab. Cached entries make room
+     * by first dropping expired entries and then the entries closest to
+     * expiring, while restored entries are only stored when there is room
+     */
+    private Slot store(String user, String tokenDigest, long expires, boolean operationsUser, Set<String> projects,
+            UserIdentity identity, boolean evict) {
+        final byte[] data = encode(projects);
+        if (data.length > slab.getCapacity()) {
+            logger.warn("Unable to cache the projects for '{}'. The entry size of {} bytes exceeds the cache size", user,
+                    data.length);
+            return null;
+        }
+        int[] blocks = slab.allocate(data.length);
+        if (blocks == null && evict) {
+            dropped.addAll(expireEntries(System.currentTimeMillis()));
+            blocks = slab.allocate(data.length);
+            if (blocks == null) {
+                blocks = evictFor(data.length);
+            }
+        }
+        if (blocks == null) {
+            return null;
+        }
+        slab.write(blocks, data);
+        return new Slot(user, tokenDigest, expires, operationsUser, blocks, data.length, identity);
+    }
+
+    private int[] evictFor(int size) {
+        List<Map.Entry<SimpleImmutableEntry<String, String>, Slot>> entries = new ArrayList<>(cache.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<SimpleImmutableEntry<String, String>, Slot>>() {
+            @Override
+            public int compare(Map.Entry<SimpleImmutableEntry<String, String>, Slot> o1,
+                    Map.Entry<SimpleImmutableEntry<String, String>, Slot> o2) {
+                return Long.compare(o1.getValue().expires, o2.getValue().expires);
+            }
+        });
+        int[] blocks = null;
+        for (Map.Entry<SimpleImmutableEntry<String, String>, Slot> entry : entries) {
+            logger.debug("Evicting cache entry for {} to stay within the cache size", entry.getKey());
+            if (remove(entry.getKey(), entry.getValue())) {
+                dropped.add(entry.getValue().tokenDigest);
+            }
+            blocks = slab.allocate(size);
+            if (blocks != null) {
+                break;
+            }
+        }
+        return blocks;
+    }
+
+    private boolean remove(SimpleImmutableEntry<String, String> key, Slot slot) {
+        if (cache.remove(key, slot)) {
+            tokens.remove(key.getValue(), key);
+            release(slot);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(Slot slot) {
+        releaseLock.writeLock().lock();
+        try {
+            if (!slot.released) {
+                slot.released = true;
+                slab.release(slot.blocks);
+            }
+        } finally {
+            releaseLock.writeLock().unlock();
+        }
+    }
+
+    private UserProjectCacheEntry decode(Slot slot) {
+        Set<String> projects = readProjects(slot);
+        if (projects == null) {
+            return null;
+        }
+        return new UserProjectCacheEntry(slot.user, slot.tokenDigest, projects, slot.operationsUser, slot.expires,
+                slot.identity);
+    }
+
+    /*
+     * @return the immutable projects of the slot or null when it was released
+     */
+    private Set<String> readProjects(Slot slot) {
+        final SoftReference<Set<String>> decoded = slot.projects;
+        Set<String> projects = decoded != null ? decoded.get() : null;
+        final byte[] data = projects == null ? new byte[slot.length] : null;
+        releaseLock.readLock().lock();
+        try {
+            if (slot.released) {
+                return null;
+            }
+            if (projects != null) {
+                return projects;
+            }
+            slab.read(slot.blocks, data);
+        } finally {
+            releaseLock.readLock().unlock();
+        }
+        projects = Collections.unmodifiableSet(decodeProjects(data));
+        slot.projects = new SoftReference<>(projects);
+        return projects;
+    }
+
+    static byte[] encode(Set<String> projects) {
+        List<byte[]> names = new ArrayList<>(projects.size());
+        int size = 4;
+        for (String project : projects) {
+            byte[] name = project.getBytes(StandardCharsets.UTF_8);
+            if (name.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Project name is too long to be cached: " + project);
+            }
+            names.add(name);
+            size += 2 + name.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(names.size());
+        for (byte[] name : names) {
+            buffer.putShort((short) name.length);
+            buffer.put(name);
+        }
+        return buffer.array();
+    }
+
+    static Set<String> decodeProjects(byte[] data) {
+        ByteBuffer reader = ByteBuffer.wrap(data);
+        int count = reader.getInt();
+        Set<String> projects = new HashSet<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[reader.getShort()];
+            reader.get(name);
+            projects.add(new String(name, StandardCharsets.UTF_8));
+        }
+        return projects;
+    }
+
+    /*
+     * An entry of the cache: its blocks in the slab and what is kept on the heap
+     */
+    private static class Slot {
+
+        private final String user;
+        private final String tokenDigest;
+        private final long expires;
+        private final boolean operationsUser;
+        private final int[] blocks;
+        private final int length;
+        private final UserIdentity identity;
+        // guarded by the release lock
+        private boolean released;
+        private volatile SoftReference<Set<String>> projects;
+
+        Slot(String user, String tokenDigest, long expires, boolean operationsUser, int[] blocks, int length,
+                UserIdentity identity) {
+            this.user = user;
+            this.tokenDigest = tokenDigest;
+            this.expires = expires;
+            this.operationsUser = operationsUser;
+            this.blocks = blocks;
+            this.length = length;
+            this.identity = identity;
+        }
+
+        boolean isExpired(long now) {
+            return now > expires;
+        }
+    }
+}
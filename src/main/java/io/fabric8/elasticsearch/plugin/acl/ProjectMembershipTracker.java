@@ -0,0 +1,353 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftClientFactory;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceList;
+import io.fabric8.kubernetes.api.model.ObjectReference;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.RoleBinding;
+import io.fabric8.openshift.api.model.RoleBindingList;
+import io.fabric8.openshift.client.OpenShiftClient;
+
+/**
+ * Keeps the projects of the cached users current from watches on the
+ * namespaces and role bindings of the cluster, so projects created or shared
+ * with a user, and projects they lost access to, are reflected in the ACL
+ * without the user having to log in again. Changed users request a sync of
+ * the ACL, which is coalesced with the other pending ACL changes.
+ *
+ * Only users bound directly (or as service accounts) to one of the cluster
+ * roles that grant viewing a project are added to it. Bindings to any other
+ * role, or to a role local to the namespace, grant nothing here.
+ * Access granted through a group is picked up once the user's entry is
+ * resolved again, while bindings removing a group drop the project from the
+ * users that are not bound directly until then.
+ */
+public class ProjectMembershipTracker implements ConfigurationSettings {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(ProjectMembershipTracker.class);
+    private static final String SERVICE_ACCOUNT_PREFIX = "system:serviceaccount:";
+    private static final String TERMINATING = "Terminating";
+
+    private final UserProjectCache cache;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final OpenshiftClientFactory clientFactory;
+    private final boolean enabled;
+    private final Set<String> operationsProjects = new HashSet<>();
+    private final Set<String> viewRoles;
+
+    // namespace name -> uid
+    private final Map<String, String> namespaces = new HashMap<>();
+    // namespace name -> binding name -> binding
+    private final Map<String, Map<String, Binding>> bindings = new HashMap<>();
+    private volatile boolean synced;
+
+    private OpenShiftClient client;
+    private Watch namespaceWatch;
+    private Watch bindingWatch;
+
+    @Inject
+    public ProjectMembershipTracker(final Settings settings, final UserProjectCache cache,
+            final SearchGuardACLSynchronizer synchronizer, final OpenshiftClientFactory clientFactory) {
+        this.cache = cache;
+        this.synchronizer = synchronizer;
+        this.clientFactory = clientFactory;
+        this.enabled = settings.getAsBoolean(OPENSHIFT_ACL_MEMBERSHIP_WATCH_ENABLED, DEFAULT_ACL_MEMBERSHIP_WATCH_ENABLED);
+        for (String project : settings.getAsArray(OPENSHIFT_CONFIG_OPS_PROJECTS, DEFAULT_OPENSHIFT_OPS_PROJECTS)) {
+            operationsProjects.add(project.toLowerCase());
+        }
+        this.viewRoles = new HashSet<>(Arrays.asList(settings.getAsArray(OPENSHIFT_ACL_MEMBERSHIP_VIEW_ROLES, DEFAULT_ACL_MEMBERSHIP_VIEW_ROLES)));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * List and watch the namespaces and role bindings unless they are already
+     * being watched
+     */
+    public synchronized void ensureWatching() {
+        if (!enabled || synced) {
+            return;
+        }
+        stop();
+        try {
+            client = clientFactory.create(new ConfigBuilder().build());
+            namespaces.clear();
+            bindings.clear();
+            NamespaceList namespaceList = client.namespaces().list();
+            for (Namespace namespace : namespaceList.getItems()) {
+                if (!isTerminating(namespace)) {
+                    namespaces.put(namespace.getMetadata().getName(), namespace.getMetadata().getUid());
+                }
+            }
+            RoleBindingList bindingList = client.roleBindings().inAnyNamespace().list();
+            for (RoleBinding binding : bindingList.getItems()) {
+                putBinding(binding);
+            }
+            synced = true;
+            namespaceWatch = client.namespaces().watch(namespaceList.getMetadata().getResourceVersion(),
+                    new Watcher<Namespace>() {
+                        @Override
+                        public void eventReceived(Action action, Namespace resource) {
+                            onNamespace(action, resource);
+                        }
+
+                        @Override
+                        public void onClose(KubernetesClientException cause) {
+                            onWatchClosed(cause);
+                        }
+                    });
+            bindingWatch = client.roleBindings().inAnyNamespace().watch(bindingList.getMetadata().getResourceVersion(),
+                    new Watcher<RoleBinding>() {
+                        @Override
+                        public void eventReceived(Action action, RoleBinding resource) {
+                            onRoleBinding(action, resource);
+                        }
+
+                        @Override
+                        public void onClose(KubernetesClientException cause) {
+                            onWatchClosed(cause);
+                        }
+                    });
+            LOGGER.info("Tracking project membership from {} namespaces and {} role bindings", namespaces.size(),
+                    bindingList.getItems().size());
+        } catch (Exception e) {
+            LOGGER.warn("Unable to watch the namespaces and role bindings. Project lists are only updated on login", e);
+            synced = false;
+        }
+    }
+
+    public synchronized void stop() {
+        synced = false;
+        if (namespaceWatch != null) {
+            namespaceWatch.close();
+            namespaceWatch = null;
+        }
+        if (bindingWatch != null) {
+            bindingWatch.close();
+            bindingWatch = null;
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    private void onWatchClosed(KubernetesClientException cause) {
+        LOGGER.debug("The watch for project membership was closed", cause);
+        synced = false;
+    }
+
+    synchronized void onNamespace(Watcher.Action action, Namespace namespace) {
+        final String name = namespace.getMetadata().getName();
+        if (action == Watcher.Action.DELETED || isTerminating(namespace)) {
+            final String uid = namespaces.remove(name);
+            bindings.remove(name);
+            if (uid != null) {
+                removeProject(toProject(name, uid), new HashSet<String>(), false);
+            }
+        } else if (action == Watcher.Action.ADDED || action == Watcher.Action.MODIFIED) {
+            if (namespaces.containsKey(name)) {
+                return;
+            }
+            namespaces.put(name, namespace.getMetadata().getUid());
+            addProject(name, usersBoundTo(name), true);
+        }
+    }
+
+    synchronized void onRoleBinding(Watcher.Action action, RoleBinding binding) {
+        final String namespace = binding.getMetadata().getNamespace();
+        final String name = binding.getMetadata().getName();
+        Map<String, Binding> nsBindings = bindings.get(namespace);
+        final Binding previous = nsBindings == null ? null : nsBindings.get(name);
+        Binding current = null;
+        if (action == Watcher.Action.ADDED || action == Watcher.Action.MODIFIED) {
+            current = putBinding(binding);
+        } else if (action == Watcher.Action.DELETED && nsBindings != null) {
+            nsBindings.remove(name);
+        } else {
+            return;
+        }
+        if (!namespaces.containsKey(namespace)) {
+            return;
+        }
+        final Set<String> bound = usersBoundTo(namespace);
+        if (current != null) {
+            Set<String> added = new HashSet<>(current.users);
+            if (previous != null) {
+                added.removeAll(previous.users);
+            }
+            addProject(namespace, added, false);
+        }
+        if (previous != null) {
+            Set<String> removed = new HashSet<>(previous.users);
+            removed.removeAll(bound);
+            final boolean groupsRemoved = previous.groups && (current == null || !current.groups);
+            if (!removed.isEmpty() || groupsRemoved) {
+                removeProject(toProject(namespace, namespaces.get(namespace)), groupsRemoved ? bound : removed,
+                        groupsRemoved);
+            }
+        }
+    }
+
+    /*
+     * Add the project to the cached entries of the given users and, if
+     * requested, of the operations users who see every project
+     */
+    private void addProject(String namespace, Set<String> users, boolean operationsUsers) {
+        if (operationsProjects.contains(namespace.toLowerCase()) || (users.isEmpty() && !operationsUsers)) {
+            return;
+        }
+        final String project = toProject(namespace, namespaces.get(namespace));
+        for (Map.Entry<SimpleImmutableEntry<String, String>, Set<String>> entry : cache.getUserProjects().entrySet()) {
+            final String user = entry.getKey().getKey();
+            final String token = entry.getKey().getValue();
+            if (entry.getValue().contains(project)) {
+                continue;
+            }
+            if (users.contains(user) || (operationsUsers && cache.isOperationsUser(user, token))) {
+                Set<String> projects = new HashSet<>(entry.getValue());
+                projects.add(project);
+                update(user, token, projects);
+            }
+        }
+    }
+
+    /*
+     * Remove the project from the cached entries of the given users or, when
+     * 'except' is set, of all but the given users. Operations users are only
+     * affected when the project itself is removed
+     */
+    private void removeProject(String project, Set<String> users, boolean except) {
+        final boolean deleted = users.isEmpty() && !except;
+        for (Map.Entry<SimpleImmutableEntry<String, String>, Set<String>> entry : cache.getUserProjects().entrySet()) {
+            final String user = entry.getKey().getKey();
+            final String token = entry.getKey().getValue();
+            if (!entry.getValue().contains(project)) {
+                continue;
+            }
+            final boolean affected = deleted
+                    || (users.contains(user) != except && !cache.isOperationsUser(user, token));
+            if (affected) {
+                Set<String> projects = new HashSet<>(entry.getValue());
+                projects.remove(project);
+                update(user, token, projects);
+            }
+        }
+    }
+
+    private void update(String user, String token, Set<String> projects) {
+        if (cache.updateProjects(user, token, projects)) {
+            LOGGER.debug("Updated the projects of cached user '{}'", user);
+            synchronizer.requestSync();
+        }
+    }
+
+    private Set<String> usersBoundTo(String namespace) {
+        Set<String> users = new HashSet<>();
+        Map<String, Binding> nsBindings = bindings.get(namespace);
+        if (nsBindings != null) {
+            for (Binding binding : nsBindings.values()) {
+                users.addAll(binding.users);
+            }
+        }
+        return users;
+    }
+
+    private Binding putBinding(RoleBinding binding) {
+        final String namespace = binding.getMetadata().getNamespace();
+        Set<String> users = new HashSet<>();
+        boolean groups = false;
+        if (grantsView(binding)) {
+            groups = binding.getGroupNames() != null && !binding.getGroupNames().isEmpty();
+            if (binding.getUserNames() != null) {
+                users.addAll(binding.getUserNames());
+            }
+            if (binding.getSubjects() != null) {
+                for (ObjectReference subject : binding.getSubjects()) {
+                    if ("User".equals(subject.getKind())) {
+                        users.add(subject.getName());
+                    } else if ("ServiceAccount".equals(subject.getKind())) {
+                        String saNamespace = subject.getNamespace() != null ? subject.getNamespace() : namespace;
+                        users.add(SERVICE_ACCOUNT_PREFIX + saNamespace + ":" + subject.getName());
+                    } else if ("Group".equals(subject.getKind())) {
+                        groups = true;
+                    }
+                }
+            }
+        }
+        Map<String, Binding> nsBindings = bindings.get(namespace);
+        if (nsBindings == null) {
+            nsBindings = new HashMap<>();
+            bindings.put(namespace, nsBindings);
+        }
+        Binding result = new Binding(users, groups);
+        nsBindings.put(binding.getMetadata().getName(), result);
+        return result;
+    }
+
+    /*
+     * Bindings to other roles are still recorded, without users, so a binding
+     * changed to another role removes the access it granted before
+     */
+    private boolean grantsView(RoleBinding binding) {
+        ObjectReference role = binding.getRoleRef();
+        if (role == null || role.getName() == null) {
+            return false;
+        }
+        return (role.getNamespace() == null || role.getNamespace().isEmpty()) && viewRoles.contains(role.getName());
+    }
+
+    private static boolean isTerminating(Namespace namespace) {
+        return namespace.getStatus() != null && TERMINATING.equals(namespace.getStatus().getPhase());
+    }
+
+    private static String toProject(String name, String uid) {
+        return name + "." + uid;
+    }
+
+    private static class Binding {
+
+        private final Set<String> users;
+        private final boolean groups;
+
+        Binding(Set<String> users, boolean groups) {
+            this.users = users;
+            this.groups = groups;
+        }
+    }
+}
@@ -16,39 +16,30 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import static io.fabric8.elasticsearch.plugin.acl.SearchGuardRoles.PROJECT_PREFIX;
-
-import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.Map.Entry;
-import java.util.Set;
-
 public class ProjectRolesMappingSyncStrategy extends BaseRolesMappingSyncStrategy {
 
     public ProjectRolesMappingSyncStrategy(SearchGuardRolesMapping rolesMapping) {
-        super(rolesMapping);
+        this(rolesMapping, AclPartitioner.SERIAL);
+    }
+
+    public ProjectRolesMappingSyncStrategy(SearchGuardRolesMapping rolesMapping, AclPartitioner partitioner) {
+        super(rolesMapping, partitioner);
     }
     
     @Override
-    protected  void syncFromImpl(UserProjectCache cache, RolesMappingBuilder builder) {
-        for (Entry<SimpleImmutableEntry<String, String>, Set<String>> userProjects : cache.getUserProjects()
-                .entrySet()) {
-            String username = userProjects.getKey().getKey();
-            String token = userProjects.getKey().getValue();
-
-            for (String project : userProjects.getValue()) {
-                String projectRoleName = String.format("%s_%s", PROJECT_PREFIX, project.replace('.', '_'));
+    protected void syncUserMappings(UserProjectCacheEntry entry, RolesMappingBuilder builder) {
+        String username = entry.getUser();
 
-                builder.addUser(projectRoleName, username);
-            }
+        for (String project : entry.getProjects()) {
+            builder.addUser(BaseRolesSyncStrategy.formatProjectRoleName(project), username);
+        }
 
-            if (cache.isOperationsUser(username, token)) {
-                builder.addUser(SearchGuardRolesMapping.ADMIN_ROLE, username);
-                builder.addUser(SearchGuardRolesMapping.KIBANA_SHARED_ROLE, username);
-            } else {
-                //role mapping for user's kibana index
-                String kibanaRoleName = SearchGuardRoles.formatUniqueKibanaRoleName(username);
-                builder.addUser(kibanaRoleName, username);
-            }
+        if (entry.isOperationsUser()) {
+            builder.addUser(SearchGuardRolesMapping.ADMIN_ROLE, username);
+            builder.addUser(SearchGuardRolesMapping.KIBANA_SHARED_ROLE, username);
+        } else {
+            //role mapping for user's kibana index
+            builder.addUser(entry.getIdentity().getKibanaRoleName(), username);
         }
     }
 }
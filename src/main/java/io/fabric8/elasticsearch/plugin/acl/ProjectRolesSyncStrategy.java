@@ -16,8 +16,8 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
@@ -43,17 +43,26 @@ public class ProjectRolesSyncStrategy extends BaseRolesSyncStrategy {
     private final String kibanaIndexMode;
     
     public ProjectRolesSyncStrategy(SearchGuardRoles roles, final String userProfilePrefix, final String cdmProjectPrefix, final String kibanaIndexMode) {
-        super(roles, userProfilePrefix);
+        this(roles, userProfilePrefix, cdmProjectPrefix, kibanaIndexMode, AclPartitioner.SERIAL);
+    }
+
+    public ProjectRolesSyncStrategy(SearchGuardRoles roles, final String userProfilePrefix, final String cdmProjectPrefix, final String kibanaIndexMode,
+            final AclPartitioner partitioner) {
+        super(roles, userProfilePrefix, partitioner);
         this.roles = roles;
         this.cdmProjectPrefix = cdmProjectPrefix;
         this.kibanaIndexMode = kibanaIndexMode;
     }
 
     @Override
-    public void syncFromImpl(UserProjectCache cache, RolesBuilder builder) {
-        for (String project : cache.getAllProjects()) {
-            String projectName = String.format("%s_%s", SearchGuardRoles.PROJECT_PREFIX, project.replace('.', '_'));
-            String indexName = String.format("%s?*", project.replace('.', '?'));
+    protected void syncSharedRoles(List<UserProjectCacheEntry> entries, RolesBuilder builder) {
+        Set<String> projects = new HashSet<>();
+        for (UserProjectCacheEntry entry : entries) {
+            projects.addAll(entry.getProjects());
+        }
+        for (String project : projects) {
+            String projectName = formatProjectRoleName(project);
+            String indexName = project.replace('.', '?') + "?*";
             RoleBuilder role = new RoleBuilder(projectName).setActions(indexName, ALL,
                     PROJECT_ROLE_ACTIONS);
 
@@ -67,32 +76,29 @@ public class ProjectRolesSyncStrategy extends BaseRolesSyncStrategy {
 
             builder.addRole(role.build());
         }
-        
-        boolean foundAnOpsUser = false;
+    }
+
+    @Override
+    protected void syncUserRoles(UserProjectCacheEntry entry, RolesBuilder builder) {
         //create roles for every user we know about to their kibana index
-        for (Map.Entry<SimpleImmutableEntry<String, String>, Set<String>> userToProjects : cache.getUserProjects()
-                .entrySet()) {
-            String username = userToProjects.getKey().getKey();
-            String token = userToProjects.getKey().getValue();
-            
-            String roleName = formatKibanaRoleName(cache, username, token);
-            String indexName = formatKibanaIndexName(cache, username, token, kibanaIndexMode);
+        String roleName = formatKibanaRoleName(entry);
+        String indexName = formatKibanaIndexName(entry, kibanaIndexMode);
 
-            RoleBuilder role = new RoleBuilder(roleName)
-                    .setActions(indexName, ALL, KIBANA_ROLE_INDEX_ACTIONS);
-            if (cache.isOperationsUser(username, token)) {
-                foundAnOpsUser = true;
-                role.setClusters(KIBANA_ROLE_CLUSTER_ACTIONS)
-                    .setActions(ALL, ALL, KIBANA_ROLE_ALL_INDEX_ACTIONS);
-            }
-            builder.addRole(role.build());
-        }
-        if (foundAnOpsUser) {
-            RoleBuilder opsRole = new RoleBuilder(SearchGuardRolesMapping.ADMIN_ROLE)
-                    .setClusters(OPERATIONS_ROLE_CLUSTER_ACTIONS)
-                    .setActions("?operations?", ALL, OPERATIONS_ROLE_OPERATIONS_ACTIONS)
-                    .setActions("*?*?*", ALL, OPERATIONS_ROLE_ANY_ACTIONS);
-            builder.addRole(opsRole.build());
+        RoleBuilder role = new RoleBuilder(roleName)
+                .setActions(indexName, ALL, KIBANA_ROLE_INDEX_ACTIONS);
+        if (entry.isOperationsUser()) {
+            role.setClusters(KIBANA_ROLE_CLUSTER_ACTIONS)
+                .setActions(ALL, ALL, KIBANA_ROLE_ALL_INDEX_ACTIONS);
         }
+        builder.addRole(role.build());
+    }
+
+    @Override
+    protected void syncOperationsRoles(RolesBuilder builder) {
+        RoleBuilder opsRole = new RoleBuilder(SearchGuardRolesMapping.ADMIN_ROLE)
+                .setClusters(OPERATIONS_ROLE_CLUSTER_ACTIONS)
+                .setActions("?operations?", ALL, OPERATIONS_ROLE_OPERATIONS_ACTIONS)
+                .setActions("*?*?*", ALL, OPERATIONS_ROLE_ANY_ACTIONS);
+        builder.addRole(opsRole.build());
     }
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportRequest;
+
+/**
+ * A batch of cache entries resolved on one node and the token digests of
+ * entries it has expired, sent to the other nodes of the cluster
+ */
+public class PublishUserProjectCacheRequest extends TransportRequest {
+
+    private List<UserProjectCacheEntry> entries = new ArrayList<>();
+    private List<String> invalidated = new ArrayList<>();
+
+    public PublishUserProjectCacheRequest() {
+    }
+
+    public PublishUserProjectCacheRequest(Collection<UserProjectCacheEntry> entries, Collection<String> invalidated) {
+        this.entries = new ArrayList<>(entries);
+        this.invalidated = new ArrayList<>(invalidated);
+    }
+
+    public List<UserProjectCacheEntry> getEntries() {
+        return entries;
+    }
+
+    public List<String> getInvalidated() {
+        return invalidated;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(UserProjectCacheEntry.readFrom(in));
+        }
+        invalidated = new ArrayList<>(Arrays.asList(in.readStringArray()));
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(entries.size());
+        for (UserProjectCacheEntry entry : entries) {
+            entry.writeTo(out);
+        }
+        out.writeStringArray(invalidated.toArray(new String[invalidated.size()]));
+    }
+}
@@ -33,4 +33,9 @@ public class RolesBuilder {
         roles.add(role);
         return this;
     }
+
+    public RolesBuilder addAll(RolesBuilder other) {
+        roles.addAll(other.roles);
+        return this;
+    }
 }
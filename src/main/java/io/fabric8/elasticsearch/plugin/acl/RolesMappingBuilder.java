@@ -17,16 +17,17 @@
 package io.fabric8.elasticsearch.plugin.acl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import io.fabric8.elasticsearch.plugin.acl.SearchGuardRolesMapping.RolesMapping;
 
 public class RolesMappingBuilder {
 
-    private Map<String, HashSet<String>> roles = new HashMap<>();
+    private Map<String, LinkedHashSet<String>> roles = new LinkedHashMap<>();
     private List<RolesMapping> rolesMappings = new ArrayList<RolesMapping>();
 
     public List<RolesMapping> build() {
@@ -44,12 +45,12 @@ public class RolesMappingBuilder {
     }
 
     public RolesMappingBuilder addRole(String role) {
-        roles.put(role, new HashSet<String>());
+        roles.put(role, new LinkedHashSet<String>());
         return this;
     }
 
     public RolesMappingBuilder setUsers(String role, List<String> users) {
-        roles.put(role, new HashSet<String>(users));
+        roles.put(role, new LinkedHashSet<String>(users));
         return this;
     }
 
@@ -61,4 +62,14 @@ public class RolesMappingBuilder {
         roles.get(role).add(user);
         return this;
     }
+
+    public RolesMappingBuilder addAll(RolesMappingBuilder other) {
+        for (Entry<String, LinkedHashSet<String>> role : other.roles.entrySet()) {
+            if (!roles.containsKey(role.getKey())) {
+                addRole(role.getKey());
+            }
+            roles.get(role.getKey()).addAll(role.getValue());
+        }
+        return this;
+    }
 }
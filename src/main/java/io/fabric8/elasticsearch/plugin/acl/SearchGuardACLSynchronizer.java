@@ -0,0 +1,302 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.elasticsearch.action.WriteConsistencyLevel;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateAction;
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateRequest;
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateResponse;
+import com.floragunn.searchguard.support.ConfigConstants;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.util.LatencyHistogram;
+
+/**
+ * Writes the SearchGuard ACL generated from the users in the cache. Nodes
+ * that fail to reload the ACL are left out of the ConfigUpdate response, so
+ * when awaiting the ACL to be active the reload is retried on the missing
+ * nodes until every node acknowledged it or the timeout passes.
+ *
+ * Changes that do not need to be synced before a request continues, like
+ * users that expired from the cache, are requested with
+ * {@link #requestSync()} and coalesced into the next sync. Requests that do
+ * need the ACL synced before they continue call {@link #awaitSync()}, which
+ * shares one sync between the callers that waited for the same running sync.
+ */
+public class SearchGuardACLSynchronizer implements ConfigurationSettings, ToXContent {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(SearchGuardACLSynchronizer.class);
+    private static final long RELOAD_RETRY_MILLIS = 50;
+    private static final long MAX_RELOAD_RETRY_MILLIS = 500;
+
+    private final UserProjectCache cache;
+    private final String searchGuardIndex;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Client client;
+    private final SearchGuardSyncStrategyFactory documentFactory;
+    private final ClusterService clusterService;
+    private final boolean awaitActive;
+    private final long awaitActiveTimeout;
+    private final LatencyHistogram convergence = new LatencyHistogram();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong syncRequests = new AtomicLong();
+    // the sync requests covered by the last successful sync, guarded by the lock
+    private long syncedRequests;
+
+    @Inject
+    public SearchGuardACLSynchronizer(final UserProjectCache cache, final PluginSettings settings, final Client client,
+            final SearchGuardSyncStrategyFactory documentFactory, final ClusterService clusterService) {
+        this.cache = cache;
+        this.client = client;
+        this.documentFactory = documentFactory;
+        this.clusterService = clusterService;
+        this.searchGuardIndex = settings.getSearchGuardIndex();
+        this.awaitActive = settings.isAclAwaitActive();
+        this.awaitActiveTimeout = settings.getAclAwaitActiveTimeout();
+    }
+
+    /**
+     * Request the ACL to be synced with the cache by the next sync
+     */
+    public void requestSync() {
+        pending.set(true);
+    }
+
+    /**
+     * Sync the ACL if a sync was requested since the last sync
+     */
+    public void syncIfPending() {
+        if (pending.get()) {
+            LOGGER.debug("Syncing the ACL after changes to the cached users");
+            syncAcl();
+        }
+    }
+
+    /**
+     * @return true if a sync was requested since the last sync
+     */
+    public boolean isPending() {
+        return pending.get();
+    }
+
+    /**
+     * Sync the ACL with the changes made to the cache before this call. A
+     * caller that finds a sync running waits for it, and then for the next
+     * sync, which is shared with every other caller that waited meanwhile
+     * instead of each of them syncing the ACL again.
+     */
+    public void awaitSync() {
+        final long request = syncRequests.incrementAndGet();
+        lock.lock();
+        try {
+            if (syncedRequests >= request) {
+                LOGGER.debug("The ACL was already synced by a concurrent request");
+                return;
+            }
+            syncAcl();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sync the SearchGuard roles and rolesmapping with the users in the cache
+     */
+    public void syncAcl() {
+        LOGGER.debug("Syncing the ACL to ElasticSearch");
+        try {
+            lock.lock();
+            // the cache is read after this, so this sync covers the pending changes
+            // and the changes of the sync requests made so far
+            pending.set(false);
+            final long covered = syncRequests.get();
+            if (sync()) {
+                syncedRequests = covered;
+            }
+        } catch (Exception e) {
+            LOGGER.error("Exception while syncing ACL with cache", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * @return true if the ACL was written
+     */
+    boolean sync() throws Exception {
+        LOGGER.debug("Loading SearchGuard ACL...");
+
+        final MultiGetRequest mget = new MultiGetRequest();
+        mget.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true"); //header needed here
+        mget.refresh(true);
+        mget.realtime(true);
+        mget.add(searchGuardIndex, SEARCHGUARD_ROLE_TYPE, SEARCHGUARD_CONFIG_ID);
+        mget.add(searchGuardIndex, SEARCHGUARD_MAPPING_TYPE, SEARCHGUARD_CONFIG_ID);
+
+        SearchGuardRoles roles = null;
+        SearchGuardRolesMapping rolesMapping = null;
+        MultiGetResponse response = client.multiGet(mget).actionGet();
+        for (MultiGetItemResponse item : response.getResponses()) {
+            if(!item.isFailed()) {
+                if(LOGGER.isDebugEnabled()){
+                    LOGGER.debug("Read in {}: {}", item.getType(), XContentHelper.convertToJson(item.getResponse().getSourceAsBytesRef(), true, true));
+                }
+                switch (item.getType()) {
+                case SEARCHGUARD_ROLE_TYPE:
+                    roles = new SearchGuardRoles().load(item.getResponse().getSource());
+                    break;
+                case SEARCHGUARD_MAPPING_TYPE:
+                    rolesMapping = new SearchGuardRolesMapping().load(item.getResponse().getSource());
+                    break;
+                }
+            }else {
+                LOGGER.error("There was a failure loading document type {}", item.getFailure(), item.getType());
+            }
+        }
+
+        if(roles == null || rolesMapping == null) {
+            return false;
+        }
+
+        LOGGER.debug("Syncing from cache to ACL...");
+        RolesMappingSyncStrategy rolesMappingSync = documentFactory.createRolesMappingSyncStrategy(rolesMapping);
+        rolesMappingSync.syncFrom(cache);
+        
+        RolesSyncStrategy rolesSync = documentFactory.createRolesSyncStrategy(roles);
+        rolesSync.syncFrom(cache);
+
+        return writeAcl(roles, rolesMapping);
+    }
+
+    private boolean writeAcl(SearchGuardACLDocument... documents) throws Exception {
+
+        BulkRequestBuilder builder = this.client.prepareBulk().setRefresh(true);
+
+        for (SearchGuardACLDocument doc : documents) {
+            UpdateRequest update = this.client
+                    .prepareUpdate(searchGuardIndex, doc.getType(), SEARCHGUARD_CONFIG_ID)
+                    .setConsistencyLevel(WriteConsistencyLevel.DEFAULT)
+                    .setDoc(doc.toXContentBuilder())
+                    .request();
+            builder.add(update);
+            if(LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Built {} update request: {}", doc.getType(), XContentHelper.convertToJson(doc.toXContentBuilder().bytes(),true, true));
+            }
+        }
+        BulkRequest request = builder.request();
+        request.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
+        BulkResponse response = this.client.bulk(request).actionGet();
+
+        if(!response.hasFailures()) {
+            reloadConfig();
+            return true;
+        }else {
+            LOGGER.error("Unable to write ACL {}", response.buildFailureMessage());
+            return false;
+        }
+    }
+
+    void reloadConfig() throws InterruptedException {
+        final long start = System.currentTimeMillis();
+        final Set<String> unacknowledged = nodeIds();
+        final int nodes = unacknowledged.size();
+        long retry = RELOAD_RETRY_MILLIS;
+        while (true) {
+            ConfigUpdateRequest confRequest = new ConfigUpdateRequest(SEARCHGUARD_INITIAL_CONFIGS);
+            confRequest.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
+            if (unacknowledged.size() < nodes) {
+                confRequest.nodesIds(unacknowledged.toArray(new String[unacknowledged.size()]));
+            }
+            ConfigUpdateResponse cur = this.client
+                    .execute(ConfigUpdateAction.INSTANCE, confRequest).actionGet();
+            for (ConfigUpdateResponse.Node node : cur.getNodes()) {
+                unacknowledged.remove(node.getNode().getId());
+            }
+            // nodes that left the cluster will never acknowledge
+            unacknowledged.retainAll(nodeIds());
+            final long took = System.currentTimeMillis() - start;
+            if (unacknowledged.isEmpty()) {
+                LOGGER.debug("Successfully reloaded config with '{}' nodes in {} ms", nodes, took);
+                convergence.record(took);
+                return;
+            }
+            if (!awaitActive) {
+                LOGGER.warn("Failed to reload configs on {} of {} nodes", unacknowledged.size(), nodes);
+                return;
+            }
+            if (took + retry > awaitActiveTimeout) {
+                LOGGER.warn("Failed to reload configs on {} of {} nodes within {} ms", unacknowledged.size(), nodes,
+                        awaitActiveTimeout);
+                timedOut.incrementAndGet();
+                return;
+            }
+            Thread.sleep(retry);
+            retry = Math.min(retry * 2, MAX_RELOAD_RETRY_MILLIS);
+        }
+    }
+
+    private Set<String> nodeIds() {
+        Set<String> ids = new HashSet<>();
+        for (DiscoveryNode node : clusterService.state().nodes()) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Release the threads used to generate the ACL
+     */
+    public void close() {
+        documentFactory.close();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("acl_sync");
+        builder.field("await_active", awaitActive);
+        builder.field("not_converged", timedOut.get());
+        convergence.toXContent(builder, "convergence");
+        builder.endObject();
+        return builder;
+    }
+}
@@ -16,8 +16,6 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import static io.fabric8.elasticsearch.plugin.KibanaUserReindexFilter.getUsernameHash;
-
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -162,8 +160,8 @@ public class SearchGuardRoles implements Iterable<SearchGuardRoles.Roles>, Confi
         this.roles.addAll(roles);
     }
     
-    public static String formatUniqueKibanaRoleName(String username) {
-        return String.format("%s_%s_%s", ROLE_PREFIX, "kibana", getUsernameHash(username));
+    public static String formatUniqueKibanaRoleName(UserIdentity identity) {
+        return identity.getKibanaRoleName();
     }
 
     @SuppressWarnings("unchecked")
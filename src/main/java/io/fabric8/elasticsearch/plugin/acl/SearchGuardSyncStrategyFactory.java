@@ -30,24 +30,34 @@ public class SearchGuardSyncStrategyFactory {
     public static final String USER = "user";
     
     private final PluginSettings settings;
+    private final AclPartitioner partitioner;
 
     @Inject
     public SearchGuardSyncStrategyFactory(final PluginSettings settings) {
         this.settings = settings;
+        this.partitioner = new AclPartitioner(settings.getAclSyncParallelThreshold());
     }
 
     public RolesMappingSyncStrategy createRolesMappingSyncStrategy(SearchGuardRolesMapping mapping) {
         if(PROJECT.equals(settings.getRoleStrategy())) {
-            return new ProjectRolesMappingSyncStrategy(mapping);
+            return new ProjectRolesMappingSyncStrategy(mapping, partitioner);
         }
-        return new UserRolesMappingSyncStrategy(mapping);
+        return new UserRolesMappingSyncStrategy(mapping, partitioner);
     }
     
     public RolesSyncStrategy createRolesSyncStrategy(SearchGuardRoles roles) {
         if(PROJECT.equals(settings.getRoleStrategy())) {
-            return new ProjectRolesSyncStrategy(roles, settings.getDefaultKibanaIndex(), settings.getCdmProjectPrefix(), settings.getKibanaIndexMode());
+            return new ProjectRolesSyncStrategy(roles, settings.getDefaultKibanaIndex(), settings.getCdmProjectPrefix(), settings.getKibanaIndexMode(),
+                    partitioner);
         }
-        return new UserRolesSyncStrategy(roles, settings.getDefaultKibanaIndex(), settings.getCdmProjectPrefix(), settings.getKibanaIndexMode());
+        return new UserRolesSyncStrategy(roles, settings.getDefaultKibanaIndex(), settings.getCdmProjectPrefix(), settings.getKibanaIndexMode(),
+                partitioner);
+    }
+
+    /**
+     * Release the threads used to generate the ACL
+     */
+    public void close() {
+        partitioner.close();
     }
-    
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static io.fabric8.elasticsearch.plugin.KibanaIndexMode.SHARED_NON_OPS;
+import static io.fabric8.elasticsearch.plugin.KibanaIndexMode.SHARED_OPS;
+
+import org.apache.commons.lang.StringUtils;
+
+import io.fabric8.elasticsearch.plugin.KibanaUserReindexFilter;
+
+/**
+ * The names derived from a user's name, computed once per cached user so
+ * the username hash is not recomputed for every request and every user of
+ * each ACL sync. The Kibana index names are kept for the last Kibana prefix
+ * and index mode they were asked for, which are the same for every call of
+ * a node.
+ */
+public class UserIdentity {
+
+    private final String user;
+    private final String hash;
+    private final String userRoleName;
+    private final String kibanaRoleName;
+    private volatile KibanaIndexNames kibanaIndexNames;
+
+    public UserIdentity(final String user) {
+        this.user = user;
+        this.hash = KibanaUserReindexFilter.getUsernameHash(user);
+        this.userRoleName = SearchGuardRoles.USER_PREFIX + "_" + hash;
+        this.kibanaRoleName = SearchGuardRoles.ROLE_PREFIX + "_kibana_" + hash;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return the SHA-1 hash of the username used in index and role names
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the name of the role of the user with the 'user' role strategy
+     */
+    public String getUserRoleName() {
+        return userRoleName;
+    }
+
+    /**
+     * @return the name of the role for the user's own Kibana index
+     */
+    public String getKibanaRoleName() {
+        return kibanaRoleName;
+    }
+
+    /**
+     * @param kibanaPrefix      The prefix of the Kibana indices
+     * @param kibanaIndexMode   The Kibana index mode
+     * @param operationsUser    Whether the user is an operations user
+     * @return the name of the Kibana index of the user
+     */
+    public String getKibanaIndex(final String kibanaPrefix, final String kibanaIndexMode, final boolean operationsUser) {
+        return getKibanaIndexNames(kibanaPrefix, kibanaIndexMode).getIndex(operationsUser);
+    }
+
+    /**
+     * @return the Kibana index of the user as an index pattern of the ACL
+     */
+    public String getKibanaIndexPattern(final String kibanaPrefix, final String kibanaIndexMode,
+            final boolean operationsUser) {
+        return getKibanaIndexNames(kibanaPrefix, kibanaIndexMode).getPattern(operationsUser);
+    }
+
+    private KibanaIndexNames getKibanaIndexNames(final String kibanaPrefix, final String kibanaIndexMode) {
+        KibanaIndexNames names = kibanaIndexNames;
+        if (names == null || !names.isFor(kibanaPrefix, kibanaIndexMode)) {
+            names = new KibanaIndexNames(kibanaPrefix, kibanaIndexMode,
+                    formatKibanaIndex(kibanaPrefix, kibanaIndexMode, false),
+                    formatKibanaIndex(kibanaPrefix, kibanaIndexMode, true));
+            kibanaIndexNames = names;
+        }
+        return names;
+    }
+
+    private String formatKibanaIndex(final String kibanaPrefix, final String kibanaIndexMode, final boolean operationsUser) {
+        if (StringUtils.isBlank(user)) {
+            return "";
+        }
+        if ((SHARED_OPS.equals(kibanaIndexMode) || SHARED_NON_OPS.equals(kibanaIndexMode)) && operationsUser) {
+            return kibanaPrefix;
+        }
+        if (SHARED_NON_OPS.equals(kibanaIndexMode)) {
+            return kibanaPrefix + "_non_ops";
+        }
+        return kibanaPrefix + "." + hash;
+    }
+
+    /*
+     * The Kibana index names of a user for one Kibana prefix and index mode
+     */
+    private static class KibanaIndexNames {
+
+        private final String kibanaPrefix;
+        private final String kibanaIndexMode;
+        private final String index;
+        private final String operationsIndex;
+        private final String pattern;
+        private final String operationsPattern;
+
+        KibanaIndexNames(String kibanaPrefix, String kibanaIndexMode, String index, String operationsIndex) {
+            this.kibanaPrefix = kibanaPrefix;
+            this.kibanaIndexMode = kibanaIndexMode;
+            this.index = index;
+            this.operationsIndex = operationsIndex;
+            this.pattern = index.replace('.', '?');
+            this.operationsPattern = operationsIndex.replace('.', '?');
+        }
+
+        boolean isFor(String prefix, String mode) {
+            return StringUtils.equals(kibanaPrefix, prefix) && StringUtils.equals(kibanaIndexMode, mode);
+        }
+
+        String getIndex(boolean operationsUser) {
+            return operationsUser ? operationsIndex : index;
+        }
+
+        String getPattern(boolean operationsUser) {
+            return operationsUser ? operationsPattern : pattern;
+        }
+    }
+}
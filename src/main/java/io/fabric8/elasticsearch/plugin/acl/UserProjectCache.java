@@ -17,6 +17,7 @@
 package io.fabric8.elasticsearch.plugin.acl;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 
@@ -37,8 +38,42 @@ public interface UserProjectCache {
      *            the projects to add the user to
      * @param operationsUser
      *            boolean whether or not the user is an operationsUser
+     * @return The cached entry, or null if the entry could not be cached
      */
-    void update(final String user, final String token, Set<String> projects, boolean operationsUser);
+    UserProjectCacheEntry update(final String user, final String token, Set<String> projects, boolean operationsUser);
+
+    /**
+     * Add users for a project, reusing the identity already derived for the
+     * user instead of deriving it again
+     *
+     * @param user
+     *            the user
+     * @param token
+     *            the token that the user used to authenticate
+     * @param projects
+     *            the projects to add the user to
+     * @param operationsUser
+     *            boolean whether or not the user is an operationsUser
+     * @param identity
+     *            the identity of the user, or null to derive it
+     * @return The cached entry, or null if the entry could not be cached
+     */
+    UserProjectCacheEntry update(final String user, final String token, Set<String> projects, boolean operationsUser,
+            UserIdentity identity);
+
+    /**
+     * Replace the projects of a cached user without changing when the entry
+     * expires
+     *
+     * @param user
+     *            the user
+     * @param token
+     *            the token that the user used to authenticate
+     * @param projects
+     *            the projects the user now belongs to
+     * @return true if the user was cached and the projects were replaced
+     */
+    boolean updateProjects(final String user, final String token, Set<String> projects);
 
     /**
      * Retrieve an unmodifiable mapping of users to their projects
@@ -57,7 +92,21 @@ public interface UserProjectCache {
 
     boolean isOperationsUser(String user, String token);
 
-    void expire();
+    /**
+     * Remove the entries that have expired
+     *
+     * @return The token digests of the cached entries that were removed
+     */
+    Collection<String> expire();
+
+    /**
+     * Remove the entries that expired before the given time
+     *
+     * @param now
+     *            The time in millis to compare the expiration of entries to
+     * @return The token digests of the cached entries that were removed
+     */
+    Collection<String> expire(long now);
 
     /**
      * Retrieve names of all projects that users belong to
@@ -65,4 +114,48 @@ public interface UserProjectCache {
      * @return  The set of all the projects in the cache
      */
     Set<String> getAllProjects();
+
+    /**
+     * Retrieve the entry for the user who authenticated with the given token
+     *
+     * @param token
+     *            The token the user used to authenticate
+     * @return The cached entry, a restored entry that has not yet been updated
+     *         into the cache, or null if the token is unknown
+     */
+    UserProjectCacheEntry getByToken(String token);
+
+    /**
+     * Retrieve a snapshot of the entries in the cache
+     *
+     * @return The entries that are currently cached
+     */
+    Collection<UserProjectCacheEntry> getEntries();
+
+    /**
+     * Retrieve the entries of every user the ACL is generated for: the cached
+     * entries and the restored entries that have not expired. Restored entries
+     * include those published by peers, so the ACL written by this node keeps
+     * the roles of users that are only cached on other nodes
+     *
+     * @return The cached and restored entries
+     */
+    Collection<UserProjectCacheEntry> getAclEntries();
+
+    /**
+     * Restore an entry that was previously retrieved from a cache. A restored
+     * entry is only used once a request presents the token matching its digest
+     *
+     * @param entry
+     *            The entry to restore
+     */
+    void restore(UserProjectCacheEntry entry);
+
+    /**
+     * Drop a restored entry that has been invalidated elsewhere
+     *
+     * @param tokenDigest
+     *            The digest of the token of the entry to drop
+     */
+    void invalidate(String tokenDigest);
 }
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * An immutable view of a single user's entry in the {@link UserProjectCache}.
+ * The token is only ever held as a digest so entries can be written outside
+ * of the process. The {@link UserIdentity} is kept by the cache with the entry
+ * or, for entries from outside of the cache, derived on first use. The
+ * projects are wrapped rather than copied, so the set given to an entry must
+ * not be modified afterwards.
+ */
+public class UserProjectCacheEntry {
+
+    private final String user;
+    private final String tokenDigest;
+    private final Set<String> projects;
+    private final boolean operationsUser;
+    private final long expires;
+    private final boolean restored;
+    private volatile UserIdentity identity;
+
+    public UserProjectCacheEntry(final String user, final String tokenDigest, final Set<String> projects,
+            final boolean operationsUser, final long expires) {
+        this(user, tokenDigest, projects, operationsUser, expires, null, false);
+    }
+
+    public UserProjectCacheEntry(final String user, final String tokenDigest, final Set<String> projects,
+            final boolean operationsUser, final long expires, final UserIdentity identity) {
+        this(user, tokenDigest, projects, operationsUser, expires, identity, false);
+    }
+
+    private UserProjectCacheEntry(final String user, final String tokenDigest, final Set<String> projects,
+            final boolean operationsUser, final long expires, final UserIdentity identity, final boolean restored) {
+        this.user = user;
+        this.identity = identity;
+        this.tokenDigest = tokenDigest;
+        this.projects = Collections.unmodifiableSet(projects);
+        this.operationsUser = operationsUser;
+        this.expires = expires;
+        this.restored = restored;
+    }
+
+    /**
+     * @return a copy of this entry marked as restored from outside of the cache
+     */
+    public UserProjectCacheEntry asRestored() {
+        return new UserProjectCacheEntry(user, tokenDigest, projects, operationsUser, expires, identity, true);
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public UserIdentity getIdentity() {
+        if (identity == null) {
+            identity = new UserIdentity(user);
+        }
+        return identity;
+    }
+
+    public String getTokenDigest() {
+        return tokenDigest;
+    }
+
+    public Set<String> getProjects() {
+        return projects;
+    }
+
+    public boolean isOperationsUser() {
+        return operationsUser;
+    }
+
+    /**
+     * @return the time in millis after which the entry is no longer valid
+     */
+    public long getExpires() {
+        return expires;
+    }
+
+    public boolean isExpired(long now) {
+        return now > expires;
+    }
+
+    /**
+     * @return true if the entry was restored (e.g. from a snapshot) and has
+     *         not yet been updated into the cache by a request with its token
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeString(user);
+        out.writeString(tokenDigest);
+        out.writeBoolean(operationsUser);
+        out.writeLong(expires);
+        out.writeStringArray(projects.toArray(new String[projects.size()]));
+    }
+
+    public static UserProjectCacheEntry readFrom(StreamInput in) throws IOException {
+        final String user = in.readString();
+        final String tokenDigest = in.readString();
+        final boolean operationsUser = in.readBoolean();
+        final long expires = in.readLong();
+        Set<String> projects = new HashSet<>(Arrays.asList(in.readStringArray()));
+        return new UserProjectCacheEntry(user, tokenDigest, projects, operationsUser, expires);
+    }
+
+    public static String digest(String token) {
+        return DigestUtils.sha256Hex(token);
+    }
+}
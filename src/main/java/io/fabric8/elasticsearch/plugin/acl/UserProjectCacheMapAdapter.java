@@ -17,8 +17,11 @@
 package io.fabric8.elasticsearch.plugin.acl;
 
 import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -40,8 +43,9 @@ public class UserProjectCacheMapAdapter implements UserProjectCache {
 
     private final ESLogger logger;
     private final Map<SimpleImmutableEntry<String, String>, Set<String>> cache = new ConcurrentHashMap<>();
-    private final Map<SimpleImmutableEntry<String, String>, Long> createTimes = new ConcurrentHashMap<>();
-    private final Map<SimpleImmutableEntry<String, String>, Boolean> operationsUsers = new ConcurrentHashMap<>();
+    private final Map<SimpleImmutableEntry<String, String>, UserProjectCacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, SimpleImmutableEntry<String, String>> tokens = new ConcurrentHashMap<>();
+    private final Map<String, UserProjectCacheEntry> restored = new ConcurrentHashMap<>();
     private final Set<String> projects = new ConcurrentSet<>();
     private static final long EXPIRE = 1000 * 60; // 1 MIN
 
@@ -63,34 +67,129 @@ public class UserProjectCacheMapAdapter implements UserProjectCache {
 
     @Override
     public boolean isOperationsUser(String user, String token) {
+        UserProjectCacheEntry entry = entries.get(new SimpleImmutableEntry<>(user, token));
+        return entry != null && entry.isOperationsUser();
+    }
+
+    @Override
+    public UserProjectCacheEntry update(final String user, String token, final Set<String> projects, boolean operationsUser) {
+        return update(user, token, projects, operationsUser, null);
+    }
+
+    @Override
+    public UserProjectCacheEntry update(final String user, String token, final Set<String> projects, boolean operationsUser,
+            UserIdentity given) {
         SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>(user, token);
-        return operationsUsers.containsKey(sie) && operationsUsers.get(sie);
+        // the digest and identity of a user's token are computed once
+        UserProjectCacheEntry previous = entries.get(sie);
+        final String tokenDigest = previous != null ? previous.getTokenDigest() : UserProjectCacheEntry.digest(token);
+        final UserIdentity identity = previous != null ? previous.getIdentity() : given != null ? given : new UserIdentity(user);
+        Set<String> userProjects = new HashSet<>(projects);
+        UserProjectCacheEntry entry = new UserProjectCacheEntry(user, tokenDigest, userProjects, operationsUser,
+                System.currentTimeMillis() + EXPIRE, identity);
+        cache.put(sie, userProjects);
+        entries.put(sie, entry);
+        tokens.put(token, sie);
+        this.projects.addAll(projects);
+        if (!restored.isEmpty()) {
+            restored.remove(tokenDigest);
+        }
+        return entry;
     }
 
     @Override
-    public void update(final String user, String token, final Set<String> projects, boolean operationsUser) {
+    public boolean updateProjects(final String user, final String token, final Set<String> projects) {
         SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>(user, token);
-        cache.put(sie, new HashSet<>(projects));
-        createTimes.put(sie, System.currentTimeMillis() + EXPIRE);
-        operationsUsers.put(sie, operationsUser);
+        UserProjectCacheEntry previous = entries.get(sie);
+        if (previous == null) {
+            return false;
+        }
+        Set<String> userProjects = new HashSet<>(projects);
+        UserProjectCacheEntry entry = new UserProjectCacheEntry(user, previous.getTokenDigest(), userProjects,
+                previous.isOperationsUser(), previous.getExpires(), previous.getIdentity());
+        if (!entries.replace(sie, previous, entry)) {
+            return false;
+        }
+        cache.put(sie, userProjects);
         this.projects.addAll(projects);
+        return true;
     }
 
     @Override
-    public void expire() {
-        final long now = System.currentTimeMillis();
-        for (Map.Entry<SimpleImmutableEntry<String, String>, Long> entry : new HashSet<>(createTimes.entrySet())) {
-            if (now > entry.getValue()) {
+    public Collection<String> expire() {
+        return expire(System.currentTimeMillis());
+    }
+
+    @Override
+    public Collection<String> expire(final long now) {
+        List<String> expired = new ArrayList<>();
+        for (Map.Entry<SimpleImmutableEntry<String, String>, UserProjectCacheEntry> entry : new ArrayList<>(entries.entrySet())) {
+            if (entry.getValue().isExpired(now) && entries.remove(entry.getKey(), entry.getValue())) {
                 logger.debug("Expiring cache entry for {}", entry.getKey());
                 cache.remove(entry.getKey());
-                createTimes.remove(entry.getKey());
-                operationsUsers.remove(entry.getKey());
+                tokens.remove(entry.getKey().getValue(), entry.getKey());
+                expired.add(entry.getValue().getTokenDigest());
+            }
+        }
+        for (UserProjectCacheEntry entry : new ArrayList<>(restored.values())) {
+            if (entry.isExpired(now)) {
+                logger.debug("Expiring restored cache entry for {}", entry.getUser());
+                restored.remove(entry.getTokenDigest(), entry);
             }
         }
+        return expired;
     }
 
     @Override
     public Set<String> getAllProjects() {
         return Collections.unmodifiableSet(projects);
     }
+
+    @Override
+    public UserProjectCacheEntry getByToken(String token) {
+        SimpleImmutableEntry<String, String> sie = tokens.get(token);
+        if (sie != null) {
+            UserProjectCacheEntry entry = entries.get(sie);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        if (restored.isEmpty()) {
+            return null;
+        }
+        UserProjectCacheEntry entry = restored.get(UserProjectCacheEntry.digest(token));
+        if (entry != null && !entry.isExpired(System.currentTimeMillis())) {
+            return entry;
+        }
+        return null;
+    }
+
+    @Override
+    public Collection<UserProjectCacheEntry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public Collection<UserProjectCacheEntry> getAclEntries() {
+        Collection<UserProjectCacheEntry> aclEntries = getEntries();
+        final long now = System.currentTimeMillis();
+        for (UserProjectCacheEntry entry : restored.values()) {
+            if (!entry.isExpired(now)) {
+                aclEntries.add(entry);
+            }
+        }
+        return aclEntries;
+    }
+
+    @Override
+    public void restore(UserProjectCacheEntry entry) {
+        if (!entry.isExpired(System.currentTimeMillis())) {
+            restored.put(entry.getTokenDigest(), entry.asRestored());
+        }
+    }
+
+    @Override
+    public void invalidate(String tokenDigest) {
+        restored.remove(tokenDigest);
+    }
 }
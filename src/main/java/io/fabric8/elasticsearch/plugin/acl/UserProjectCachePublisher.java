@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+/**
+ * Shares the users resolved against the OpenShift master on this node with
+ * the other nodes in the cluster. Entries are queued and sent in batches when
+ * {@link #flush()} is called. Peers {@link UserProjectCache#restore restore}
+ * the entries so they are only used by a request presenting the same token,
+ * and request an ACL sync when an entry adds a user or project that is not
+ * yet in the ACL the peers write. Invalidated entries are dropped from the
+ * ACL with the next sync.
+ */
+public class UserProjectCachePublisher implements ConfigurationSettings {
+
+    public static final String ACTION_NAME = "internal:openshift/acl/cache/publish";
+    static final int MAX_BATCH_SIZE = 500;
+
+    private static final ESLogger LOGGER = Loggers.getLogger(UserProjectCachePublisher.class);
+
+    private final UserProjectCache cache;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final TransportService transportService;
+    private final ClusterService clusterService;
+    private final boolean enabled;
+    private final Queue<UserProjectCacheEntry> entries = new ConcurrentLinkedQueue<>();
+    private final Queue<String> invalidated = new ConcurrentLinkedQueue<>();
+
+    @Inject
+    public UserProjectCachePublisher(final Settings settings, final UserProjectCache cache,
+            final SearchGuardACLSynchronizer synchronizer, final TransportService transportService,
+            final ClusterService clusterService) {
+        this.cache = cache;
+        this.synchronizer = synchronizer;
+        this.transportService = transportService;
+        this.clusterService = clusterService;
+        this.enabled = settings.getAsBoolean(OPENSHIFT_ACL_CACHE_PUBLISH_ENABLED, DEFAULT_ACL_CACHE_PUBLISH_ENABLED);
+        transportService.registerRequestHandler(ACTION_NAME, PublishUserProjectCacheRequest.class,
+                ThreadPool.Names.GENERIC, new PublishRequestHandler());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Queue an entry that was resolved on this node to be sent to its peers
+     *
+     * @param entry   The entry to publish
+     */
+    public void publish(UserProjectCacheEntry entry) {
+        if (enabled) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Queue the token digests of entries expired on this node to be sent to its peers
+     *
+     * @param tokenDigests   The digests to invalidate
+     */
+    public void invalidate(Collection<String> tokenDigests) {
+        if (enabled) {
+            invalidated.addAll(tokenDigests);
+        }
+    }
+
+    /**
+     * Send the queued entries and invalidations to every other node
+     */
+    public void flush() {
+        if (entries.isEmpty() && invalidated.isEmpty()) {
+            return;
+        }
+        final DiscoveryNodes nodes = clusterService.state().nodes();
+        final boolean hasPeers = nodes.getSize() > 1;
+        while (!entries.isEmpty() || !invalidated.isEmpty()) {
+            PublishUserProjectCacheRequest request = new PublishUserProjectCacheRequest(drain(entries),
+                    drain(invalidated));
+            if (!hasPeers) {
+                continue;
+            }
+            LOGGER.debug("Publishing {} cache entries and {} invalidations to {} nodes", request.getEntries().size(),
+                    request.getInvalidated().size(), nodes.getSize() - 1);
+            for (DiscoveryNode node : nodes) {
+                if (!node.getId().equals(nodes.getLocalNodeId())) {
+                    transportService.sendRequest(node, ACTION_NAME, request, new PublishResponseHandler(node));
+                }
+            }
+        }
+    }
+
+    private static <T> List<T> drain(Queue<T> queue) {
+        List<T> batch = new ArrayList<>();
+        T item;
+        while (batch.size() < MAX_BATCH_SIZE && (item = queue.poll()) != null) {
+            batch.add(item);
+        }
+        return batch;
+    }
+
+    private class PublishRequestHandler extends TransportRequestHandler<PublishUserProjectCacheRequest> {
+
+        @Override
+        public void messageReceived(PublishUserProjectCacheRequest request, TransportChannel channel) throws Exception {
+            LOGGER.debug("Received {} cache entries and {} invalidations", request.getEntries().size(),
+                    request.getInvalidated().size());
+            final boolean addsToAcl = addsToAcl(request.getEntries());
+            for (UserProjectCacheEntry entry : request.getEntries()) {
+                cache.restore(entry);
+            }
+            for (String tokenDigest : request.getInvalidated()) {
+                cache.invalidate(tokenDigest);
+            }
+            if (addsToAcl) {
+                synchronizer.requestSync();
+            }
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+
+        /*
+         * Whether one of the entries has a user, a project of the user or an
+         * operations user the ACL is not already generated with
+         */
+        private boolean addsToAcl(List<UserProjectCacheEntry> received) {
+            if (received.isEmpty()) {
+                return false;
+            }
+            Map<String, Set<String>> projects = new HashMap<>();
+            Set<String> operationsUsers = new HashSet<>();
+            for (UserProjectCacheEntry entry : cache.getAclEntries()) {
+                Set<String> userProjects = projects.get(entry.getUser());
+                if (userProjects == null) {
+                    userProjects = new HashSet<>();
+                    projects.put(entry.getUser(), userProjects);
+                }
+                userProjects.addAll(entry.getProjects());
+                if (entry.isOperationsUser()) {
+                    operationsUsers.add(entry.getUser());
+                }
+            }
+            for (UserProjectCacheEntry entry : received) {
+                Set<String> userProjects = projects.get(entry.getUser());
+                if (userProjects == null || !userProjects.containsAll(entry.getProjects())
+                        || entry.isOperationsUser() && !operationsUsers.contains(entry.getUser())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static class PublishResponseHandler extends EmptyTransportResponseHandler {
+
+        private final DiscoveryNode node;
+
+        PublishResponseHandler(DiscoveryNode node) {
+            super(ThreadPool.Names.SAME);
+            this.node = node;
+        }
+
+        @Override
+        public void handleException(TransportException exp) {
+            LOGGER.debug("Unable to publish cache entries to {}", exp, node);
+        }
+    }
+}
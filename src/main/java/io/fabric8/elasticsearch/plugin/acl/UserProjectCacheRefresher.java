@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+
+/**
+ * Refreshes the cache entries of active users against the OpenShift master
+ * shortly before they expire so their requests do not fall back to resolving
+ * the user, projects and ACL. The existing entry keeps being served until the
+ * refresh completes. Refreshes run on the 'openshift_refresh' thread pool
+ * and are dropped when it is saturated.
+ */
+public class UserProjectCacheRefresher implements ConfigurationSettings {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(UserProjectCacheRefresher.class);
+
+    private final UserProjectCache cache;
+    private final OpenshiftRequestContextFactory contextFactory;
+    private final KibanaSeedExecutor kibanaSeeds;
+    private final Client client;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final UserProjectCachePublisher publisher;
+    private final String kibanaVersion;
+    private final String cdmProjectPrefix;
+    private final boolean enabled;
+    private final long window;
+    private final int minHits;
+    private final ConcurrentHashMap<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ThreadPool threadPool;
+
+    @Inject
+    public UserProjectCacheRefresher(final Settings settings, final PluginSettings pluginSettings,
+            final UserProjectCache cache, final OpenshiftRequestContextFactory contextFactory, final KibanaSeedExecutor seeds,
+            final Client client, final SearchGuardACLSynchronizer synchronizer,
+            final UserProjectCachePublisher publisher, final ThreadPool threadPool) {
+        this.cache = cache;
+        this.contextFactory = contextFactory;
+        this.kibanaSeeds = seeds;
+        this.client = client;
+        this.synchronizer = synchronizer;
+        this.publisher = publisher;
+        this.threadPool = threadPool;
+        this.kibanaVersion = pluginSettings.getKibanaVersion();
+        this.cdmProjectPrefix = pluginSettings.getCdmProjectPrefix();
+        this.enabled = settings.getAsBoolean(OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_ENABLED,
+                DEFAULT_ACL_CACHE_REFRESH_AHEAD_ENABLED);
+        this.window = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_WINDOW, DEFAULT_ACL_CACHE_REFRESH_AHEAD_WINDOW), null,
+                OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_WINDOW).millis();
+        this.minHits = settings.getAsInt(OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_MIN_HITS,
+                DEFAULT_ACL_CACHE_REFRESH_AHEAD_MIN_HITS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the time in millis before an entry expires that it is eligible to be refreshed
+     */
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * Record a request served from the cache for the given token
+     *
+     * @param token   The token of the request
+     */
+    public void recordAccess(final String token) {
+        if (!enabled) {
+            return;
+        }
+        AtomicInteger count = hits.get(token);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = hits.putIfAbsent(token, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Submit a refresh for each entry that was accessed at least the minimum
+     * number of times and expires within the refresh window
+     */
+    public void refreshExpiring() {
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, AtomicInteger> hit : new ArrayList<>(hits.entrySet())) {
+            final String token = hit.getKey();
+            final UserProjectCacheEntry entry = cache.getByToken(token);
+            if (entry == null || entry.isRestored()) {
+                hits.remove(token);
+                continue;
+            }
+            if (entry.getExpires() - now > window || hit.getValue().get() < minHits) {
+                continue;
+            }
+            if (!refreshing.add(token)) {
+                continue;
+            }
+            hits.remove(token);
+            try {
+                threadPool.executor(OPENSHIFT_REFRESH_THREAD_POOL).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            refresh(token, entry);
+                        } finally {
+                            refreshing.remove(token);
+                        }
+                    }
+                });
+            } catch (EsRejectedExecutionException e) {
+                refreshing.remove(token);
+                LOGGER.debug("Skipping the refresh of the cache entry for '{}'. The refresh queue is full",
+                        entry.getUser());
+            }
+        }
+    }
+
+    void refresh(final String token, final UserProjectCacheEntry entry) {
+        LOGGER.debug("Refreshing the cache entry for '{}' before it expires", entry.getUser());
+        final OpenshiftRequestContext context;
+        try {
+            context = contextFactory.resolve(entry.getUser(), token);
+        } catch (Exception e) {
+            LOGGER.debug("Unable to refresh the cache entry for '{}'. Leaving it to expire", e, entry.getUser());
+            return;
+        }
+        try {
+            UserProjectCacheEntry refreshed = cache.update(context.getUser(), token, context.getProjects(),
+                    context.isOperationsUser(), context.getIdentity());
+            if (refreshed != null) {
+                publisher.publish(refreshed);
+            }
+            if (!context.getUser().equals(entry.getUser()) || context.isOperationsUser() != entry.isOperationsUser()
+                    || !context.getProjects().equals(entry.getProjects())) {
+                LOGGER.debug("The projects for '{}' changed. Seeding Kibana and syncing the ACL", context.getUser());
+                kibanaSeeds.submit(context, client, kibanaVersion, cdmProjectPrefix);
+                synchronizer.syncAcl();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Error refreshing the cache entry for '{}'", e, entry.getUser());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.elasticsearch.common.io.stream.InputStreamStreamInput;
+import org.elasticsearch.common.io.stream.OutputStreamStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Persists the entries of a {@link UserProjectCache} to a local file so a
+ * restarted node does not need to resolve every active user against the
+ * master. Tokens are only written as digests.
+ */
+public class UserProjectCacheSnapshot {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(UserProjectCacheSnapshot.class);
+    private static final int VERSION = 1;
+
+    private final Path path;
+
+    public UserProjectCacheSnapshot(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Write the snapshot to a temporary file and atomically move it in place
+     *
+     * @param entries   The entries to write
+     * @throws IOException if the snapshot could not be written
+     */
+    public void write(Collection<UserProjectCacheEntry> entries) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (StreamOutput out = new OutputStreamStreamOutput(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeVInt(VERSION);
+            out.writeVInt(entries.size());
+            for (UserProjectCacheEntry entry : entries) {
+                entry.writeTo(out);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Wrote {} cache entries to {}", entries.size(), path);
+    }
+
+    /**
+     * Read the entries from the snapshot that have not yet expired
+     *
+     * @param now   The current time in millis
+     * @return the entries or an empty list if there is no snapshot
+     * @throws IOException if the snapshot could not be read
+     */
+    public List<UserProjectCacheEntry> read(long now) throws IOException {
+        List<UserProjectCacheEntry> entries = new ArrayList<>();
+        if (!Files.exists(path)) {
+            return entries;
+        }
+        try (StreamInput in = new InputStreamStreamInput(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = in.readVInt();
+            if (version != VERSION) {
+                LOGGER.warn("Ignoring cache snapshot {} with unknown version {}", path, version);
+                return entries;
+            }
+            int size = in.readVInt();
+            for (int i = 0; i < size; i++) {
+                UserProjectCacheEntry entry = UserProjectCacheEntry.readFrom(in);
+                if (!entry.isExpired(now)) {
+                    entries.add(entry);
+                }
+            }
+        }
+        LOGGER.debug("Read {} unexpired cache entries from {}", entries.size(), path);
+        return entries;
+    }
+}
@@ -16,11 +16,6 @@
 
 package io.fabric8.elasticsearch.plugin.acl;
 
-import java.util.AbstractMap.SimpleImmutableEntry;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-
 /**
  * SearchGuard Roles Document sync strategy based on roles 
  * derived from users.  This should generate role mappings like:
@@ -35,27 +30,22 @@ import java.util.Set;
 public class UserRolesMappingSyncStrategy extends BaseRolesMappingSyncStrategy {
 
     public UserRolesMappingSyncStrategy(SearchGuardRolesMapping mapping) {
-        super(mapping);
+        this(mapping, AclPartitioner.SERIAL);
+    }
+
+    public UserRolesMappingSyncStrategy(SearchGuardRolesMapping mapping, AclPartitioner partitioner) {
+        super(mapping, partitioner);
     }
 
     @Override
-    protected void syncFromImpl(UserProjectCache cache, RolesMappingBuilder builder) {
-        Set<String> opsUsers = new HashSet<>();
-        for (Entry<SimpleImmutableEntry<String, String>, Set<String>> userProjects : cache.getUserProjects()
-                .entrySet()) {
-            String username = userProjects.getKey().getKey();
-            String token = userProjects.getKey().getValue();
+    protected void syncUserMappings(UserProjectCacheEntry entry, RolesMappingBuilder builder) {
+        String username = entry.getUser();
 
-            if (cache.isOperationsUser(username, token)) {
-                opsUsers.add(username);
-            } else {
-                String roleName = BaseRolesSyncStrategy.formatUserRoleName(username);
-                builder.addUser(roleName, username);
-            }
-        }
-        for (String user : opsUsers) {
-            builder.addUser(SearchGuardRolesMapping.ADMIN_ROLE, user);
-            builder.addUser(SearchGuardRolesMapping.KIBANA_SHARED_ROLE, user);
+        if (entry.isOperationsUser()) {
+            builder.addUser(SearchGuardRolesMapping.ADMIN_ROLE, username);
+            builder.addUser(SearchGuardRolesMapping.KIBANA_SHARED_ROLE, username);
+        } else {
+            builder.addUser(entry.getIdentity().getUserRoleName(), username);
         }
     }
 
@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheEntry;
+
+/**
+ * Token bucket limits for the requests that can not be answered from the
+ * cache and need the master, Kibana seeding and an ACL sync. Each token
+ * gets a bucket of 'user.burst' requests refilled at 'user.rate' per second
+ * and all tokens share a bucket of 'global.burst' refilled at 'global.rate'.
+ * The user is not known before the master is asked, so buckets are keyed by
+ * token digest. A rate of 0 disables the limit.
+ */
+public class AdmissionController implements ConfigurationSettings, ToXContent {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(AdmissionController.class);
+
+    private final boolean enabled;
+    private final double userRate;
+    private final double userBurst;
+    private final int maxUsers;
+    private final Bucket global;
+    private final ConcurrentHashMap<String, Bucket> users = new ConcurrentHashMap<>();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedUser = new AtomicLong();
+    private final AtomicLong rejectedGlobal = new AtomicLong();
+
+    @Inject
+    public AdmissionController(final Settings settings) {
+        this.enabled = settings.getAsBoolean(OPENSHIFT_ADMISSION_ENABLED, DEFAULT_ADMISSION_ENABLED);
+        this.userRate = settings.getAsDouble(OPENSHIFT_ADMISSION_USER_RATE, DEFAULT_ADMISSION_USER_RATE);
+        this.userBurst = Math.max(1, settings.getAsInt(OPENSHIFT_ADMISSION_USER_BURST, DEFAULT_ADMISSION_USER_BURST));
+        this.maxUsers = settings.getAsInt(OPENSHIFT_ADMISSION_MAX_USERS, DEFAULT_ADMISSION_MAX_USERS);
+        final double globalRate = settings.getAsDouble(OPENSHIFT_ADMISSION_GLOBAL_RATE, DEFAULT_ADMISSION_GLOBAL_RATE);
+        final int globalBurst = Math.max(1,
+                settings.getAsInt(OPENSHIFT_ADMISSION_GLOBAL_BURST, DEFAULT_ADMISSION_GLOBAL_BURST));
+        this.global = globalRate > 0 ? new Bucket(globalRate, globalBurst, System.currentTimeMillis()) : null;
+    }
+
+    /**
+     * Take a request of a token from its bucket and the global bucket
+     *
+     * @param token   The token of the request
+     * @return 0 if the request is admitted, otherwise the millis until a
+     *         retry can be admitted
+     */
+    public long tryAdmit(final String token) {
+        return tryAdmit(token, System.currentTimeMillis());
+    }
+
+    long tryAdmit(final String token, final long now) {
+        if (!enabled) {
+            return 0;
+        }
+        final Bucket user = userRate > 0 ? bucketFor(UserProjectCacheEntry.digest(token), now) : null;
+        if (user != null) {
+            final long wait = user.take(now);
+            if (wait > 0) {
+                rejectedUser.incrementAndGet();
+                return wait;
+            }
+        }
+        if (global != null) {
+            final long wait = global.take(now);
+            if (wait > 0) {
+                if (user != null) {
+                    user.refund();
+                }
+                rejectedGlobal.incrementAndGet();
+                return wait;
+            }
+        }
+        admitted.incrementAndGet();
+        return 0;
+    }
+
+    private Bucket bucketFor(final String key, final long now) {
+        Bucket bucket = users.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        if (users.size() >= maxUsers) {
+            prune(now);
+            if (users.size() >= maxUsers) {
+                LOGGER.debug("Not limiting the token. Too many tokens are being limited");
+                return null;
+            }
+        }
+        Bucket created = new Bucket(userRate, userBurst, now);
+        bucket = users.putIfAbsent(key, created);
+        return bucket == null ? created : bucket;
+    }
+
+    /**
+     * Forget the buckets that refilled completely, which behave the same as a
+     * new bucket
+     *
+     * @param now   The current time in millis
+     */
+    public void prune(final long now) {
+        for (Map.Entry<String, Bucket> entry : new ArrayList<>(users.entrySet())) {
+            if (entry.getValue().isFull(now)) {
+                users.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("admission_control");
+        builder.field("enabled", enabled);
+        builder.field("tracked_tokens", users.size());
+        builder.field("admitted", admitted.get());
+        builder.field("rejected_user", rejectedUser.get());
+        builder.field("rejected_global", rejectedGlobal.get());
+        builder.endObject();
+        return builder;
+    }
+
+    private static class Bucket {
+
+        private final double perMilli;
+        private final double capacity;
+        private double tokens;
+        private long last;
+
+        Bucket(double rate, double capacity, long now) {
+            this.perMilli = rate / 1000;
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.last = now;
+        }
+
+        private void refill(long now) {
+            if (now > last) {
+                tokens = Math.min(capacity, tokens + (now - last) * perMilli);
+                last = now;
+            }
+        }
+
+        synchronized long take(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - tokens) / perMilli));
+        }
+
+        synchronized void refund() {
+            tokens = Math.min(capacity, tokens + 1);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= capacity;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftClientFactory;
+import io.fabric8.kubernetes.api.model.ObjectReference;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import io.fabric8.openshift.api.model.ClusterRoleBinding;
+import io.fabric8.openshift.api.model.ClusterRoleBindingList;
+import io.fabric8.openshift.api.model.Group;
+import io.fabric8.openshift.api.model.GroupList;
+import io.fabric8.openshift.client.OpenShiftClient;
+
+/**
+ * Decides whether a user is an operations user from the cluster role
+ * bindings and groups of the cluster instead of a SubjectAccessReview per
+ * user. The bindings and groups are listed once and then kept current from
+ * watch events using the credentials of the ES pod, which needs to be able
+ * to list and watch clusterrolebindings and groups.
+ *
+ * Cluster roles can not be watched with this version of the client, so the
+ * roles that grant 'get pods/log' across the cluster are configured by name
+ * with 'openshift.operations.rbac.roles'. Unless the evaluator is configured
+ * to be authoritative, users that are not bound to one of these roles are
+ * still checked with a SAR.
+ */
+public class OperationsUserEvaluator implements ConfigurationSettings {
+
+    static final Set<String> ALL_USERS_GROUPS = new HashSet<>(
+            Arrays.asList("system:authenticated", "system:authenticated:oauth"));
+
+    private static final ESLogger LOGGER = Loggers.getLogger(OperationsUserEvaluator.class);
+    private static final String SERVICE_ACCOUNT_PREFIX = "system:serviceaccount:";
+
+    private final OpenshiftClientFactory clientFactory;
+    private final boolean enabled;
+    private final boolean authoritative;
+    private final Set<String> roles;
+
+    private final Map<String, Set<String>> bindingUsers = new HashMap<>();
+    private final Map<String, Set<String>> bindingGroups = new HashMap<>();
+    private final Map<String, Set<String>> groupMembers = new HashMap<>();
+    private volatile Set<String> members = Collections.emptySet();
+    private volatile boolean allUsers;
+    private volatile boolean synced;
+
+    private OpenShiftClient client;
+    private Watch bindingWatch;
+    private Watch groupWatch;
+
+    @Inject
+    public OperationsUserEvaluator(final Settings settings, final OpenshiftClientFactory clientFactory) {
+        this.clientFactory = clientFactory;
+        this.enabled = settings.getAsBoolean(OPENSHIFT_OPS_RBAC_LOCAL_ENABLED, DEFAULT_OPS_RBAC_LOCAL_ENABLED);
+        this.authoritative = settings.getAsBoolean(OPENSHIFT_OPS_RBAC_LOCAL_AUTHORITATIVE,
+                DEFAULT_OPS_RBAC_LOCAL_AUTHORITATIVE);
+        this.roles = new HashSet<>(Arrays.asList(settings.getAsArray(OPENSHIFT_OPS_RBAC_ROLES, DEFAULT_OPS_RBAC_ROLES)));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param user  The name of the user
+     * @return TRUE or FALSE if the user can be evaluated locally, or null if
+     *         a SubjectAccessReview is needed
+     */
+    public Boolean isOperationsUser(final String user) {
+        if (!enabled || !synced) {
+            return null;
+        }
+        if (allUsers || members.contains(user)) {
+            return Boolean.TRUE;
+        }
+        return authoritative ? Boolean.FALSE : null;
+    }
+
+    /**
+     * List and watch the bindings and groups unless they are already being watched
+     */
+    public synchronized void ensureWatching() {
+        if (!enabled || synced) {
+            return;
+        }
+        stop();
+        try {
+            client = clientFactory.create(new ConfigBuilder().build());
+            bindingUsers.clear();
+            bindingGroups.clear();
+            groupMembers.clear();
+            ClusterRoleBindingList bindings = client.clusterRoleBindings().list();
+            for (ClusterRoleBinding binding : bindings.getItems()) {
+                updateBinding(binding);
+            }
+            GroupList groups = client.groups().list();
+            for (Group group : groups.getItems()) {
+                updateGroup(group);
+            }
+            recompute();
+            synced = true;
+            bindingWatch = client.clusterRoleBindings().watch(bindings.getMetadata().getResourceVersion(),
+                    new Watcher<ClusterRoleBinding>() {
+                        @Override
+                        public void eventReceived(Action action, ClusterRoleBinding resource) {
+                            onBinding(action, resource);
+                        }
+
+                        @Override
+                        public void onClose(KubernetesClientException cause) {
+                            onWatchClosed(cause);
+                        }
+                    });
+            groupWatch = client.groups().watch(groups.getMetadata().getResourceVersion(), new Watcher<Group>() {
+                @Override
+                public void eventReceived(Action action, Group resource) {
+                    onGroup(action, resource);
+                }
+
+                @Override
+                public void onClose(KubernetesClientException cause) {
+                    onWatchClosed(cause);
+                }
+            });
+            LOGGER.info("Evaluating operations users locally from {} cluster role bindings and {} groups",
+                    bindings.getItems().size(), groups.getItems().size());
+        } catch (Exception e) {
+            LOGGER.warn("Unable to watch the cluster role bindings and groups. Falling back to SARs", e);
+            synced = false;
+        }
+    }
+
+    public synchronized void stop() {
+        synced = false;
+        if (bindingWatch != null) {
+            bindingWatch.close();
+            bindingWatch = null;
+        }
+        if (groupWatch != null) {
+            groupWatch.close();
+            groupWatch = null;
+        }
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    private void onWatchClosed(KubernetesClientException cause) {
+        LOGGER.debug("The watch for operations users was closed", cause);
+        synced = false;
+    }
+
+    synchronized void onBinding(Watcher.Action action, ClusterRoleBinding binding) {
+        if (action == Watcher.Action.DELETED) {
+            bindingUsers.remove(binding.getMetadata().getName());
+            bindingGroups.remove(binding.getMetadata().getName());
+        } else if (action != Watcher.Action.ERROR) {
+            updateBinding(binding);
+        }
+        recompute();
+    }
+
+    synchronized void onGroup(Watcher.Action action, Group group) {
+        if (action == Watcher.Action.DELETED) {
+            groupMembers.remove(group.getMetadata().getName());
+        } else if (action != Watcher.Action.ERROR) {
+            updateGroup(group);
+        }
+        recompute();
+    }
+
+    synchronized void markSynced() {
+        synced = true;
+    }
+
+    private void updateBinding(ClusterRoleBinding binding) {
+        final String name = binding.getMetadata().getName();
+        if (binding.getRoleRef() == null || !roles.contains(binding.getRoleRef().getName())) {
+            bindingUsers.remove(name);
+            bindingGroups.remove(name);
+            return;
+        }
+        Set<String> users = new HashSet<>();
+        Set<String> groups = new HashSet<>();
+        if (binding.getUserNames() != null) {
+            users.addAll(binding.getUserNames());
+        }
+        if (binding.getGroupNames() != null) {
+            groups.addAll(binding.getGroupNames());
+        }
+        if (binding.getSubjects() != null) {
+            for (ObjectReference subject : binding.getSubjects()) {
+                if ("User".equals(subject.getKind())) {
+                    users.add(subject.getName());
+                } else if ("Group".equals(subject.getKind())) {
+                    groups.add(subject.getName());
+                } else if ("ServiceAccount".equals(subject.getKind())) {
+                    users.add(SERVICE_ACCOUNT_PREFIX + subject.getNamespace() + ":" + subject.getName());
+                }
+            }
+        }
+        bindingUsers.put(name, users);
+        bindingGroups.put(name, groups);
+    }
+
+    private void updateGroup(Group group) {
+        Set<String> users = new HashSet<>();
+        if (group.getUsers() != null) {
+            users.addAll(group.getUsers());
+        }
+        groupMembers.put(group.getMetadata().getName(), users);
+    }
+
+    private void recompute() {
+        Set<String> users = new HashSet<>();
+        boolean everyone = false;
+        for (Set<String> bound : bindingUsers.values()) {
+            users.addAll(bound);
+        }
+        for (Set<String> bound : bindingGroups.values()) {
+            for (String group : bound) {
+                if (ALL_USERS_GROUPS.contains(group)) {
+                    everyone = true;
+                } else if (groupMembers.containsKey(group)) {
+                    users.addAll(groupMembers.get(group));
+                }
+            }
+        }
+        this.members = Collections.unmodifiableSet(users);
+        this.allUsers = everyone;
+    }
+}
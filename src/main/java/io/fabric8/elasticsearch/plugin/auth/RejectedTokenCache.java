@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheEntry;
+
+/**
+ * Short lived cache of tokens the OpenShift master rejected, keyed by token
+ * digest. A rejected token is blocked for a period that doubles with each
+ * consecutive rejection of the same token, up to 'max_backoff', so retries
+ * of a bad token are answered without contacting the master. The backoff is
+ * not tied to the source address, as requests proxied by Kibana all share it.
+ */
+public class RejectedTokenCache implements ConfigurationSettings, ToXContent {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(RejectedTokenCache.class);
+
+    private final boolean enabled;
+    private final long backoff;
+    private final long maxBackoff;
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Rejection> rejected = new ConcurrentHashMap<>();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+
+    @Inject
+    public RejectedTokenCache(final Settings settings) {
+        this.enabled = settings.getAsBoolean(OPENSHIFT_REJECTED_TOKEN_CACHE_ENABLED,
+                DEFAULT_REJECTED_TOKEN_CACHE_ENABLED);
+        this.backoff = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_REJECTED_TOKEN_CACHE_BACKOFF, DEFAULT_REJECTED_TOKEN_CACHE_BACKOFF), null,
+                OPENSHIFT_REJECTED_TOKEN_CACHE_BACKOFF).millis();
+        this.maxBackoff = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_BACKOFF, DEFAULT_REJECTED_TOKEN_CACHE_MAX_BACKOFF),
+                null, OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_BACKOFF).millis();
+        this.maxSize = settings.getAsInt(OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_SIZE,
+                DEFAULT_REJECTED_TOKEN_CACHE_MAX_SIZE);
+    }
+
+    /**
+     * @param token   The token of the request
+     * @return true if the token was recently rejected and is still blocked
+     */
+    public boolean isBlocked(final String token) {
+        if (!enabled || rejected.isEmpty()) {
+            return false;
+        }
+        Rejection rejection = rejected.get(UserProjectCacheEntry.digest(token));
+        if (rejection != null && System.currentTimeMillis() < rejection.until) {
+            blocked.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Block a token the master answered is not valid
+     *
+     * @param token    The rejected token
+     */
+    public void reject(final String token) {
+        if (!enabled) {
+            return;
+        }
+        rejections.incrementAndGet();
+        final String digest = UserProjectCacheEntry.digest(token);
+        Rejection rejection = rejected.get(digest);
+        if (rejection == null) {
+            if (rejected.size() >= maxSize) {
+                prune(System.currentTimeMillis());
+                if (rejected.size() >= maxSize) {
+                    LOGGER.debug("Not caching the rejected token. The cache is full");
+                    return;
+                }
+            }
+            Rejection created = new Rejection();
+            rejection = rejected.putIfAbsent(digest, created);
+            if (rejection == null) {
+                rejection = created;
+            }
+        }
+        final long blockFor = rejection.reject(backoff, maxBackoff);
+        LOGGER.debug("Blocking a rejected token for {} ms", blockFor);
+    }
+
+    /**
+     * Drop the tokens without a rejection for twice the maximum backoff. Tokens
+     * rejected since are still remembered so their backoff keeps growing
+     *
+     * @param now   The current time in millis
+     */
+    public void prune(final long now) {
+        for (Map.Entry<String, Rejection> entry : new ArrayList<>(rejected.entrySet())) {
+            if (now >= entry.getValue().until && now - entry.getValue().lastRejected > 2 * maxBackoff) {
+                rejected.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("rejected_tokens");
+        builder.field("enabled", enabled);
+        builder.field("size", rejected.size());
+        builder.field("rejections", rejections.get());
+        builder.field("blocked", blocked.get());
+        builder.endObject();
+        return builder;
+    }
+
+    private static class Rejection {
+
+        private int rejections;
+        private volatile long lastRejected;
+        private volatile long until;
+
+        /*
+         * @return the millis the token is blocked for
+         */
+        synchronized long reject(long backoff, long maxBackoff) {
+            rejections = Math.min(rejections + 1, 31);
+            final long blockFor = Math.min(maxBackoff, backoff << (rejections - 1));
+            lastRejected = System.currentTimeMillis();
+            until = lastRejected + blockFor;
+            return blockFor;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenShiftElasticSearchConfigurationException;
+
+/**
+ * Verifies service account tokens, which are RS256 signed JWTs, against the
+ * public keys the cluster signs them with so their user can be determined
+ * without asking the master. Tokens that are not service account JWTs or
+ * that can not be verified are left for the master to authenticate.
+ *
+ * Only tokens with an expiration are verified locally, and a verified token
+ * is trusted until it expires; a token of a service account that was deleted
+ * is accepted until then. Tokens without an expiration, like the legacy
+ * service account tokens, are left for the master so they can be revoked.
+ */
+public class ServiceAccountTokenVerifier implements ConfigurationSettings {
+
+    static final String CLAIM_NAMESPACE = "kubernetes.io/serviceaccount/namespace";
+    static final String CLAIM_SERVICE_ACCOUNT_NAME = "kubernetes.io/serviceaccount/service-account.name";
+    static final String SERVICE_ACCOUNT_USER_PREFIX = "system:serviceaccount:";
+
+    private static final ESLogger LOGGER = Loggers.getLogger(ServiceAccountTokenVerifier.class);
+    private static final String ALGORITHM = "RS256";
+
+    private final List<PublicKey> keys;
+    private final String issuer;
+
+    public ServiceAccountTokenVerifier(final Settings settings) {
+        this.issuer = settings.get(OPENSHIFT_SA_TOKEN_ISSUER, DEFAULT_SA_TOKEN_ISSUER);
+        List<PublicKey> loaded = new ArrayList<>();
+        for (String path : settings.getAsArray(OPENSHIFT_SA_TOKEN_PUBLIC_KEYS, new String[] {})) {
+            loaded.add(loadKey(path));
+        }
+        this.keys = Collections.unmodifiableList(loaded);
+        if (isEnabled()) {
+            LOGGER.info("Verifying service account tokens locally with {} public keys", keys.size());
+        }
+    }
+
+    public boolean isEnabled() {
+        return !keys.isEmpty();
+    }
+
+    private static PublicKey loadKey(String path) {
+        try {
+            String pem = FileUtils.readFileToString(new File(path), StandardCharsets.UTF_8.name());
+            String encoded = pem.replaceAll("-----(BEGIN|END) PUBLIC KEY-----", "").replaceAll("\\s", "");
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(Base64.decodeBase64(encoded)));
+        } catch (Exception e) {
+            throw new OpenShiftElasticSearchConfigurationException("Unable to load the service account public key " + path, e);
+        }
+    }
+
+    /**
+     * Verify the token locally
+     *
+     * @param token   The bearer token of a request
+     * @return the service account user (e.g. system:serviceaccount:logging:fluentd)
+     *         or null if the token must be authenticated by the master
+     */
+    @SuppressWarnings("rawtypes")
+    public String verify(final String token) {
+        if (!isEnabled() || StringUtils.isBlank(token)) {
+            return null;
+        }
+        final String[] parts = token.split("\\.");
+        if (parts.length != 3) {
+            return null;
+        }
+        try {
+            Map header = parse(parts[0]);
+            if (!ALGORITHM.equals(header.get("alg"))) {
+                return null;
+            }
+            Map claims = parse(parts[1]);
+            if (!issuer.equals(claims.get("iss"))) {
+                return null;
+            }
+            if (!(claims.get("exp") instanceof Number)) {
+                LOGGER.debug("The service account token does not expire");
+                return null;
+            }
+            if (((Number) claims.get("exp")).longValue() * 1000 <= System.currentTimeMillis()) {
+                LOGGER.debug("The service account token has expired");
+                return null;
+            }
+            Object namespace = claims.get(CLAIM_NAMESPACE);
+            Object name = claims.get(CLAIM_SERVICE_ACCOUNT_NAME);
+            if (!(namespace instanceof String) || !(name instanceof String)) {
+                return null;
+            }
+            if (!isSigned(parts)) {
+                LOGGER.debug("Unable to verify the signature of the service account token");
+                return null;
+            }
+            return SERVICE_ACCOUNT_USER_PREFIX + namespace + ":" + name;
+        } catch (Exception e) {
+            LOGGER.debug("Unable to verify the service account token locally", e);
+            return null;
+        }
+    }
+
+    private boolean isSigned(String[] parts) throws Exception {
+        final byte[] content = (parts[0] + "." + parts[1]).getBytes(StandardCharsets.US_ASCII);
+        final byte[] signature = Base64.decodeBase64(parts[2]);
+        for (PublicKey key : keys) {
+            Signature verifier = Signature.getInstance("SHA256withRSA");
+            verifier.initVerify(key);
+            verifier.update(content);
+            if (verifier.verify(signature)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<String, Object> parse(String part) {
+        return XContentHelper.convertToMap(new BytesArray(Base64.decodeBase64(part)), false).v2();
+    }
+}
@@ -31,15 +31,15 @@ import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
 public class IndexMappingLoader implements ConfigurationSettings {
 
     private static ESLogger logger = Loggers.getLogger(IndexMappingLoader.class);
-    private final String appMappingsTemplate;
-    private final String opsMappingsTemplate;
-    private final String emptyProjectMappingsTemplate;
+    private final IndexPatternTemplate appMappings;
+    private final IndexPatternTemplate opsMappings;
+    private final IndexPatternTemplate emptyProjectMappings;
 
     @Inject
     public IndexMappingLoader(final Settings settings) {
-        appMappingsTemplate = loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_APP);
-        opsMappingsTemplate = loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_OPERATIONS);
-        emptyProjectMappingsTemplate = loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_EMPTY);
+        appMappings = IndexPatternTemplate.compile(loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_APP));
+        opsMappings = IndexPatternTemplate.compile(loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_OPERATIONS));
+        emptyProjectMappings = IndexPatternTemplate.compile(loadMapping(settings, OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_EMPTY));
     }
     
     private String loadMapping(final Settings settings, final String key) {
@@ -56,15 +56,15 @@ public class IndexMappingLoader implements ConfigurationSettings {
         throw new RuntimeException("Unable to load index mapping for " + key + ".  The key was not in the settings or it specified a file that does not exists.");
     }
 
-    public String getApplicationMappingsTemplate() {
-        return appMappingsTemplate;
+    public IndexPatternTemplate getApplicationMappings() {
+        return appMappings;
     }
 
-    public String getOperationsMappingsTemplate() {
-        return opsMappingsTemplate;
+    public IndexPatternTemplate getOperationsMappings() {
+        return opsMappings;
     }
 
-    public String getEmptyProjectMappingsTemplate() {
-        return emptyProjectMappingsTemplate;
+    public IndexPatternTemplate getEmptyProjectMappings() {
+        return emptyProjectMappings;
     }
 }
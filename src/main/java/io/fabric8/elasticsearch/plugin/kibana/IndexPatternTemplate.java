@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+/**
+ * An index-pattern mapping template split once into its UTF-8 encoded
+ * literal segments around the '$TITLE$' placeholders. Rendering copies the
+ * segments and the JSON escaped title into a single array of the exact size.
+ */
+public class IndexPatternTemplate {
+
+    public static final String TITLE = "$TITLE$";
+
+    private final byte[][] segments;
+    private final int literalLength;
+
+    private IndexPatternTemplate(final byte[][] segments) {
+        this.segments = segments;
+        int length = 0;
+        for (byte[] segment : segments) {
+            length += segment.length;
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param template  The template where each '$TITLE$' appears inside a JSON string
+     * @return the compiled template or null when there is no template
+     */
+    public static IndexPatternTemplate compile(final String template) {
+        if (template == null) {
+            return null;
+        }
+        List<byte[]> segments = new ArrayList<>();
+        int start = 0;
+        int next;
+        while ((next = template.indexOf(TITLE, start)) >= 0) {
+            segments.add(template.substring(start, next).getBytes(StandardCharsets.UTF_8));
+            start = next + TITLE.length();
+        }
+        segments.add(template.substring(start).getBytes(StandardCharsets.UTF_8));
+        return new IndexPatternTemplate(segments.toArray(new byte[segments.size()][]));
+    }
+
+    /**
+     * @param title The title of the index-pattern
+     * @return the source of the index-pattern
+     */
+    public BytesReference render(final String title) {
+        final byte[] value = escape(title).getBytes(StandardCharsets.UTF_8);
+        final byte[] source = new byte[literalLength + value.length * (segments.length - 1)];
+        int offset = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                System.arraycopy(value, 0, source, offset, value.length);
+                offset += value.length;
+            }
+            System.arraycopy(segments[i], 0, source, offset, segments[i].length);
+            offset += segments[i].length;
+        }
+        return new BytesArray(source);
+    }
+
+    /*
+     * Escape a value for the inside of a JSON string. Values that need no
+     * escaping, like index patterns, are returned as is
+     */
+    static String escape(final String value) {
+        StringBuilder escaped = null;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            final String replacement;
+            switch (c) {
+            case '"':
+                replacement = "\\\"";
+                break;
+            case '\\':
+                replacement = "\\\\";
+                break;
+            case '\n':
+                replacement = "\\n";
+                break;
+            case '\r':
+                replacement = "\\r";
+                break;
+            case '\t':
+                replacement = "\\t";
+                break;
+            default:
+                replacement = c < 0x20 ? String.format("\\u%04x", (int) c) : null;
+            }
+            if (replacement != null && escaped == null) {
+                escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+            }
+            if (escaped != null) {
+                if (replacement != null) {
+                    escaped.append(replacement);
+                } else {
+                    escaped.append(c);
+                }
+            }
+        }
+        return escaped == null ? value : escaped.toString();
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache.SeedState;
+
+/**
+ * Watches the cluster state for created and deleted indices and seeds the
+ * users with a seeded state again when the first index of one of their
+ * projects is created or the last one is deleted, so their index-patterns
+ * follow the indices without each request looking for them. Only the
+ * affected users are seeded, on the seed pool, with the delta of their
+ * seeded state.
+ */
+public class KibanaIndexPatternWatcher implements ClusterStateListener, ConfigurationSettings, ToXContent {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(KibanaIndexPatternWatcher.class);
+
+    private final KibanaSeedStateCache seedStates;
+    private final KibanaSeedExecutor seeds;
+    private final Client client;
+    private final ThreadPool threadPool;
+    private final String kibanaIndexMode;
+    private final boolean enabled;
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong users = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    @Inject
+    public KibanaIndexPatternWatcher(final PluginSettings settings, final ClusterService clusterService,
+            final KibanaSeedStateCache seedStates, final KibanaSeedExecutor seeds, final Client client,
+            final ThreadPool threadPool) {
+        this.seedStates = seedStates;
+        this.seeds = seeds;
+        this.client = client;
+        this.threadPool = threadPool;
+        this.kibanaIndexMode = settings.getKibanaIndexMode();
+        this.enabled = settings.isKibanaSeedWatchIndices();
+        if (enabled) {
+            clusterService.add(this);
+        }
+    }
+
+    @Override
+    public void clusterChanged(final ClusterChangedEvent event) {
+        if (!event.metaDataChanged()) {
+            return;
+        }
+        final NavigableSet<String> created = new TreeSet<>(event.indicesCreated());
+        final NavigableSet<String> deleted = new TreeSet<>(event.indicesDeleted());
+        if (created.isEmpty() && deleted.isEmpty()) {
+            return;
+        }
+        events.incrementAndGet();
+        // matching the seeded states is left to the seed pool, off of the cluster state thread
+        try {
+            threadPool.executor(OPENSHIFT_SEED_THREAD_POOL).execute(new Runnable() {
+                @Override
+                public void run() {
+                    onIndicesChanged(created, deleted);
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            LOGGER.debug("The {} queue is full. Index-patterns are seeded on the next requests instead",
+                    OPENSHIFT_SEED_THREAD_POOL);
+            dropped.incrementAndGet();
+            seedStates.invalidateAll();
+        }
+    }
+
+    /*
+     * Seed the users with a project without an index-pattern that now has an
+     * index, or with an index-pattern for a project that lost an index.
+     * Whether it was the last one is left to the seeding
+     */
+    void onIndicesChanged(final NavigableSet<String> created, final NavigableSet<String> deleted) {
+        for (Map.Entry<SimpleImmutableEntry<String, String>, SeedState> entry : seedStates.getStates().entrySet()) {
+            final SeedState state = entry.getValue();
+            if (state.isOperationsUser()) {
+                continue;
+            }
+            if (anyHasIndex(state.getWithoutIndices(), created, state.getProjectPrefix())
+                    || anyHasIndex(state.getIndexPatterns(), deleted, state.getProjectPrefix())) {
+                final String kibanaIndex = entry.getKey().getKey();
+                final String user = entry.getKey().getValue();
+                LOGGER.debug("The indices of the projects of '{}' changed. Seeding the index-patterns", user);
+                users.incrementAndGet();
+                seeds.resubmit(new OpenshiftRequestContext(user, "", false, state.getProjects(), kibanaIndex,
+                        kibanaIndexMode), client, state.getKibanaVersion(), state.getProjectPrefix());
+            }
+        }
+    }
+
+    private static boolean anyHasIndex(final Collection<String> projects, final NavigableSet<String> indices,
+            final String projectPrefix) {
+        if (indices.isEmpty()) {
+            return false;
+        }
+        for (String project : projects) {
+            final String pattern = KibanaSeed.getIndexPattern(project, projectPrefix);
+            final String prefix = pattern.endsWith("*") ? pattern.substring(0, pattern.length() - 1) : pattern;
+            final String index = indices.ceiling(prefix);
+            if (index != null && index.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("kibana_index_watch");
+        builder.field("enabled", enabled);
+        builder.field("events", events.get());
+        builder.field("users", users.get());
+        builder.field("dropped", dropped.get());
+        builder.endObject();
+        return builder;
+    }
+}
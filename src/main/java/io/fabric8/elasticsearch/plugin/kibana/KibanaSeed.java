@@ -17,27 +17,36 @@
 package io.fabric8.elasticsearch.plugin.kibana;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 
 import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.transport.RemoteTransportException;
 
 import com.floragunn.searchguard.support.ConfigConstants;
@@ -46,6 +55,7 @@ import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
 import io.fabric8.elasticsearch.plugin.PluginClient;
 import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache.SeedState;
 
 public class KibanaSeed implements ConfigurationSettings {
 
@@ -56,6 +66,8 @@ public class KibanaSeed implements ConfigurationSettings {
     private static final String OPERATIONS_PROJECT = ".operations";
     private static final String BLANK_PROJECT = ".empty-project";
     private static final String ADMIN_ALIAS_NAME = ".all";
+    private static final int INDEX_PATTERN_PAGE_SIZE = 500;
+    private static final TimeValue INDEX_PATTERN_SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
     private static final ESLogger LOGGER = Loggers.getLogger(KibanaSeed.class);
 
     public static final String DEFAULT_INDEX_FIELD = "defaultIndex";
@@ -64,16 +76,46 @@ public class KibanaSeed implements ConfigurationSettings {
     private final PluginClient pluginClient;
     private final String defaultKibanaIndex;
     private final PluginSettings settings;
+    private final KibanaSeedStateCache seedStates;
 
     @Inject
-    public KibanaSeed(final PluginSettings settings, final IndexMappingLoader loader, final PluginClient pluginClient)  {
+    public KibanaSeed(final PluginSettings settings, final IndexMappingLoader loader, final PluginClient pluginClient,
+            final KibanaSeedStateCache seedStates)  {
         this.mappingLoader = loader;
         this.pluginClient = pluginClient;
         this.defaultKibanaIndex = settings.getDefaultKibanaIndex();
         this.settings = settings;
+        this.seedStates = seedStates;
     }
     
     public void setDashboards(final OpenshiftRequestContext context, Client client, String kibanaVersion, final String projectPrefix) {
+        setDashboards(context, client, kibanaVersion, projectPrefix, false);
+    }
+
+    /**
+     * Seed the Kibana index of a user
+     *
+     * @param indicesChanged   Whether indices of the user's projects were created or deleted
+     *                         since it was last seeded, so the index-patterns are checked
+     *                         even if the projects are the same
+     */
+    public void setDashboards(final OpenshiftRequestContext context, Client client, String kibanaVersion, final String projectPrefix,
+            final boolean indicesChanged) {
+        SeedState state = seedStates.get(context.getKibanaIndex(), context.getUser());
+        if (state != null && state.isSeededLike(kibanaVersion, projectPrefix, context.isOperationsUser())) {
+            if (context.isOperationsUser() || state.hasProjects(context.getProjects()) && !indicesChanged
+                    && !hasNewIndices(state, projectPrefix)) {
+                LOGGER.debug("Kibana index '{}' is seeded for user '{}'. Skipping Kibana seeding", context.getKibanaIndex(),
+                        context.getUser());
+                seedStates.recordSkipped();
+                return;
+            }
+            seedStates.recordDelta();
+            BulkRequest bulk = new BulkRequest();
+            seedUsersIndexPatternsDelta(context, state, bulk, kibanaVersion, projectPrefix);
+            execute(context, bulk);
+            return;
+        }
         if(!pluginClient.indexExists(defaultKibanaIndex)) {
             LOGGER.debug("Default Kibana index '{}' does not exist. Skipping Kibana seeding", defaultKibanaIndex);
             return;
@@ -84,123 +126,178 @@ public class KibanaSeed implements ConfigurationSettings {
         // We want to seed the Kibana user index initially
         // since the logic from Kibana has changed to create before this plugin
         // starts...
-        boolean changed = initialSeedKibanaIndex(context, client);
+        initialSeedKibanaIndex(context, client);
         
+        // every change is sent as one bulk request, refreshed once it is applied
+        BulkRequest bulk = new BulkRequest();
+        seedStates.recordFull();
         if (context.isOperationsUser()) {
-            changed = seedOperationsIndexPatterns(context, client, kibanaVersion, projectPrefix);
+            seedOperationsIndexPatterns(context, bulk, kibanaVersion, projectPrefix);
+            seedStates.put(context.getKibanaIndex(), context.getUser(), new SeedState(kibanaVersion, projectPrefix, true,
+                    context.getProjects(), new TreeSet<String>(), new TreeSet<String>(), null));
         } else {
-            changed = seedUsersIndexPatterns(context, client, kibanaVersion, projectPrefix);
+            seedUsersIndexPatterns(context, client, bulk, kibanaVersion, projectPrefix);
         }
+        execute(context, bulk);
+    }
 
-        if ( changed ) {
-            pluginClient.refreshIndices(context.getKibanaIndex());
+    private void execute(final OpenshiftRequestContext context, final BulkRequest bulk) {
+        if (bulk.numberOfActions() == 0) {
+            return;
+        }
+        bulk.refresh(true);
+        BulkResponse response = pluginClient.bulk(bulk);
+        if (response.hasFailures()) {
+            LOGGER.error("Unable to seed the Kibana index '{}': {}", context.getKibanaIndex(), response.buildFailureMessage());
+            seedStates.invalidate(context.getKibanaIndex(), context.getUser());
         }
     }
 
-    private boolean seedOperationsIndexPatterns(final OpenshiftRequestContext context, final  Client client, String kibanaVersion, final String projectPrefix) {
-        boolean changed = false;
+    private void seedOperationsIndexPatterns(final OpenshiftRequestContext context, final BulkRequest bulk, String kibanaVersion, final String projectPrefix) {
         boolean defaultSet = false;
+        Set<String> existing = pluginClient.documentsExist(context.getKibanaIndex(), INDICIES_TYPE, settings.getKibanaOpsIndexPatterns());
         for (String pattern : settings.getKibanaOpsIndexPatterns()) {
-            if(!pluginClient.documentExists(context.getKibanaIndex(), INDICIES_TYPE, pattern)) {
+            if(!existing.contains(pattern)) {
                 LOGGER.trace("Creating index-pattern '{}'", pattern);
-                String source = StringUtils.replace(mappingLoader.getOperationsMappingsTemplate(), "$TITLE$", pattern);
-                pluginClient.createDocument(context.getKibanaIndex(), INDICIES_TYPE, pattern, source);
+                BytesReference source = mappingLoader.getOperationsMappings().render(pattern);
+                bulk.add(new IndexRequest(context.getKibanaIndex(), INDICIES_TYPE, pattern).source(source));
                 if (!defaultSet) {
                     try {
                         String update = XContentFactory.jsonBuilder()
                                 .startObject()
                                     .field(KibanaSeed.DEFAULT_INDEX_FIELD, pattern)
                                  .endObject().string();
-                        pluginClient.update(context.getKibanaIndex(), DEFAULT_INDEX_TYPE, kibanaVersion, update);
+                        bulk.add(newDefaultIndexUpdate(context.getKibanaIndex(), kibanaVersion, update));
                         defaultSet = true;
                     } catch (IOException e) {
                         LOGGER.error("Unable to set default index-pattern", e);
                     }
                 }
-                changed = true;
             }
         }
-        return changed;
     }
     
-    private boolean seedUsersIndexPatterns(final OpenshiftRequestContext context, final  Client client,  final String kibanaVersion, final String projectPrefix) {
-        boolean changed = false;
+    private void seedUsersIndexPatterns(final OpenshiftRequestContext context, final  Client client, final BulkRequest bulk,
+            final String kibanaVersion, final String projectPrefix) {
         // GET .../.kibana/index-pattern/_search?pretty=true&fields=
         // compare results to projects; handle any deltas (create, delete?)
         Set<String> indexPatterns = getProjectNamesFromIndexes(context, client, projectPrefix);
         LOGGER.debug("Found '{}' Index patterns for user", indexPatterns.size());
 
-        Set<String> projects = new HashSet<>(context.getProjects());
-        List<String> filteredProjects = new ArrayList<String>(filterProjectsWithIndices(projectPrefix, projects));
+        Set<String> projects = context.getProjects();
+        SortedSet<String> filteredProjects = new TreeSet<String>();
+        SortedSet<String> withoutIndices = new TreeSet<String>();
+        for (String project : projects) {
+            if (pluginClient.indexExists(getIndexPattern(project, projectPrefix))) {
+                filteredProjects.add(project);
+            } else {
+                withoutIndices.add(project);
+            }
+        }
         LOGGER.debug("projects for '{}' that have existing indexes: '{}'", context.getUser(), filteredProjects);
         
         if (filteredProjects.isEmpty()) {
             filteredProjects.add(BLANK_PROJECT);
         }
         
-        Collections.sort(filteredProjects);
-        
+        String defaultIndex;
         // If none have been set yet
         if (indexPatterns.isEmpty()) {
-            create(context.getKibanaIndex(), filteredProjects, true, client, kibanaVersion, projectPrefix, indexPatterns);
-            changed = true;
+            create(context.getKibanaIndex(), filteredProjects, true, bulk, kibanaVersion, projectPrefix);
+            defaultIndex = filteredProjects.first();
         } else {
             
-            List<String> common = new ArrayList<String>(indexPatterns);
-
-            common.retainAll(filteredProjects);
-
-            filteredProjects.removeAll(common);
-            indexPatterns.removeAll(common);
+            SortedSet<String> toCreate = new TreeSet<String>(filteredProjects);
+            toCreate.removeAll(indexPatterns);
+            Set<String> toDelete = new HashSet<String>(indexPatterns);
+            toDelete.removeAll(filteredProjects);
 
             // if we aren't a cluster-admin, make sure we're deleting the
             // ADMIN_ALIAS_NAME
             if (!context.isOperationsUser()) {
                 LOGGER.debug("user is not a cluster admin, ensure they don't keep/have the admin alias pattern");
-                indexPatterns.add(ADMIN_ALIAS_NAME);
-            }
-
-            // check if we're going to be adding or removing any projects
-            if (!filteredProjects.isEmpty() || !indexPatterns.isEmpty()) {
-                changed = true;
+                toDelete.add(ADMIN_ALIAS_NAME);
             }
 
             // for any to create (remaining in projects) call createIndices, createSearchmapping?, create dashboard
-            create(context.getKibanaIndex(), filteredProjects, false, client, kibanaVersion, projectPrefix, indexPatterns);
+            create(context.getKibanaIndex(), toCreate, false, bulk, kibanaVersion, projectPrefix);
 
             // cull any that are in ES but not in OS (remaining in indexPatterns)
-            remove(context.getKibanaIndex(), indexPatterns, client, projectPrefix);
+            remove(context.getKibanaIndex(), toDelete, bulk, projectPrefix);
 
-            common.addAll(filteredProjects);
-            Collections.sort(common);
             // Set default index to first index in common if we removed the default
-            String defaultIndex = getDefaultIndex(context, client, kibanaVersion, projectPrefix);
+            defaultIndex = getDefaultIndex(context, client, kibanaVersion, projectPrefix);
 
-            LOGGER.debug("Checking if index patterns '{}' contain default index '{}'", indexPatterns, defaultIndex);
+            LOGGER.debug("Checking if index patterns '{}' contain default index '{}'", toDelete, defaultIndex);
 
-            if ( indexPatterns.contains(defaultIndex) || StringUtils.isEmpty(defaultIndex) ) {
-                LOGGER.debug("'{}' does contain '{}' and common size is {}", indexPatterns, defaultIndex, common.size());
-                if ( !common.isEmpty() ) {
-                    setDefaultIndex(context.getKibanaIndex(), common.get(0), client, kibanaVersion, projectPrefix);
-                }
+            if ( toDelete.contains(defaultIndex) || StringUtils.isEmpty(defaultIndex) ) {
+                LOGGER.debug("'{}' does contain '{}' and common size is {}", toDelete, defaultIndex, filteredProjects.size());
+                defaultIndex = filteredProjects.first();
+                setDefaultIndex(context.getKibanaIndex(), defaultIndex, bulk, kibanaVersion, projectPrefix);
             }
         }
-        return changed;
+        seedStates.put(context.getKibanaIndex(), context.getUser(), new SeedState(kibanaVersion, projectPrefix, false,
+                projects, filteredProjects, withoutIndices, defaultIndex));
     }
 
     /*
-     * Given a list of projects, filter out those which do not have any
-     * index associated with it
+     * Apply only the difference between the projects of the user with indices
+     * and the index-patterns seeded last, without reading the Kibana index
      */
-    private List<String> filterProjectsWithIndices(final String projectPrefix, Set<String> projects){
-        List<String> result = new ArrayList<>(projects.size());
+    private void seedUsersIndexPatternsDelta(final OpenshiftRequestContext context, final SeedState state,
+            final BulkRequest bulk, final String kibanaVersion, final String projectPrefix) {
+        Set<String> projects = context.getProjects();
+        SortedSet<String> filteredProjects = new TreeSet<String>();
+        SortedSet<String> withoutIndices = new TreeSet<String>();
         for (String project : projects) {
-            String index = getIndexPattern(project, projectPrefix);
-            if (pluginClient.indexExists(index)) {
-                result.add(project);
+            if (pluginClient.indexExists(getIndexPattern(project, projectPrefix))) {
+                filteredProjects.add(project);
+            } else {
+                withoutIndices.add(project);
             }
         }
-        return result;
+        if (filteredProjects.isEmpty()) {
+            filteredProjects.add(BLANK_PROJECT);
+        }
+
+        SortedSet<String> toCreate = new TreeSet<String>(filteredProjects);
+        toCreate.removeAll(state.getIndexPatterns());
+        SortedSet<String> toDelete = new TreeSet<String>(state.getIndexPatterns());
+        toDelete.removeAll(filteredProjects);
+        LOGGER.debug("Seeding the changed projects of '{}'. Creating '{}', deleting '{}'", context.getUser(), toCreate,
+                toDelete);
+
+        create(context.getKibanaIndex(), toCreate, false, bulk, kibanaVersion, projectPrefix);
+        remove(context.getKibanaIndex(), toDelete, bulk, projectPrefix);
+
+        String defaultIndex = state.getDefaultIndex();
+        if (toDelete.contains(defaultIndex)) {
+            defaultIndex = filteredProjects.first();
+            setDefaultIndex(context.getKibanaIndex(), defaultIndex, bulk, kibanaVersion, projectPrefix);
+        }
+        seedStates.put(context.getKibanaIndex(), context.getUser(), new SeedState(kibanaVersion, projectPrefix, false,
+                projects, filteredProjects, withoutIndices, defaultIndex));
+    }
+
+    /*
+     * Whether indices were created for the projects without an index-pattern.
+     * With the index watch the seeding is resubmitted when they are, so they
+     * are not looked for on each request
+     */
+    private boolean hasNewIndices(final SeedState state, final String projectPrefix) {
+        if (settings.isKibanaSeedWatchIndices()) {
+            return false;
+        }
+        return anyHasIndices(state.getWithoutIndices(), projectPrefix);
+    }
+
+    private boolean anyHasIndices(final Collection<String> projects, final String projectPrefix) {
+        for (String project : projects) {
+            if (pluginClient.indexExists(getIndexPattern(project, projectPrefix))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private boolean initialSeedKibanaIndex(final OpenshiftRequestContext context, Client esClient) {
@@ -224,13 +321,18 @@ public class KibanaSeed implements ConfigurationSettings {
     }
 
     // this may return other than void later...
-    private void setDefaultIndex(String kibanaIndex, String project, Client esClient,
+    private void setDefaultIndex(String kibanaIndex, String project, BulkRequest bulk,
             String kibanaVersion, String projectPrefix) {
         // this will create a default index of [index.]YYYY.MM.DD in
         // .kibana.username
         String source = new DocumentBuilder().defaultIndex(getIndexPattern(project, projectPrefix)).build();
 
-        pluginClient.update(kibanaIndex, DEFAULT_INDEX_TYPE, kibanaVersion, source);
+        bulk.add(newDefaultIndexUpdate(kibanaIndex, kibanaVersion, source));
+    }
+
+    private UpdateRequest newDefaultIndexUpdate(String kibanaIndex, String kibanaVersion, String source) {
+        LOGGER.debug("UPDATE: '{}/{}/{}' source: '{}'", kibanaIndex, DEFAULT_INDEX_TYPE, kibanaVersion, source);
+        return new UpdateRequest(kibanaIndex, DEFAULT_INDEX_TYPE, kibanaVersion).doc(source).docAsUpsert(true);
     }
     
     private String getDefaultIndex(OpenshiftRequestContext context, Client esClient, String kibanaVersion, String projectPrefix) {
@@ -268,45 +370,51 @@ public class KibanaSeed implements ConfigurationSettings {
         return "";
     }
 
-    private void create(String kibanaIndex, List<String> projects, boolean setDefault, Client esClient,
-            String kibanaVersion, String projectPrefix, Set<String> indexPatterns) {
+    private void create(String kibanaIndex, Collection<String> projects, boolean setDefault, BulkRequest bulk,
+            String kibanaVersion, String projectPrefix) {
         boolean defaultSet = !setDefault;
         LOGGER.trace("Creating index-patterns for projects: '{}'", projects);
         for (String project : projects) {
-            if(indexPatterns.contains(project)) { //no need to update
-                LOGGER.trace("Skipping creation of index-pattern for project '{}'. It already exists.", project);
-                continue;
-            }
-            createIndexPattern(kibanaIndex, project, esClient, projectPrefix);
+            createIndexPattern(kibanaIndex, project, bulk, projectPrefix);
 
             // set default
             if (!defaultSet) {
-                setDefaultIndex(kibanaIndex, project, esClient, kibanaVersion, projectPrefix);
+                setDefaultIndex(kibanaIndex, project, bulk, kibanaVersion, projectPrefix);
                 defaultSet = true;
             }
         }
     }
     
 
-    private void remove(String kibanaIndex, Set<String> projects, Client esClient, String projectPrefix) {
+    private void remove(String kibanaIndex, Set<String> projects, BulkRequest bulk, String projectPrefix) {
 
         for (String project : projects) {
-            deleteIndex(kibanaIndex, project, esClient, projectPrefix);
+            deleteIndex(kibanaIndex, project, bulk, projectPrefix);
         }
     }
 
+    /*
+     * List the ids of the index-patterns a page at a time with a scroll,
+     * without their source, so every pattern is seen whatever their number
+     */
     private Set<String> getProjectNamesFromIndexes(OpenshiftRequestContext context, Client esClient, String projectPrefix) {
 
         Set<String> patterns = new HashSet<String>();
 
         SearchRequest request = esClient.prepareSearch(context.getKibanaIndex()).setTypes(INDICIES_TYPE)
+                .setFetchSource(false)
+                .setSize(INDEX_PATTERN_PAGE_SIZE)
+                .setScroll(INDEX_PATTERN_SCROLL_KEEP_ALIVE)
+                .addSort("_doc", SortOrder.ASC)
                 .putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true")
                 .request();
 
+        String scrollId = null;
         try {
             SearchResponse response = esClient.search(request).get();
+            scrollId = response.getScrollId();
 
-            if (response.getHits() != null && response.getHits().getTotalHits() > 0) {
+            while (response.getHits() != null && response.getHits().getHits().length > 0) {
                 for (SearchHit hit : response.getHits().getHits()) {
                     String id = hit.getId();
                     String project = getProjectFromIndex(id, projectPrefix);
@@ -317,6 +425,15 @@ public class KibanaSeed implements ConfigurationSettings {
 
                     // else -> this is user created, leave it alone
                 }
+                if (response.getHits().getHits().length < INDEX_PATTERN_PAGE_SIZE || scrollId == null) {
+                    break;
+                }
+                SearchScrollRequest scroll = esClient.prepareSearchScroll(scrollId)
+                        .setScroll(INDEX_PATTERN_SCROLL_KEEP_ALIVE)
+                        .putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true")
+                        .request();
+                response = esClient.searchScroll(scroll).get();
+                scrollId = response.getScrollId();
             }
 
         } catch (InterruptedException | ExecutionException e) {
@@ -327,50 +444,54 @@ public class KibanaSeed implements ConfigurationSettings {
             } else {
                 LOGGER.error("Error getting index patterns for {}", e, context.getUser());
             }
+        } finally {
+            clearScroll(esClient, scrollId);
         }
 
         return patterns;
     }
 
-    private void createIndexPattern(String kibanaIndex, String project, Client esClient, String projectPrefix) {
+    private void clearScroll(Client esClient, String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest request = esClient.prepareClearScroll().addScrollId(scrollId)
+                .putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true")
+                .request();
+        esClient.clearScroll(request);
+    }
+
+    private void createIndexPattern(String kibanaIndex, String project, BulkRequest bulk, String projectPrefix) {
 
         final String indexPattern = getIndexPattern(project, projectPrefix);
-        String source;
+        IndexPatternTemplate template;
         if (project.equalsIgnoreCase(BLANK_PROJECT)) {
-            source = mappingLoader.getEmptyProjectMappingsTemplate();
+            template = mappingLoader.getEmptyProjectMappings();
         } else {
-            source = mappingLoader.getApplicationMappingsTemplate();
+            template = mappingLoader.getApplicationMappings();
         }
 
-        if (source != null) {
+        if (template != null) {
             LOGGER.trace("Creating index-pattern for project '{}'", project);
-            source = source.replaceAll("$TITLE$", indexPattern);
-            pluginClient.createDocument(kibanaIndex, INDICIES_TYPE, indexPattern, source);
+            bulk.add(new IndexRequest(kibanaIndex, INDICIES_TYPE, indexPattern).source(template.render(indexPattern)));
         } else {
             LOGGER.debug("The source for the index mapping is null.  Skipping trying to create index pattern {}", indexPattern);
         }
     }
 
-    private void deleteIndex(String kibanaIndex, String project, Client esClient, String projectPrefix) {
+    private void deleteIndex(String kibanaIndex, String project, BulkRequest bulk, String projectPrefix) {
 
-        executeDelete(kibanaIndex, INDICIES_TYPE, getIndexPattern(project, projectPrefix), esClient);
+        executeDelete(kibanaIndex, INDICIES_TYPE, getIndexPattern(project, projectPrefix), bulk);
     }
 
-    private void executeDelete(String index, String type, String id, Client esClient) {
+    private void executeDelete(String index, String type, String id, BulkRequest bulk) {
 
         LOGGER.debug("DELETE: '{}/{}/{}'", index, type, id);
 
-        DeleteRequest request = esClient.prepareDelete(index, type, id).request();
-        request.putHeader(ConfigConstants.SG_CONF_REQUEST_HEADER, "true");
-        try {
-            esClient.delete(request).get();
-        } catch (InterruptedException | ExecutionException e) {
-            // Avoid printing out any kibana specific information?
-            LOGGER.error("Error executing delete request", e);
-        }
+        bulk.add(new DeleteRequest(index, type, id));
     }
 
-    private String getIndexPattern(String project, String projectPrefix) {
+    static String getIndexPattern(String project, String projectPrefix) {
 
         if (project.startsWith(ADMIN_ALIAS_NAME)) {
             return project;
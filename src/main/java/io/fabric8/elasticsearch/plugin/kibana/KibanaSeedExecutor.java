@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginClient;
+
+/**
+ * Runs Kibana seeding on the seed pool. The seeding of a user runs one at a
+ * time. While it runs, one more seeding is queued for the user, and later
+ * submissions replace its arguments so it seeds the latest projects. Whether
+ * the indices of the user's projects changed is kept by the queued seeding,
+ * so it is not lost to the seed state a running seeding replaces.
+ */
+public class KibanaSeedExecutor implements ConfigurationSettings, ToXContent {
+
+    private static final ESLogger LOGGER = Loggers.getLogger(KibanaSeedExecutor.class);
+
+    private final KibanaSeed seed;
+    private final PluginClient pluginClient;
+    private final ThreadPool threadPool;
+    private final boolean async;
+    private final long awaitTimeout;
+    private final Map<SimpleImmutableEntry<String, String>, UserJobs> users = new HashMap<>();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+    private final AtomicLong awaited = new AtomicLong();
+
+    @Inject
+    public KibanaSeedExecutor(final Settings settings, final KibanaSeed seed, final PluginClient pluginClient,
+            final ThreadPool threadPool) {
+        this.seed = seed;
+        this.pluginClient = pluginClient;
+        this.threadPool = threadPool;
+        this.async = settings.getAsBoolean(OPENSHIFT_KIBANA_SEED_ASYNC_ENABLED, DEFAULT_KIBANA_SEED_ASYNC_ENABLED);
+        this.awaitTimeout = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT, DEFAULT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT), null,
+                OPENSHIFT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT).millis();
+    }
+
+    /**
+     * Seed the Kibana index of the user of a context
+     *
+     * @return the job that will seed the index, which may be shared with
+     *         other submissions for the user
+     */
+    public SeedJob submit(final OpenshiftRequestContext context, final Client client, final String kibanaVersion,
+            final String projectPrefix) {
+        submitted.incrementAndGet();
+        if (!async) {
+            SeedJob job = new SeedJob(context, client, kibanaVersion, projectPrefix);
+            job.run();
+            return job;
+        }
+        final SimpleImmutableEntry<String, String> key = new SimpleImmutableEntry<>(context.getKibanaIndex(),
+                context.getUser());
+        final SeedJob job;
+        synchronized (users) {
+            UserJobs jobs = users.get(key);
+            if (jobs == null) {
+                jobs = new UserJobs();
+                users.put(key, jobs);
+            }
+            if (jobs.pending != null) {
+                coalesced.incrementAndGet();
+                jobs.pending.supersede(context, client, kibanaVersion, projectPrefix);
+                return jobs.pending;
+            }
+            job = new SeedJob(context, client, kibanaVersion, projectPrefix);
+            if (jobs.running != null) {
+                jobs.pending = job;
+                return job;
+            }
+            jobs.running = job;
+        }
+        execute(key, job);
+        return job;
+    }
+
+    /**
+     * Seed the Kibana index of a user again after the indices of its projects
+     * changed. A seeding already queued for the user picks up the change and
+     * one that is running is followed by another with the same arguments, so
+     * the given context, which may be older, only seeds an idle user
+     */
+    public void resubmit(final OpenshiftRequestContext context, final Client client, final String kibanaVersion,
+            final String projectPrefix) {
+        submitted.incrementAndGet();
+        if (!async) {
+            SeedJob job = new SeedJob(context, client, kibanaVersion, projectPrefix);
+            job.markIndicesChanged();
+            job.run();
+            return;
+        }
+        final SimpleImmutableEntry<String, String> key = new SimpleImmutableEntry<>(context.getKibanaIndex(),
+                context.getUser());
+        final SeedJob job;
+        synchronized (users) {
+            UserJobs jobs = users.get(key);
+            if (jobs != null) {
+                if (jobs.pending == null) {
+                    jobs.pending = jobs.running.copy();
+                } else {
+                    coalesced.incrementAndGet();
+                }
+                jobs.pending.markIndicesChanged();
+                return;
+            }
+            jobs = new UserJobs();
+            users.put(key, jobs);
+            job = new SeedJob(context, client, kibanaVersion, projectPrefix);
+            job.markIndicesChanged();
+            jobs.running = job;
+        }
+        execute(key, job);
+    }
+
+    /**
+     * Wait for a job when the Kibana index of its user does not exist yet,
+     * so the first requests of a new user find their index
+     */
+    public void awaitKibanaIndex(final OpenshiftRequestContext context, final SeedJob job) {
+        if (job.isDone() || pluginClient.indexExists(context.getKibanaIndex())) {
+            return;
+        }
+        awaited.incrementAndGet();
+        try {
+            if (!job.await(awaitTimeout)) {
+                LOGGER.debug("Continuing without the Kibana index of '{}'. Seeding did not complete within {} ms",
+                        context.getUser(), awaitTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void execute(final SimpleImmutableEntry<String, String> key, final SeedJob job) {
+        try {
+            threadPool.executor(OPENSHIFT_SEED_THREAD_POOL).execute(new Runnable() {
+                @Override
+                public void run() {
+                    runAndContinue(key, job);
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            LOGGER.debug("The {} queue is full. Seeding on the calling thread", OPENSHIFT_SEED_THREAD_POOL);
+            callerRuns.incrementAndGet();
+            runAndContinue(key, job);
+        }
+    }
+
+    private void runAndContinue(final SimpleImmutableEntry<String, String> key, final SeedJob job) {
+        try {
+            job.run();
+        } finally {
+            final SeedJob next;
+            synchronized (users) {
+                UserJobs jobs = users.get(key);
+                next = jobs.pending;
+                jobs.pending = null;
+                jobs.running = next;
+                if (next == null) {
+                    users.remove(key);
+                }
+            }
+            if (next != null) {
+                execute(key, next);
+            }
+        }
+    }
+
+    int getQueuedUsers() {
+        synchronized (users) {
+            return users.size();
+        }
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("kibana_seed");
+        builder.field("async", async);
+        builder.field("users", getQueuedUsers());
+        builder.field("submitted", submitted.get());
+        builder.field("coalesced", coalesced.get());
+        builder.field("caller_runs", callerRuns.get());
+        builder.field("awaited", awaited.get());
+        builder.endObject();
+        return builder;
+    }
+
+    private static class UserJobs {
+        private SeedJob running;
+        private SeedJob pending;
+    }
+
+    /**
+     * One seeding of a user's Kibana index
+     */
+    public class SeedJob {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private OpenshiftRequestContext context;
+        private Client client;
+        private String kibanaVersion;
+        private String projectPrefix;
+        private boolean indicesChanged;
+
+        SeedJob(final OpenshiftRequestContext context, final Client client, final String kibanaVersion,
+                final String projectPrefix) {
+            supersede(context, client, kibanaVersion, projectPrefix);
+        }
+
+        private synchronized void supersede(final OpenshiftRequestContext context, final Client client,
+                final String kibanaVersion, final String projectPrefix) {
+            this.context = context;
+            this.client = client;
+            this.kibanaVersion = kibanaVersion;
+            this.projectPrefix = projectPrefix;
+        }
+
+        private synchronized SeedJob copy() {
+            return new SeedJob(context, client, kibanaVersion, projectPrefix);
+        }
+
+        /*
+         * Check the index-patterns of the user even if its projects are the
+         * same. Later submissions keep this
+         */
+        private synchronized void markIndicesChanged() {
+            this.indicesChanged = true;
+        }
+
+        private void run() {
+            final OpenshiftRequestContext context;
+            final Client client;
+            final String kibanaVersion;
+            final String projectPrefix;
+            final boolean indicesChanged;
+            synchronized (this) {
+                context = this.context;
+                client = this.client;
+                kibanaVersion = this.kibanaVersion;
+                projectPrefix = this.projectPrefix;
+                indicesChanged = this.indicesChanged;
+            }
+            try {
+                seed.setDashboards(context, client, kibanaVersion, projectPrefix, indicesChanged);
+            } catch (Exception e) {
+                LOGGER.error("Error seeding the Kibana index of '{}'", e, context.getUser());
+            } finally {
+                done.countDown();
+            }
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        /**
+         * @return true if the job completed within the timeout
+         */
+        public boolean await(final long millis) throws InterruptedException {
+            return done.await(millis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
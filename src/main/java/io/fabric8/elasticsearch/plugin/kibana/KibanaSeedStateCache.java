@@ -0,0 +1,220 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import java.io.IOException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+/**
+ * What was last seeded into the Kibana index of each user, keyed by Kibana
+ * index and user, so {@link KibanaSeed} can tell without reading the index
+ * whether anything needs to be seeded.
+ */
+public class KibanaSeedStateCache implements ConfigurationSettings, ToXContent {
+
+    private final boolean enabled;
+    private final long expire;
+    private final int maxSize;
+    private final Map<SimpleImmutableEntry<String, String>, SeedState> states = new ConcurrentHashMap<>();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong deltas = new AtomicLong();
+    private final AtomicLong full = new AtomicLong();
+
+    @Inject
+    public KibanaSeedStateCache(final Settings settings) {
+        this.enabled = settings.getAsBoolean(OPENSHIFT_KIBANA_SEED_STATE_ENABLED, DEFAULT_KIBANA_SEED_STATE_ENABLED);
+        this.expire = TimeValue.parseTimeValue(
+                settings.get(OPENSHIFT_KIBANA_SEED_STATE_EXPIRE, DEFAULT_KIBANA_SEED_STATE_EXPIRE), null,
+                OPENSHIFT_KIBANA_SEED_STATE_EXPIRE).millis();
+        this.maxSize = settings.getAsInt(OPENSHIFT_KIBANA_SEED_STATE_MAX_SIZE, DEFAULT_KIBANA_SEED_STATE_MAX_SIZE);
+    }
+
+    /**
+     * @return the state last seeded for the user or null when unknown or expired
+     */
+    public SeedState get(final String kibanaIndex, final String user) {
+        if (!enabled) {
+            return null;
+        }
+        SimpleImmutableEntry<String, String> key = new SimpleImmutableEntry<>(kibanaIndex, user);
+        SeedState state = states.get(key);
+        if (state != null && System.currentTimeMillis() - state.seeded > expire) {
+            states.remove(key, state);
+            return null;
+        }
+        return state;
+    }
+
+    public void put(final String kibanaIndex, final String user, final SeedState state) {
+        if (!enabled) {
+            return;
+        }
+        if (states.size() >= maxSize) {
+            prune(System.currentTimeMillis());
+            if (states.size() >= maxSize) {
+                return;
+            }
+        }
+        states.put(new SimpleImmutableEntry<>(kibanaIndex, user), state);
+    }
+
+    /**
+     * @return a view of the remembered states keyed by Kibana index and user
+     */
+    public Map<SimpleImmutableEntry<String, String>, SeedState> getStates() {
+        return Collections.unmodifiableMap(states);
+    }
+
+    public void invalidate(final String kibanaIndex, final String user) {
+        states.remove(new SimpleImmutableEntry<>(kibanaIndex, user));
+    }
+
+    public void invalidateAll() {
+        states.clear();
+    }
+
+    /**
+     * Drop the expired states
+     *
+     * @param now   The current time in millis
+     */
+    public void prune(final long now) {
+        for (Map.Entry<SimpleImmutableEntry<String, String>, SeedState> entry : new ArrayList<>(states.entrySet())) {
+            if (now - entry.getValue().seeded > expire) {
+                states.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    void recordSkipped() {
+        skipped.incrementAndGet();
+    }
+
+    void recordDelta() {
+        deltas.incrementAndGet();
+    }
+
+    void recordFull() {
+        full.incrementAndGet();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject("kibana_seed_state");
+        builder.field("enabled", enabled);
+        builder.field("size", states.size());
+        builder.field("skipped", skipped.get());
+        builder.field("deltas", deltas.get());
+        builder.field("full", full.get());
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The projects of a user as last seeded
+     */
+    public static class SeedState {
+
+        private final String kibanaVersion;
+        private final String projectPrefix;
+        private final boolean operationsUser;
+        private final Set<String> projects;
+        private final SortedSet<String> indexPatterns;
+        private final SortedSet<String> withoutIndices;
+        private final String defaultIndex;
+        private final long seeded = System.currentTimeMillis();
+
+        /**
+         * @param kibanaVersion     The Kibana version the config document was seeded for
+         * @param projectPrefix     The project prefix of the index-patterns
+         * @param operationsUser    Whether the operations index-patterns were seeded
+         * @param projects          The projects of the user
+         * @param indexPatterns     The projects with an index-pattern
+         * @param withoutIndices    The projects without an index-pattern because they have no indices yet
+         * @param defaultIndex      The project of the default index-pattern
+         */
+        public SeedState(String kibanaVersion, String projectPrefix, boolean operationsUser, Set<String> projects,
+                SortedSet<String> indexPatterns, SortedSet<String> withoutIndices, String defaultIndex) {
+            this.kibanaVersion = kibanaVersion;
+            this.projectPrefix = projectPrefix;
+            this.operationsUser = operationsUser;
+            this.projects = projects;
+            this.indexPatterns = Collections.unmodifiableSortedSet(indexPatterns);
+            this.withoutIndices = Collections.unmodifiableSortedSet(withoutIndices);
+            this.defaultIndex = defaultIndex;
+        }
+
+        /**
+         * @return true if the state was seeded the same way, whatever the projects
+         */
+        public boolean isSeededLike(String kibanaVersion, String projectPrefix, boolean operationsUser) {
+            return this.operationsUser == operationsUser && StringUtils.equals(this.kibanaVersion, kibanaVersion)
+                    && StringUtils.equals(this.projectPrefix, projectPrefix);
+        }
+
+        /**
+         * @return true if the state was seeded for these projects
+         */
+        public boolean hasProjects(Set<String> projects) {
+            return this.projects == projects || this.projects.equals(projects);
+        }
+
+        public String getKibanaVersion() {
+            return kibanaVersion;
+        }
+
+        public String getProjectPrefix() {
+            return projectPrefix;
+        }
+
+        public boolean isOperationsUser() {
+            return operationsUser;
+        }
+
+        public Set<String> getProjects() {
+            return projects;
+        }
+
+        public SortedSet<String> getIndexPatterns() {
+            return indexPatterns;
+        }
+
+        public SortedSet<String> getWithoutIndices() {
+            return withoutIndices;
+        }
+
+        public String getDefaultIndex() {
+            return defaultIndex;
+        }
+    }
+}
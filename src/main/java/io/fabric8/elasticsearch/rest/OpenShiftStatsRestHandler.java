@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.rest;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+import io.fabric8.elasticsearch.plugin.MasterCircuitBreaker;
+import io.fabric8.elasticsearch.plugin.acl.SearchGuardACLSynchronizer;
+import io.fabric8.elasticsearch.plugin.auth.AdmissionController;
+import io.fabric8.elasticsearch.plugin.auth.RejectedTokenCache;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaIndexPatternWatcher;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache;
+
+/**
+ * Exposes the runtime stats of this plugin on the local node at /_openshift/stats
+ */
+public class OpenShiftStatsRestHandler extends BaseRestHandler {
+
+    public static final String STATS_PATH = "/_openshift/stats";
+
+    private final MasterCircuitBreaker breaker;
+    private final RejectedTokenCache rejectedTokens;
+    private final AdmissionController admission;
+    private final SearchGuardACLSynchronizer synchronizer;
+    private final KibanaSeedStateCache seedStates;
+    private final KibanaSeedExecutor seeds;
+    private final KibanaIndexPatternWatcher indexWatcher;
+
+    @Inject
+    public OpenShiftStatsRestHandler(Settings settings, RestController controller, Client client,
+            MasterCircuitBreaker breaker, RejectedTokenCache rejectedTokens, AdmissionController admission,
+            SearchGuardACLSynchronizer synchronizer, KibanaSeedStateCache seedStates,
+            KibanaSeedExecutor seeds, KibanaIndexPatternWatcher indexWatcher) {
+        super(settings, controller, client);
+        this.breaker = breaker;
+        this.rejectedTokens = rejectedTokens;
+        this.admission = admission;
+        this.synchronizer = synchronizer;
+        this.seedStates = seedStates;
+        this.seeds = seeds;
+        this.indexWatcher = indexWatcher;
+        controller.registerHandler(GET, STATS_PATH, this);
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel, Client client) throws Exception {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        breaker.toXContent(builder, request);
+        rejectedTokens.toXContent(builder, request);
+        admission.toXContent(builder, request);
+        synchronizer.toXContent(builder, request);
+        seedStates.toXContent(builder, request);
+        seeds.toXContent(builder, request);
+        indexWatcher.toXContent(builder, request);
+        builder.endObject();
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    }
+}
@@ -36,7 +36,10 @@ import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.InvalidTokenException;
+import io.fabric8.elasticsearch.plugin.OpenShiftMasterUnavailableException;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.auth.ServiceAccountTokenVerifier;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.openshift.api.model.SubjectAccessReviewResponse;
 import io.fabric8.openshift.client.DefaultOpenShiftClient;
@@ -46,12 +49,15 @@ public class RequestUtils implements ConfigurationSettings  {
     
     private static final ESLogger LOGGER = Loggers.getLogger(RequestUtils.class);
     public static final String AUTHORIZATION_HEADER = "Authorization";
+    private static final String BEARER_PREFIX = "Bearer ";
 
     private String proxyUserHeader;
+    private final ServiceAccountTokenVerifier tokenVerifier;
 
     @Inject
     public RequestUtils(final Settings settings) {
         this.proxyUserHeader = settings.get(SEARCHGUARD_AUTHENTICATION_PROXY_HEADER, DEFAULT_AUTH_PROXY_HEADER);
+        this.tokenVerifier = new ServiceAccountTokenVerifier(settings);
     }
     
     public String getUser(RestRequest request) {
@@ -66,14 +72,33 @@ public class RequestUtils implements ConfigurationSettings  {
         return "";
     }
     
+    /**
+     * Classify a request before any other processing of the plugin. Only
+     * requests with a bearer token need a user context, and requests with the
+     * proxy user header need the header to be reset. Everything else, e.g.
+     * client certificate authenticated ingestion, passes through untouched
+     *
+     * @param request   The request to classify
+     * @return true if the request needs to be processed by the plugin
+     */
+    public boolean requiresUserContext(final RestRequest request) {
+        final String authorization = request.header(AUTHORIZATION_HEADER);
+        if (authorization != null && authorization.startsWith(BEARER_PREFIX)) {
+            return true;
+        }
+        return request.header(proxyUserHeader) != null;
+    }
+
     public boolean isClientCertAuth(final RestRequest request) {
         return (request != null) && request.hasInContext("_sg_ssl_principal")
                 && StringUtils.isNotEmpty(request.getFromContext("_sg_ssl_principal", ""));
     }
 
     public boolean isOperationsUser(RestRequest request) {
-        final String user = getUser(request);
-        final String token = getBearerToken(request);
+        return isOperationsUser(getUser(request), getBearerToken(request));
+    }
+
+    public boolean isOperationsUser(final String user, final String token) {
         ConfigBuilder builder = new ConfigBuilder().withOauthToken(token);
         boolean allowed = false;
         try (NamespacedOpenShiftClient osClient = new DefaultOpenShiftClient(builder.build())) {
@@ -89,11 +114,18 @@ public class RequestUtils implements ConfigurationSettings  {
         return allowed;
     }
 
-    @SuppressWarnings("rawtypes")
     public String assertUser(RestRequest request) throws Exception {
+        return assertUser(getUser(request), getBearerToken(request));
+    }
+
+    @SuppressWarnings("rawtypes")
+    public String assertUser(final String user, final String token) throws Exception {
         String username = null;
-        final String user = getUser(request);
-        final String token = getBearerToken(request);
+        final String serviceAccount = tokenVerifier.verify(token);
+        if (serviceAccount != null) {
+            LOGGER.debug("Verified the token of '{}' without the master", serviceAccount);
+            return serviceAccount;
+        }
         ConfigBuilder builder = new ConfigBuilder().withOauthToken(token);
         try (DefaultOpenShiftClient osClient = new DefaultOpenShiftClient(builder.build())) {
             LOGGER.debug("Verifying user {} matches the given token.", user);
@@ -108,6 +140,12 @@ public class RequestUtils implements ConfigurationSettings  {
                 if (LOGGER.isDebugEnabled()) {
                     LOGGER.debug("Response: code '{}' {}", response.code(), body);
                 }
+                if(response.code() >= RestStatus.INTERNAL_SERVER_ERROR.getStatus()) {
+                    throw new OpenShiftMasterUnavailableException("The OpenShift master responded with '{}'", response.code());
+                }
+                if(response.code() == RestStatus.UNAUTHORIZED.getStatus()) {
+                    throw new InvalidTokenException("Could not authenticate with given token");
+                }
                 if(response.code() != RestStatus.OK.getStatus()) {
                     throw new ElasticsearchSecurityException("Could not authenticate with given token", RestStatus.UNAUTHORIZED);
                 }
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.elasticsearch.ElasticsearchSecurityException;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.MasterCircuitBreaker.State;
+
+public class MasterCircuitBreakerTest {
+
+    private MasterCircuitBreaker breaker;
+
+    private void givenBreaker(String openDuration) {
+        breaker = new MasterCircuitBreaker(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_MASTER_BREAKER_WINDOW_SIZE, 4)
+                .put(ConfigurationSettings.OPENSHIFT_MASTER_BREAKER_OPEN_DURATION, openDuration)
+                .build());
+    }
+
+    private void whenCalling(final Exception failure) {
+        try {
+            breaker.call(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return "ok";
+                }
+            });
+        } catch (Exception e) {
+            // expected for failing calls
+        }
+    }
+
+    @Test
+    public void testOpensWhenFailureRateIsReached() {
+        givenBreaker("1m");
+        whenCalling(null);
+        whenCalling(null);
+        whenCalling(new IOException("connection refused"));
+        assertEquals(State.CLOSED, breaker.getState());
+
+        whenCalling(new IOException("connection refused"));
+
+        assertEquals(State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testAuthenticationFailuresDoNotOpenTheBreaker() {
+        givenBreaker("1m");
+        for (int i = 0; i < 4; i++) {
+            whenCalling(new ElasticsearchSecurityException("Could not authenticate with given token"));
+        }
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testRejectsCallsWhileOpen() throws Exception {
+        givenBreaker("1m");
+        for (int i = 0; i < 4; i++) {
+            whenCalling(new IOException("connection refused"));
+        }
+        try {
+            breaker.call(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    fail("Exp. the call to be rejected");
+                    return null;
+                }
+            });
+            fail("Exp. an exception");
+        } catch (OpenShiftMasterUnavailableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSuccessfulTrialClosesTheBreaker() throws Exception {
+        givenBreaker("0ms");
+        for (int i = 0; i < 4; i++) {
+            whenCalling(new IOException("connection refused"));
+        }
+        assertEquals(State.OPEN, breaker.getState());
+
+        whenCalling(null);
+
+        assertEquals(State.CLOSED, breaker.getState());
+    }
+}
@@ -17,8 +17,13 @@
 package io.fabric8.elasticsearch.plugin;
 
 
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
 import org.elasticsearch.action.ActionModule;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.InOrder;
@@ -48,4 +53,18 @@ public class OpenShiftElasticSearchPluginTest {
         inOrder.verify(module).registerFilter(SearchGuardFilter.class);
     }
 
+    @Test
+    public void testThreadPoolsAreRegisteredWithElasticsearch() throws Exception {
+        OpenShiftElasticSearchPlugin plugin = new OpenShiftElasticSearchPlugin(Settings.builder()
+                .put("threadpool.openshift_auth.size", 8).build());
+        ThreadPool threadPool = new ThreadPool(Settings.builder().put(plugin.additionalSettings())
+                .put("name", "test").build());
+        try {
+            assertEquals(8, threadPool.info(ConfigurationSettings.OPENSHIFT_AUTH_THREAD_POOL).getMax());
+            assertEquals(ConfigurationSettings.DEFAULT_REFRESH_THREAD_POOL_SIZE,
+                    threadPool.info(ConfigurationSettings.OPENSHIFT_REFRESH_THREAD_POOL).getMax());
+        } finally {
+            ThreadPool.terminate(threadPool, 10, TimeUnit.SECONDS);
+        }
+    }
 }
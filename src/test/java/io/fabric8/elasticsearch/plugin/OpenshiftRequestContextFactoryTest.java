@@ -17,19 +17,28 @@
 package io.fabric8.elasticsearch.plugin;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.elasticsearch.ElasticsearchSecurityException;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -38,6 +47,9 @@ import io.fabric8.elasticsearch.plugin.KibanaUserReindexFilter;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
 import io.fabric8.elasticsearch.plugin.acl.UserProjectCache;
+import io.fabric8.elasticsearch.plugin.acl.UserProjectCacheEntry;
+import io.fabric8.elasticsearch.plugin.auth.OperationsUserEvaluator;
+import io.fabric8.elasticsearch.plugin.auth.RejectedTokenCache;
 import io.fabric8.elasticsearch.util.RequestUtils;
 import io.fabric8.kubernetes.client.Config;
 import io.fabric8.kubernetes.client.dsl.ClientNonNamespaceOperation;
@@ -58,6 +70,7 @@ public class OpenshiftRequestContextFactoryTest {
     private RestRequest request;
     private UserProjectCache cache = mock(UserProjectCache.class);
     private RequestUtils utils;
+    private RejectedTokenCache rejectedTokens;
 
     @Before
     public void setUp() throws Exception {
@@ -65,6 +78,7 @@ public class OpenshiftRequestContextFactoryTest {
         when(request.header(eq(ConfigurationSettings.DEFAULT_AUTH_PROXY_HEADER))).thenReturn("fooUser");
         when(request.header(eq("Authorization"))).thenReturn("Bearer ABC123");
         givenUserIsCashed(true);
+        givenUserHasProjects();
     }
 
     private void givenUserIsCashed(boolean cached) {
@@ -74,9 +88,11 @@ public class OpenshiftRequestContextFactoryTest {
     private void givenUserContextFactory(boolean isOperationsUser) {
         Settings settings = settingsBuilder.build();
         utils = spy(new RequestUtils(settings));
-        doReturn(isOperationsUser).when(utils).isOperationsUser(any(RestRequest.class));
+        doReturn(isOperationsUser).when(utils).isOperationsUser(anyString(), anyString());
 
-        factory = new OpenshiftRequestContextFactory(settings, utils, clientFactory);
+        rejectedTokens = new RejectedTokenCache(settings);
+        factory = new OpenshiftRequestContextFactory(settings, utils, clientFactory, new MasterCircuitBreaker(settings),
+                rejectedTokens, new OperationsUserEvaluator(settings, clientFactory));
     }
 
     @SuppressWarnings("unchecked")
@@ -200,4 +216,54 @@ public class OpenshiftRequestContextFactoryTest {
         assertTrue("Exp. the request context to identify an ops user", context.isOperationsUser());
     }
 
+    @Test
+    public void testCreateUserContextFromCachedEntryDoesNotCallMaster() throws Exception {
+        givenUserContextFactory(false);
+        when(cache.getByToken(eq("ABC123"))).thenReturn(new UserProjectCacheEntry("cacheduser",
+                UserProjectCacheEntry.digest("ABC123"), new HashSet<>(Arrays.asList("foo.uid")), true, Long.MAX_VALUE));
+
+        whenCreatingUserContext();
+
+        assertEquals("cacheduser", context.getUser());
+        assertTrue("Exp. the request context to identify an ops user", context.isOperationsUser());
+        assertTrue("Exp. the request context to be cached", context.isCached());
+        verify(utils, never()).assertUser(any(RestRequest.class));
+        verify(utils, never()).isOperationsUser(anyString(), anyString());
+    }
+
+    @Test
+    public void testOnlyTokensTheMasterAnsweredAreInvalidAreBlocked() throws Exception {
+        givenUserContextFactory(false);
+        givenUserIsCashed(false);
+        doThrow(new ElasticsearchSecurityException("Too many requests", RestStatus.TOO_MANY_REQUESTS)).when(utils)
+                .assertUser(any(RestRequest.class));
+        try {
+            factory.create(request, cache);
+            fail("Exp. the request to fail authentication");
+        } catch (ElasticsearchSecurityException e) {
+            assertFalse("Exp. a token that was not answered as invalid not to be blocked", rejectedTokens.isBlocked("ABC123"));
+        }
+
+        doThrow(new InvalidTokenException("Could not authenticate with given token")).when(utils)
+                .assertUser(any(RestRequest.class));
+        try {
+            factory.create(request, cache);
+            fail("Exp. the request to fail authentication");
+        } catch (InvalidTokenException e) {
+            assertTrue("Exp. an invalid token to be blocked", rejectedTokens.isBlocked("ABC123"));
+        }
+    }
+
+    @Test
+    public void testFailingToListProjectsIsReportedAsMasterUnavailable() throws Exception {
+        givenUserContextFactory(false);
+        givenUserIsCashed(false);
+        when(clientFactory.create(any(Config.class))).thenThrow(new IllegalStateException("connection reset"));
+        try {
+            whenCreatingUserContext();
+            fail("Exp. the request to fail when the projects can not be listed");
+        } catch (OpenShiftMasterUnavailableException e) {
+            assertEquals(RestStatus.SERVICE_UNAVAILABLE, e.status());
+        }
+    }
 }
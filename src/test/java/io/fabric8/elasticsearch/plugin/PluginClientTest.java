@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.MetaData;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PluginClientTest {
+
+    private Client client = mock(Client.class);
+    private ClusterService clusterService = mock(ClusterService.class);
+    private PluginClient pluginClient = new PluginClient(client, clusterService);
+
+    private void givenIndices(long version, String... indices) {
+        MetaData.Builder metaData = MetaData.builder().version(version);
+        for (String index : indices) {
+            metaData.put(IndexMetaData.builder(index)
+                    .settings(Settings.builder().put(IndexMetaData.SETTING_VERSION_CREATED, Version.CURRENT))
+                    .numberOfShards(1).numberOfReplicas(0)
+                    .putAlias(AliasMetaData.builder(index.startsWith(".operations") ? ".operations" : "project")));
+        }
+        when(clusterService.state()).thenReturn(ClusterState.builder(new ClusterName("test")).metaData(metaData).build());
+    }
+
+    @Before
+    public void setUp() {
+        givenIndices(1, "project.foo.uuid.2017.01.01", "project.foobar.uuid.2017.01.01", ".operations.2017.01.01");
+    }
+
+    @Test
+    public void testIndexExistsIsAnsweredFromTheClusterState() {
+        assertTrue(pluginClient.indexExists("project.foo.*"));
+        assertTrue(pluginClient.indexExists("project.foobar.uuid.2017.01.01"));
+        assertTrue(pluginClient.indexExists(".operations"));
+        assertTrue(pluginClient.indexExists(".oper*"));
+        assertFalse(pluginClient.indexExists("project.bar.*"));
+        assertFalse(pluginClient.indexExists("project.foo"));
+        verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void testIndicesForAlias() {
+        assertEquals(new HashSet<>(Arrays.asList(".operations.2017.01.01")), pluginClient.getIndicesForAlias(".operations"));
+        assertEquals(new HashSet<>(Arrays.asList("project.foo.uuid.2017.01.01", "project.foobar.uuid.2017.01.01")),
+                pluginClient.getIndicesForAlias("proj*"));
+        assertTrue(pluginClient.getIndicesForAlias("missing").isEmpty());
+        verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void testNamesAreRebuiltWhenTheMetaDataChanges() {
+        assertFalse(pluginClient.indexExists("project.bar.*"));
+        givenIndices(2, "project.bar.uuid.2017.01.01");
+        assertTrue(pluginClient.indexExists("project.bar.*"));
+        assertFalse(pluginClient.indexExists("project.foo.*"));
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+public class ProjectListerTest {
+
+    private static final String PAGE = "{\"kind\":\"ProjectList\",\"apiVersion\":\"v1\","
+            + "\"metadata\":{\"selfLink\":\"/oapi/v1/projects\"%s},"
+            + "\"items\":["
+            + "{\"metadata\":{\"name\":\"myproject\",\"uid\":\"uid1\",\"labels\":{\"a\":\"b\"},"
+            + "\"annotations\":{\"openshift.io/description\":\"\"}},\"spec\":{\"finalizers\":[\"kubernetes\"]},"
+            + "\"status\":{\"phase\":\"Active\"}},"
+            + "{\"metadata\":{\"uid\":\"uid2\",\"name\":\"default\"}},"
+            + "{\"status\":{},\"metadata\":{\"name\":\"other\",\"uid\":\"uid3\"}}"
+            + "]}";
+
+    private ProjectLister lister = new ProjectLister(Settings.EMPTY);
+
+    private String parse(String json, Set<String> names) throws Exception {
+        return lister.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), names);
+    }
+
+    @Test
+    public void testParsesOnlyTheNamesAndUidsOfProjects() throws Exception {
+        Set<String> names = new HashSet<>();
+
+        assertNull(parse(String.format(PAGE, ""), names));
+        assertEquals(new HashSet<>(Arrays.asList("myproject.uid1", "other.uid3")), names);
+    }
+
+    @Test
+    public void testReturnsTheContinueTokenOfAPage() throws Exception {
+        Set<String> names = new HashSet<>();
+
+        assertEquals("next123", parse(String.format(PAGE, ",\"continue\":\"next123\""), names));
+        assertEquals(2, names.size());
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.KibanaIndexMode;
+
+public class AclPartitionerTest {
+
+    private UserProjectCache cache = new UserProjectCacheMapAdapter(Settings.EMPTY);
+    private AclPartitioner parallel = new AclPartitioner(10, 4);
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 500; i++) {
+            cache.update("user" + i, "token" + i,
+                    new HashSet<String>(Arrays.asList("project" + (i % 7), "shared.project", "project." + i)), i % 50 == 0);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        parallel.close();
+    }
+
+    @Test
+    public void testParallelRolesAreTheSerialRoles() {
+        for (String mode : new String[] { KibanaIndexMode.UNIQUE, KibanaIndexMode.SHARED_OPS }) {
+            SearchGuardRoles serialRoles = new SearchGuardRoles();
+            SearchGuardRoles parallelRoles = new SearchGuardRoles();
+            new ProjectRolesSyncStrategy(serialRoles, ".kibana", ".project", mode).syncFrom(cache);
+            new ProjectRolesSyncStrategy(parallelRoles, ".kibana", ".project", mode, parallel).syncFrom(cache);
+            assertEquals(serialRoles.toMap(), parallelRoles.toMap());
+
+            serialRoles = new SearchGuardRoles();
+            parallelRoles = new SearchGuardRoles();
+            new UserRolesSyncStrategy(serialRoles, ".kibana", ".project", mode).syncFrom(cache);
+            new UserRolesSyncStrategy(parallelRoles, ".kibana", ".project", mode, parallel).syncFrom(cache);
+            assertEquals(serialRoles.toMap(), parallelRoles.toMap());
+        }
+    }
+
+    @Test
+    public void testParallelRolesMappingIsTheSerialRolesMapping() {
+        SearchGuardRolesMapping serialMapping = new SearchGuardRolesMapping();
+        SearchGuardRolesMapping parallelMapping = new SearchGuardRolesMapping();
+        new ProjectRolesMappingSyncStrategy(serialMapping).syncFrom(cache);
+        new ProjectRolesMappingSyncStrategy(parallelMapping, parallel).syncFrom(cache);
+        assertEquals(serialMapping.toMap(), parallelMapping.toMap());
+
+        serialMapping = new SearchGuardRolesMapping();
+        parallelMapping = new SearchGuardRolesMapping();
+        new UserRolesMappingSyncStrategy(serialMapping).syncFrom(cache);
+        new UserRolesMappingSyncStrategy(parallelMapping, parallel).syncFrom(cache);
+        assertEquals(serialMapping.toMap(), parallelMapping.toMap());
+    }
+
+    @Test
+    public void testRolesAreBuiltOnTheCallingThreadOnceClosed() {
+        SearchGuardRoles serialRoles = new SearchGuardRoles();
+        SearchGuardRoles closedRoles = new SearchGuardRoles();
+        new UserRolesSyncStrategy(serialRoles, ".kibana", ".project", KibanaIndexMode.UNIQUE).syncFrom(cache);
+        parallel.close();
+        new UserRolesSyncStrategy(closedRoles, ".kibana", ".project", KibanaIndexMode.UNIQUE, parallel).syncFrom(cache);
+        assertEquals(serialRoles.toMap(), closedRoles.toMap());
+    }
+}
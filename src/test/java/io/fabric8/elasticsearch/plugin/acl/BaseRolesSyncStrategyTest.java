@@ -26,17 +26,17 @@ public class BaseRolesSyncStrategyTest {
 
     @Test
     public void testFormatUserNameRoleFromEmail() {
-        assertEquals("gen_user_" + DigestUtils.sha1Hex("user@email.com"), formatUserRoleName("user@email.com"));
+        assertEquals("gen_user_" + DigestUtils.sha1Hex("user@email.com"), formatUserRoleName(new UserIdentity("user@email.com")));
     }
 
     @Test
     public void testFormatUserNameRoleThatHasSlash() {
-        assertEquals("gen_user_" + DigestUtils.sha1Hex("test\\\\user"), formatUserRoleName("test\\\\user"));
+        assertEquals("gen_user_" + DigestUtils.sha1Hex("test\\\\user"), formatUserRoleName(new UserIdentity("test\\\\user")));
     }
 
     @Test
     public void testFormatUserNameRoleThatHasForwardSlash() {
-        assertEquals("gen_user_" + DigestUtils.sha1Hex("test/user"), formatUserRoleName("test/user"));
+        assertEquals("gen_user_" + DigestUtils.sha1Hex("test/user"), formatUserRoleName(new UserIdentity("test/user")));
     }
 
 }
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.Executor;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestFilterChain;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestResponse;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.auth.AdmissionController;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+import io.fabric8.elasticsearch.util.RequestUtils;
+
+public class DynamicACLFilterTest {
+
+    private UserProjectCache cache = mock(UserProjectCache.class);
+    private OpenshiftRequestContextFactory contextFactory = mock(OpenshiftRequestContextFactory.class);
+    private RestRequest request = mock(RestRequest.class);
+    private RestChannel channel = mock(RestChannel.class);
+    private RestFilterChain chain = mock(RestFilterChain.class);
+    private AdmissionController admission = mock(AdmissionController.class);
+    private DynamicACLFilter filter;
+
+    @Before
+    public void setUp() throws Exception {
+        Settings settings = Settings.EMPTY;
+        ThreadPool threadPool = mock(ThreadPool.class);
+        when(threadPool.executor(anyString())).thenReturn(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        when(contextFactory.create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class)))
+                .thenReturn(OpenshiftRequestContext.EMPTY);
+        filter = new DynamicACLFilter(cache, new PluginSettings(settings), mock(KibanaSeedExecutor.class), mock(Client.class),
+                contextFactory, mock(SearchGuardACLSynchronizer.class), mock(UserProjectCacheRefresher.class),
+                new RequestUtils(settings), mock(UserProjectCachePublisher.class), threadPool,
+                admission);
+    }
+
+    @Test
+    public void testRequestsWithoutATokenBypassThePlugin() throws Exception {
+        filter.process(request, channel, chain);
+
+        verify(contextFactory, never()).create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class));
+        verify(cache, never()).getByToken(anyString());
+        verify(chain).continueProcessing(request, channel);
+    }
+
+    @Test
+    public void testRequestsWithBasicAuthBypassThePlugin() throws Exception {
+        when(request.header(eq(RequestUtils.AUTHORIZATION_HEADER))).thenReturn("Basic Zm9vOmJhcg==");
+
+        filter.process(request, channel, chain);
+
+        verify(contextFactory, never()).create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class));
+        verify(chain).continueProcessing(request, channel);
+    }
+
+    @Test
+    public void testRequestsWithTheProxyUserHeaderAreProcessed() throws Exception {
+        when(request.header(eq(ConfigurationSettings.DEFAULT_AUTH_PROXY_HEADER))).thenReturn("fooUser");
+
+        filter.process(request, channel, chain);
+
+        verify(contextFactory).create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class));
+    }
+
+    @Test
+    public void testRequestsWithATokenAreProcessed() throws Exception {
+        when(request.header(eq(RequestUtils.AUTHORIZATION_HEADER))).thenReturn("Bearer ABC123");
+
+        filter.process(request, channel, chain);
+
+        verify(contextFactory).create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class));
+        verify(chain).continueProcessing(request, channel);
+    }
+
+    @Test
+    public void testTokensOverTheirAdmissionLimitAreRejected() throws Exception {
+        when(request.header(eq(RequestUtils.AUTHORIZATION_HEADER))).thenReturn("Bearer ABC123");
+        when(admission.tryAdmit("ABC123")).thenReturn(1500L);
+
+        filter.process(request, channel, chain);
+
+        ArgumentCaptor<RestResponse> response = ArgumentCaptor.forClass(RestResponse.class);
+        verify(channel).sendResponse(response.capture());
+        assertEquals(RestStatus.TOO_MANY_REQUESTS, response.getValue().status());
+        assertEquals("2", response.getValue().getHeaders().get("Retry-After").get(0));
+        verify(contextFactory, never()).create(any(RestRequest.class), any(UserProjectCache.class), any(UserProjectCacheEntry.class));
+        verify(chain, never()).continueProcessing(request, channel);
+    }
+
+    @Test
+    public void testCachedTokensAreNotLimited() throws Exception {
+        when(request.header(eq(RequestUtils.AUTHORIZATION_HEADER))).thenReturn("Bearer ABC123");
+        when(cache.getByToken("ABC123")).thenReturn(mock(UserProjectCacheEntry.class));
+
+        filter.process(request, channel, chain);
+
+        verify(admission, never()).tryAdmit(anyString());
+        verify(chain).continueProcessing(request, channel);
+    }
+
+    @Test
+    public void testCachedTokensAreLookedUpOnce() throws Exception {
+        when(request.header(eq(RequestUtils.AUTHORIZATION_HEADER))).thenReturn("Bearer ABC123");
+        UserProjectCacheEntry entry = mock(UserProjectCacheEntry.class);
+        when(cache.getByToken("ABC123")).thenReturn(entry);
+
+        filter.process(request, channel, chain);
+
+        verify(cache, times(1)).getByToken(anyString());
+        verify(contextFactory).create(any(RestRequest.class), any(UserProjectCache.class), same(entry));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+public class OffHeapUserProjectCacheTest {
+
+    private OffHeapUserProjectCache cache;
+
+    private void givenCache(String maxSize, String expire) {
+        Settings settings = Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_ACL_CACHE_OFFHEAP_MAX_SIZE, maxSize)
+                .put(ConfigurationSettings.OPENSHIFT_ACL_CACHE_OFFHEAP_EXPIRE, expire)
+                .build();
+        cache = new OffHeapUserProjectCache(settings);
+    }
+
+    private Set<String> projects(String... projects) {
+        return new HashSet<>(Arrays.asList(projects));
+    }
+
+    @Test
+    public void testUpdateAndRetrieveEntries() {
+        givenCache("1mb", "1m");
+        cache.update("user1", "token1", projects("foo.uid1", "bar.uid2"), false);
+        cache.update("user2", "token2", projects(), true);
+
+        assertTrue(cache.hasUser("user1", "token1"));
+        assertFalse(cache.hasUser("user1", "token2"));
+        assertFalse(cache.isOperationsUser("user1", "token1"));
+        assertTrue(cache.isOperationsUser("user2", "token2"));
+        assertEquals(projects("foo.uid1", "bar.uid2"),
+                cache.getUserProjects().get(new SimpleImmutableEntry<>("user1", "token1")));
+        assertEquals(projects(), cache.getUserProjects().get(new SimpleImmutableEntry<>("user2", "token2")));
+        assertEquals(projects("foo.uid1", "bar.uid2"), cache.getAllProjects());
+    }
+
+    @Test
+    public void testUpdateReplacesAnEntry() {
+        givenCache("1mb", "1m");
+        cache.update("user1", "token1", projects("foo.uid1", "bar.uid2", "baz.uid3", "qux.uid4"), false);
+        final long used = cache.getUsedBytes();
+        cache.update("user1", "token1", projects("foo.uid1"), true);
+
+        assertTrue(cache.isOperationsUser("user1", "token1"));
+        assertEquals(projects("foo.uid1"), cache.getAllProjects());
+        assertTrue("Exp. the replaced entry to be released", cache.getUsedBytes() < used);
+    }
+
+    @Test
+    public void testExpireRemovesEntries() throws Exception {
+        givenCache("1mb", "1ms");
+        cache.update("user1", "token1", projects("foo.uid1"), false);
+        Thread.sleep(5);
+        cache.expire();
+
+        assertFalse(cache.hasUser("user1", "token1"));
+        assertTrue(cache.getUserProjects().isEmpty());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testEvictsWhenTheCacheIsFull() {
+        givenCache("60b", "1m");
+        cache.update("user1", "token1", projects("project.one"), false);
+        cache.update("user2", "token2", projects("project.two"), false);
+        cache.update("user3", "token3", projects("project.three"), false);
+
+        assertFalse("Exp. the oldest entry to be evicted", cache.hasUser("user1", "token1"));
+        assertTrue(cache.hasUser("user3", "token3"));
+        assertTrue(cache.getUsedBytes() <= 60);
+        assertTrue("Exp. the evicted entry to be reported with the expired entries",
+                cache.expire().contains(UserProjectCacheEntry.digest("token1")));
+        assertTrue(cache.expire().isEmpty());
+    }
+
+    @Test
+    public void testRequestsWithTheSameTokenShareTheDecodedProjects() {
+        givenCache("1mb", "1m");
+        cache.update("user1", "token1", projects("foo.uid1", "bar.uid2"), false);
+
+        Set<String> first = cache.getUserProjects().get(new SimpleImmutableEntry<>("user1", "token1"));
+        assertSame(first, cache.getUserProjects().get(new SimpleImmutableEntry<>("user1", "token1")));
+        assertEquals(projects("foo.uid1", "bar.uid2"), cache.getByToken("token1").getProjects());
+    }
+
+    @Test
+    public void testAclEntriesIncludeRestoredEntries() {
+        givenCache("1mb", "1m");
+        cache.update("user1", "token1", projects("foo.uid1"), false);
+        cache.restore(new UserProjectCacheEntry("user2", UserProjectCacheEntry.digest("token2"), projects("bar.uid2"),
+                false, System.currentTimeMillis() + 60000));
+        cache.restore(new UserProjectCacheEntry("user3", UserProjectCacheEntry.digest("token3"), projects("baz.uid3"),
+                false, System.currentTimeMillis() - 1));
+
+        assertEquals(1, cache.getEntries().size());
+        Set<String> users = new HashSet<>();
+        for (UserProjectCacheEntry entry : cache.getAclEntries()) {
+            users.add(entry.getUser());
+        }
+        assertEquals("Exp. the unexpired restored entries to be in the ACL", projects("user1", "user2"), users);
+    }
+
+    @Test
+    public void testConcurrentUpdatesStayWithinTheCacheSize() throws Exception {
+        givenCache("1kb", "1m");
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        cache.update("user" + thread + "." + i, "token" + thread + "." + i,
+                                projects("project.one." + i, "project.two." + i), false);
+                        assertTrue(cache.getUsedBytes() <= 1024);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(cache.getUsedBytes() <= 1024);
+        assertEquals(cache.getEntries().size() * 64L, cache.getUsedBytes());
+        cache.expire(Long.MAX_VALUE);
+        assertEquals(0, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftClientFactory;
+import io.fabric8.kubernetes.api.model.Namespace;
+import io.fabric8.kubernetes.api.model.NamespaceBuilder;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import io.fabric8.openshift.api.model.RoleBinding;
+import io.fabric8.openshift.api.model.RoleBindingBuilder;
+
+public class ProjectMembershipTrackerTest {
+
+    private UserProjectCache cache;
+    private SearchGuardACLSynchronizer synchronizer;
+    private ProjectMembershipTracker tracker;
+
+    @Before
+    public void setUp() {
+        Settings settings = Settings.builder().put(ConfigurationSettings.OPENSHIFT_ACL_MEMBERSHIP_WATCH_ENABLED, true)
+                .build();
+        cache = new UserProjectCacheMapAdapter(settings);
+        synchronizer = mock(SearchGuardACLSynchronizer.class);
+        tracker = new ProjectMembershipTracker(settings, cache, synchronizer, mock(OpenshiftClientFactory.class));
+        cache.update("alice", "alicetoken", new HashSet<>(Arrays.asList("myproject.uid1")), false);
+        cache.update("admin", "admintoken", new HashSet<>(Arrays.asList("myproject.uid1")), true);
+        tracker.onNamespace(Action.ADDED, givenNamespace("myproject", "uid1"));
+    }
+
+    private Namespace givenNamespace(String name, String uid) {
+        return new NamespaceBuilder().withNewMetadata().withName(name).withUid(uid).endMetadata().build();
+    }
+
+    private RoleBinding givenBinding(String namespace, String name, String user) {
+        return new RoleBindingBuilder().withNewMetadata().withNamespace(namespace).withName(name).endMetadata()
+                .withNewRoleRef().withName(name).endRoleRef().withUserNames(user).build();
+    }
+
+    private void assertProjects(String token, String... projects) {
+        assertEquals(new HashSet<>(Arrays.asList(projects)), cache.getByToken(token).getProjects());
+    }
+
+    @Test
+    public void testNewProjectsAreAddedForOperationsUsers() {
+        tracker.onNamespace(Action.ADDED, givenNamespace("newproject", "uid2"));
+
+        assertProjects("admintoken", "myproject.uid1", "newproject.uid2");
+        assertProjects("alicetoken", "myproject.uid1");
+    }
+
+    @Test
+    public void testBoundUsersAreAddedToTheProject() {
+        tracker.onNamespace(Action.ADDED, givenNamespace("newproject", "uid2"));
+        tracker.onRoleBinding(Action.ADDED, givenBinding("newproject", "admin", "alice"));
+
+        assertProjects("alicetoken", "myproject.uid1", "newproject.uid2");
+        verify(synchronizer, atLeastOnce()).requestSync();
+    }
+
+    @Test
+    public void testUnboundUsersAreRemovedFromTheProject() {
+        tracker.onRoleBinding(Action.ADDED, givenBinding("myproject", "view", "alice"));
+        tracker.onRoleBinding(Action.DELETED, givenBinding("myproject", "view", "alice"));
+
+        assertProjects("alicetoken");
+        assertProjects("admintoken", "myproject.uid1");
+    }
+
+    @Test
+    public void testUsersWithAnotherBindingKeepTheProject() {
+        tracker.onRoleBinding(Action.ADDED, givenBinding("myproject", "view", "alice"));
+        tracker.onRoleBinding(Action.ADDED, givenBinding("myproject", "edit", "alice"));
+        tracker.onRoleBinding(Action.DELETED, givenBinding("myproject", "view", "alice"));
+
+        assertProjects("alicetoken", "myproject.uid1");
+    }
+
+    @Test
+    public void testBindingsToOtherRolesDoNotGrantTheProject() {
+        cache.update("system:serviceaccount:build:builder", "satoken", new HashSet<String>(), false);
+        tracker.onNamespace(Action.ADDED, givenNamespace("images", "uid2"));
+        tracker.onRoleBinding(Action.ADDED, new RoleBindingBuilder().withNewMetadata().withNamespace("images")
+                .withName("system:image-pullers").endMetadata().withNewRoleRef().withName("system:image-puller").endRoleRef()
+                .addNewSubject().withKind("ServiceAccount").withNamespace("build").withName("builder").endSubject().build());
+
+        assertProjects("satoken");
+    }
+
+    @Test
+    public void testDeletedProjectsAreRemovedForEveryone() {
+        tracker.onNamespace(Action.DELETED, givenNamespace("myproject", "uid1"));
+
+        assertProjects("alicetoken");
+        assertProjects("admintoken");
+    }
+
+    @Test
+    public void testProjectsOfUncachedUsersAreNotTracked() {
+        tracker.onNamespace(Action.ADDED, givenNamespace("newproject", "uid2"));
+        tracker.onRoleBinding(Action.ADDED, givenBinding("newproject", "admin", "bob"));
+        tracker.onRoleBinding(Action.ADDED, givenBinding("myproject", "admin", "bob"));
+
+        assertProjects("alicetoken", "myproject.uid1");
+        assertFalse(cache.hasUser("bob", "bobtoken"));
+    }
+
+    @Test
+    public void testChangesOnlyRequestASyncOfTheAcl() {
+        tracker.onNamespace(Action.ADDED, givenNamespace("newproject", "uid2"));
+
+        verify(synchronizer).requestSync();
+        verify(synchronizer, never()).syncAcl();
+    }
+}
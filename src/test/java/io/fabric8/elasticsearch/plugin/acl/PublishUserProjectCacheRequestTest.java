@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+public class PublishUserProjectCacheRequestTest {
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        UserProjectCacheEntry entry = new UserProjectCacheEntry("user1", UserProjectCacheEntry.digest("token1"),
+                new HashSet<>(Arrays.asList("foo.uid1")), false, Long.MAX_VALUE);
+        PublishUserProjectCacheRequest request = new PublishUserProjectCacheRequest(Arrays.asList(entry),
+                Arrays.asList("abc"));
+
+        BytesStreamOutput out = new BytesStreamOutput();
+        request.writeTo(out);
+        PublishUserProjectCacheRequest read = new PublishUserProjectCacheRequest();
+        read.readFrom(StreamInput.wrap(out.bytes()));
+
+        assertEquals(1, read.getEntries().size());
+        assertEquals("user1", read.getEntries().get(0).getUser());
+        assertEquals(entry.getTokenDigest(), read.getEntries().get(0).getTokenDigest());
+        assertEquals(entry.getProjects(), read.getEntries().get(0).getProjects());
+        assertEquals(Arrays.asList("abc"), read.getInvalidated());
+    }
+
+    @Test
+    public void testInvalidateDropsPublishedEntry() throws Exception {
+        UserProjectCache cache = new UserProjectCacheMapAdapter(Settings.EMPTY);
+        cache.restore(new UserProjectCacheEntry("user1", UserProjectCacheEntry.digest("token1"),
+                Collections.<String>emptySet(), false, Long.MAX_VALUE));
+        assertNotNull(cache.getByToken("token1"));
+
+        cache.invalidate(UserProjectCacheEntry.digest("token1"));
+
+        assertNull(cache.getByToken("token1"));
+    }
+}
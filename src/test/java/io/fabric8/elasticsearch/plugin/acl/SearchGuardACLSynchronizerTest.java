@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.DummyTransportAddress;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateAction;
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateRequest;
+import com.floragunn.searchguard.action.configupdate.ConfigUpdateResponse;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+
+public class SearchGuardACLSynchronizerTest {
+
+    private DiscoveryNode node1 = new DiscoveryNode("node1", DummyTransportAddress.INSTANCE, Version.CURRENT);
+    private DiscoveryNode node2 = new DiscoveryNode("node2", DummyTransportAddress.INSTANCE, Version.CURRENT);
+    private Client client = mock(Client.class);
+    private ClusterService clusterService = mock(ClusterService.class);
+
+    @Before
+    public void setUp() {
+        when(clusterService.state()).thenReturn(ClusterState.builder(new ClusterName("test"))
+                .nodes(DiscoveryNodes.builder().put(node1).put(node2)).build());
+    }
+
+    private SearchGuardACLSynchronizer givenSynchronizer(boolean awaitActive) {
+        return givenSynchronizer(awaitActive, ConfigurationSettings.DEFAULT_ACL_AWAIT_ACTIVE_TIMEOUT);
+    }
+
+    private SearchGuardACLSynchronizer givenSynchronizer(boolean awaitActive, String timeout) {
+        PluginSettings settings = new PluginSettings(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_ACL_AWAIT_ACTIVE_ENABLED, awaitActive)
+                .put(ConfigurationSettings.OPENSHIFT_ACL_AWAIT_ACTIVE_TIMEOUT, timeout).build());
+        return new SearchGuardACLSynchronizer(mock(UserProjectCache.class), settings, client,
+                mock(SearchGuardSyncStrategyFactory.class), clusterService);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void givenAcknowledgements(DiscoveryNode[]... acks) {
+        ActionFuture<ConfigUpdateResponse>[] futures = new ActionFuture[acks.length];
+        for (int i = 0; i < acks.length; i++) {
+            ConfigUpdateResponse.Node[] nodes = new ConfigUpdateResponse.Node[acks[i].length];
+            for (int n = 0; n < nodes.length; n++) {
+                nodes[n] = mock(ConfigUpdateResponse.Node.class);
+                when(nodes[n].getNode()).thenReturn(acks[i][n]);
+            }
+            ConfigUpdateResponse response = mock(ConfigUpdateResponse.class);
+            when(response.getNodes()).thenReturn(nodes);
+            futures[i] = mock(ActionFuture.class);
+            when(futures[i].actionGet()).thenReturn(response);
+        }
+        when(client.execute(eq(ConfigUpdateAction.INSTANCE), any(ConfigUpdateRequest.class)))
+                .thenReturn(futures[0], Arrays.copyOfRange(futures, 1, futures.length));
+    }
+
+    private List<ConfigUpdateRequest> reloadRequests(int times) {
+        ArgumentCaptor<ConfigUpdateRequest> requests = ArgumentCaptor.forClass(ConfigUpdateRequest.class);
+        verify(client, times(times)).execute(eq(ConfigUpdateAction.INSTANCE), requests.capture());
+        return requests.getAllValues();
+    }
+
+    private String stats(SearchGuardACLSynchronizer synchronizer) throws Exception {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        synchronizer.toXContent(builder, null).endObject();
+        return XContentHelper.convertToJson(builder.bytes(), false);
+    }
+
+    @Test
+    public void testReloadIsRetriedOnNodesThatDidNotAcknowledge() throws Exception {
+        givenAcknowledgements(new DiscoveryNode[] { node1 }, new DiscoveryNode[] { node2 });
+        SearchGuardACLSynchronizer synchronizer = givenSynchronizer(true);
+
+        synchronizer.reloadConfig();
+
+        List<ConfigUpdateRequest> requests = reloadRequests(2);
+        assertNull(requests.get(0).nodesIds());
+        assertArrayEquals(new String[] { "node2" }, requests.get(1).nodesIds());
+        assertTrue(stats(synchronizer).contains("\"count\":1"));
+        assertTrue(stats(synchronizer).contains("\"not_converged\":0"));
+    }
+
+    @Test
+    public void testReloadIsNotRetriedWhenNotAwaitingActive() throws Exception {
+        givenAcknowledgements(new DiscoveryNode[] { node1 }, new DiscoveryNode[] { node2 });
+        SearchGuardACLSynchronizer synchronizer = givenSynchronizer(false);
+
+        synchronizer.reloadConfig();
+
+        reloadRequests(1);
+        assertTrue("Exp. only syncs awaiting the ACL to time out", stats(synchronizer).contains("\"not_converged\":0"));
+    }
+
+    @Test
+    public void testReloadTimesOutWhenNotEveryNodeAcknowledges() throws Exception {
+        givenAcknowledgements(new DiscoveryNode[] { node1 });
+        SearchGuardACLSynchronizer synchronizer = givenSynchronizer(true, "100ms");
+
+        synchronizer.reloadConfig();
+
+        assertTrue(stats(synchronizer).contains("\"not_converged\":1"));
+    }
+
+    @Test
+    public void testRequestedSyncsAreCoalesced() {
+        SearchGuardACLSynchronizer synchronizer = givenSynchronizer(false);
+        synchronizer.syncIfPending();
+        verify(client, never()).multiGet(any(MultiGetRequest.class));
+
+        synchronizer.requestSync();
+        synchronizer.requestSync();
+        synchronizer.syncIfPending();
+        synchronizer.syncIfPending();
+
+        verify(client, times(1)).multiGet(any(MultiGetRequest.class));
+        assertFalse(synchronizer.isPending());
+    }
+
+    @Test
+    public void testCallersWaitingForARunningSyncShareTheNextSync() throws Exception {
+        final SearchGuardACLSynchronizer synchronizer = spy(givenSynchronizer(false));
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                running.countDown();
+                release.await();
+                return true;
+            }
+        }).when(synchronizer).sync();
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    synchronizer.awaitSync();
+                }
+            });
+            threads[i].start();
+            if (i == 0) {
+                running.await();
+            }
+        }
+        for (int i = 1; i < threads.length; i++) {
+            while (threads[i].getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        verify(synchronizer, times(2)).sync();
+        synchronizer.awaitSync();
+        verify(synchronizer, times(3)).sync();
+    }
+}
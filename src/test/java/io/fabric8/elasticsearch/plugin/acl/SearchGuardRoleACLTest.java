@@ -25,13 +25,9 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.StringReader;
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.elasticsearch.common.settings.Settings;
 import org.junit.Test;
@@ -144,15 +140,13 @@ public class SearchGuardRoleACLTest {
     public void testSyncFromCache() throws Exception {
 
         // cache
-        Map<SimpleImmutableEntry<String, String>, Set<String>> map = new HashMap<>();
-        SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>("mytestuser", "tokenA");
-        map.put(sie, new HashSet<>(Arrays.asList("projectA", "projectB", "projectC")));
-        sie = new SimpleImmutableEntry<>("mythirduser", "tokenB");
-        map.put(sie, new HashSet<>(Arrays.asList("projectzz")));
-        Set<String> projects = new HashSet<>(Arrays.asList("projectA", "projectB", "projectC", "projectzz"));
+        List<UserProjectCacheEntry> entries = Arrays.asList(
+                new UserProjectCacheEntry("mytestuser", "tokenA",
+                        new HashSet<>(Arrays.asList("projectA", "projectB", "projectC")), false, Long.MAX_VALUE),
+                new UserProjectCacheEntry("mythirduser", "tokenB",
+                        new HashSet<>(Arrays.asList("projectzz")), false, Long.MAX_VALUE));
         UserProjectCache cache = mock(UserProjectCache.class);
-        when(cache.getUserProjects()).thenReturn(map);
-        when(cache.getAllProjects()).thenReturn(projects);
+        when(cache.getAclEntries()).thenReturn(entries);
 
         SearchGuardRoles roles = new SearchGuardRoles()
                 .load(buildMap(new StringReader(Samples.ROLES_ACL.getContent())));
@@ -172,6 +166,22 @@ public class SearchGuardRoleACLTest {
         assertNoAclForProject(roles, "myotherproject");
     }
 
+    @Test
+    public void testSyncFromCacheAddsRolesForProjectsOfRestoredEntries() throws Exception {
+        cache.update("mytestuser", "tokenA", new HashSet<>(Arrays.asList("projectA")), false);
+        cache.restore(new UserProjectCacheEntry("mypeeruser", "tokenB",
+                new HashSet<>(Arrays.asList("projectB")), false, Long.MAX_VALUE));
+
+        SearchGuardRoles roles = new SearchGuardRoles();
+        ProjectRolesSyncStrategy strat = new ProjectRolesSyncStrategy(roles,
+                ConfigurationSettings.DEFAULT_USER_PROFILE_PREFIX,
+                ConfigurationSettings.OPENSHIFT_DEFAULT_PROJECT_INDEX_PREFIX,
+                KibanaIndexMode.SHARED_OPS);
+        strat.syncFrom(cache);
+
+        assertAclsHas(roles, createRoles("projectA", "projectB"));
+    }
+
     private void assertNoAclForProject(final SearchGuardRoles roles, final String project) {
         for (Roles role : roles) {
             Indices index = new Indices();
@@ -26,13 +26,10 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.StringReader;
-import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import org.elasticsearch.common.settings.Settings;
@@ -90,14 +87,14 @@ public class SearchGuardRolesMappingACLTest {
     public void testSyncFromCache() throws Exception {
 
         // cache
-        Map<SimpleImmutableEntry<String, String>, Set<String>> map = new HashMap<>();
-        SimpleImmutableEntry<String, String> sie = new SimpleImmutableEntry<>("mytestuser", "tokenA");
-        map.put(sie, new HashSet<>(Arrays.asList("projectA", "projectB", "projectC")));
-        sie = new SimpleImmutableEntry<>("mythirduser", "tokenB");
-        map.put(sie, new HashSet<>(Arrays.asList("projectzz")));
+        List<UserProjectCacheEntry> entries = Arrays.asList(
+                new UserProjectCacheEntry("mytestuser", "tokenA",
+                        new HashSet<>(Arrays.asList("projectA", "projectB", "projectC")), false, Long.MAX_VALUE),
+                new UserProjectCacheEntry("mythirduser", "tokenB",
+                        new HashSet<>(Arrays.asList("projectzz")), false, Long.MAX_VALUE));
         Set<String> projects = new HashSet<>(Arrays.asList("projectA", "projectB", "projectC", "projectzz"));
         UserProjectCache cache = mock(UserProjectCache.class);
-        when(cache.getUserProjects()).thenReturn(map, null);
+        when(cache.getAclEntries()).thenReturn(entries);
         when(cache.getAllProjects()).thenReturn(projects);
 
         SearchGuardRolesMapping mappings = new SearchGuardRolesMapping()
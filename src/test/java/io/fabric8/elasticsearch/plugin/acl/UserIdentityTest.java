@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.KibanaIndexMode;
+
+public class UserIdentityTest {
+
+    private final String hash = DigestUtils.sha1Hex("user@email.com");
+    private final UserIdentity identity = new UserIdentity("user@email.com");
+
+    @Test
+    public void testRoleNames() {
+        assertEquals("gen_user_" + hash, identity.getUserRoleName());
+        assertEquals("gen_kibana_" + hash, identity.getKibanaRoleName());
+    }
+
+    @Test
+    public void testKibanaIndex() {
+        assertEquals(".kibana." + hash, identity.getKibanaIndex(".kibana", KibanaIndexMode.UNIQUE, true));
+        assertEquals(".kibana", identity.getKibanaIndex(".kibana", KibanaIndexMode.SHARED_OPS, true));
+        assertEquals(".kibana." + hash, identity.getKibanaIndex(".kibana", KibanaIndexMode.SHARED_OPS, false));
+        assertEquals(".kibana_non_ops", identity.getKibanaIndex(".kibana", KibanaIndexMode.SHARED_NON_OPS, false));
+        assertEquals("?kibana?" + hash, identity.getKibanaIndexPattern(".kibana", KibanaIndexMode.UNIQUE, false));
+        assertEquals("", new UserIdentity("").getKibanaIndex(".kibana", KibanaIndexMode.UNIQUE, false));
+    }
+
+    @Test
+    public void testKibanaIndexIsKeptForThePrefixAndMode() {
+        String index = identity.getKibanaIndex(".kibana", KibanaIndexMode.UNIQUE, false);
+
+        assertSame(index, identity.getKibanaIndex(".kibana", KibanaIndexMode.UNIQUE, false));
+        assertEquals(".kibana_non_ops", identity.getKibanaIndex(".kibana", KibanaIndexMode.SHARED_NON_OPS, false));
+        assertEquals("?other?" + hash, identity.getKibanaIndexPattern(".other", KibanaIndexMode.UNIQUE, false));
+    }
+
+    @Test
+    public void testIdentityIsKeptWithTheCachedEntry() {
+        for (UserProjectCache cache : new UserProjectCache[] { new UserProjectCacheMapAdapter(Settings.EMPTY),
+            new OffHeapUserProjectCache(Settings.EMPTY) }) {
+            cache.update("user@email.com", "token", new HashSet<>(Arrays.asList("foo.bar")), false);
+            UserIdentity cached = cache.getByToken("token").getIdentity();
+
+            assertSame(cached, cache.getByToken("token").getIdentity());
+            assertSame(cached, cache.getEntries().iterator().next().getIdentity());
+            cache.updateProjects("user@email.com", "token", new HashSet<String>());
+            assertSame(cached, cache.getByToken("token").getIdentity());
+        }
+    }
+
+    @Test
+    public void testIdentityOfTheResolvedUserIsCached() {
+        for (UserProjectCache cache : new UserProjectCache[] { new UserProjectCacheMapAdapter(Settings.EMPTY),
+            new OffHeapUserProjectCache(Settings.EMPTY) }) {
+            UserProjectCacheEntry entry = cache.update("user@email.com", "token", new HashSet<String>(), false, identity);
+
+            assertSame(identity, entry.getIdentity());
+            assertSame(identity, cache.getByToken("token").getIdentity());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+public class UserProjectCachePublisherTest {
+
+    private UserProjectCache cache;
+    private SearchGuardACLSynchronizer synchronizer;
+    private TransportRequestHandler<PublishUserProjectCacheRequest> handler;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        cache = new UserProjectCacheMapAdapter(Settings.EMPTY);
+        synchronizer = mock(SearchGuardACLSynchronizer.class);
+        TransportService transportService = mock(TransportService.class);
+        new UserProjectCachePublisher(Settings.EMPTY, cache, synchronizer, transportService, mock(ClusterService.class));
+        ArgumentCaptor<TransportRequestHandler> captor = ArgumentCaptor.forClass(TransportRequestHandler.class);
+        verify(transportService).registerRequestHandler(eq(UserProjectCachePublisher.ACTION_NAME),
+                eq(PublishUserProjectCacheRequest.class), eq(ThreadPool.Names.GENERIC), eq(false), eq(true), captor.capture());
+        handler = captor.getValue();
+        cache.update("user1", "token1", new HashSet<>(Arrays.asList("foo.uid1", "bar.uid2")), false);
+    }
+
+    private void givenReceived(UserProjectCacheEntry entry) throws Exception {
+        handler.messageReceived(new PublishUserProjectCacheRequest(Arrays.asList(entry), Collections.<String>emptyList()),
+                mock(TransportChannel.class));
+    }
+
+    @Test
+    public void testReceivingAKnownUserAndProjectsDoesNotRequestASync() throws Exception {
+        givenReceived(new UserProjectCacheEntry("user1", UserProjectCacheEntry.digest("token2"),
+                new HashSet<>(Arrays.asList("foo.uid1")), false, Long.MAX_VALUE));
+
+        verify(synchronizer, never()).requestSync();
+    }
+
+    @Test
+    public void testReceivingANewUserRequestsASync() throws Exception {
+        givenReceived(new UserProjectCacheEntry("user2", UserProjectCacheEntry.digest("token2"),
+                new HashSet<>(Arrays.asList("foo.uid1")), false, Long.MAX_VALUE));
+
+        verify(synchronizer).requestSync();
+    }
+
+    @Test
+    public void testReceivingANewProjectOfAKnownUserRequestsASync() throws Exception {
+        givenReceived(new UserProjectCacheEntry("user1", UserProjectCacheEntry.digest("token2"),
+                new HashSet<>(Arrays.asList("foo.uid1", "baz.uid3")), false, Long.MAX_VALUE));
+
+        verify(synchronizer).requestSync();
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor;
+
+public class UserProjectCacheRefresherTest {
+
+    private UserProjectCache cache = new UserProjectCacheMapAdapter(Settings.EMPTY);
+    private OpenshiftRequestContextFactory contextFactory = mock(OpenshiftRequestContextFactory.class);
+    private KibanaSeedExecutor seed = mock(KibanaSeedExecutor.class);
+    private SearchGuardACLSynchronizer synchronizer = mock(SearchGuardACLSynchronizer.class);
+    private UserProjectCachePublisher publisher = mock(UserProjectCachePublisher.class);
+    private UserProjectCacheRefresher refresher;
+
+    @Before
+    public void setUp() {
+        Settings settings = Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_ACL_CACHE_REFRESH_AHEAD_WINDOW, "2m")
+                .build();
+        refresher = new UserProjectCacheRefresher(settings, new PluginSettings(settings), cache, contextFactory, seed,
+                mock(Client.class), synchronizer, publisher, mock(ThreadPool.class));
+        cache.update("user1", "token1", projects("foo.uid1"), false);
+    }
+
+    private Set<String> projects(String... projects) {
+        return new HashSet<>(Arrays.asList(projects));
+    }
+
+    private void givenMasterResolves(Set<String> projects) throws Exception {
+        when(contextFactory.resolve(eq("user1"), eq("token1"))).thenReturn(
+                new OpenshiftRequestContext("user1", "token1", false, projects, ".kibana.abc", "unique"));
+    }
+
+    @Test
+    public void testEntriesBelowTheMinimumHitsAreNotRefreshed() throws Exception {
+        refresher.recordAccess("token1");
+
+        refresher.refreshExpiring();
+
+        verify(contextFactory, never()).resolve(anyString(), anyString());
+    }
+
+    @Test
+    public void testRefreshWithUnchangedProjectsOnlyUpdatesTheCache() throws Exception {
+        givenMasterResolves(projects("foo.uid1"));
+        final long expires = cache.getByToken("token1").getExpires();
+        Thread.sleep(5);
+
+        refresher.refresh("token1", cache.getByToken("token1"));
+
+        assertEquals(projects("foo.uid1"), cache.getByToken("token1").getProjects());
+        assertEquals(true, cache.getByToken("token1").getExpires() > expires);
+        verify(publisher).publish(any(UserProjectCacheEntry.class));
+        verify(synchronizer, never()).syncAcl();
+    }
+
+    @Test
+    public void testRefreshWithChangedProjectsSyncsTheAcl() throws Exception {
+        givenMasterResolves(projects("foo.uid1", "bar.uid2"));
+
+        refresher.refresh("token1", cache.getByToken("token1"));
+
+        assertEquals(projects("foo.uid1", "bar.uid2"), cache.getByToken("token1").getProjects());
+        verify(synchronizer).syncAcl();
+    }
+
+    @Test
+    public void testFailedRefreshKeepsServingTheEntry() throws Exception {
+        when(contextFactory.resolve(anyString(), anyString())).thenThrow(new RuntimeException("master unavailable"));
+
+        refresher.refresh("token1", cache.getByToken("token1"));
+
+        assertEquals(projects("foo.uid1"), cache.getByToken("token1").getProjects());
+        verify(synchronizer, never()).syncAcl();
+    }
+}
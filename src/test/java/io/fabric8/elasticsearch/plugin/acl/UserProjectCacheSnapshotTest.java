@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.acl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class UserProjectCacheSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private UserProjectCache cache = new UserProjectCacheMapAdapter(Settings.EMPTY);
+
+    private UserProjectCacheSnapshot givenSnapshot() {
+        return new UserProjectCacheSnapshot(folder.getRoot().toPath().resolve("cache.snapshot"));
+    }
+
+    @Test
+    public void testReadWhenThereIsNoSnapshot() throws Exception {
+        assertTrue(givenSnapshot().read(System.currentTimeMillis()).isEmpty());
+    }
+
+    @Test
+    public void testSnapshotRoundTripSkipsExpiredEntries() throws Exception {
+        cache.update("user1", "token1", new HashSet<>(Arrays.asList("foo.uid1", "bar.uid2")), false);
+        cache.update("user2", "token2", new HashSet<String>(), true);
+        UserProjectCacheSnapshot snapshot = givenSnapshot();
+        snapshot.write(cache.getEntries());
+
+        assertEquals(2, snapshot.read(System.currentTimeMillis()).size());
+        assertTrue(snapshot.read(System.currentTimeMillis() + 1000 * 60 * 2).isEmpty());
+    }
+
+    @Test
+    public void testRestoredEntriesAreOnlyAvailableWithTheirToken() throws Exception {
+        cache.update("user1", "token1", new HashSet<>(Arrays.asList("foo.uid1")), true);
+        UserProjectCacheSnapshot snapshot = givenSnapshot();
+        snapshot.write(cache.getEntries());
+
+        UserProjectCache restarted = new UserProjectCacheMapAdapter(Settings.EMPTY);
+        List<UserProjectCacheEntry> entries = snapshot.read(System.currentTimeMillis());
+        for (UserProjectCacheEntry entry : entries) {
+            restarted.restore(entry);
+        }
+
+        assertFalse("Exp. restored entries to not be part of the ACL", restarted.hasUser("user1", "token1"));
+        assertNull(restarted.getByToken("othertoken"));
+        UserProjectCacheEntry entry = restarted.getByToken("token1");
+        assertTrue(entry.isRestored());
+        assertEquals("user1", entry.getUser());
+        assertTrue(entry.isOperationsUser());
+        assertEquals(new HashSet<>(Arrays.asList("foo.uid1")), entry.getProjects());
+
+        restarted.update(entry.getUser(), "token1", entry.getProjects(), entry.isOperationsUser());
+        assertFalse(restarted.getByToken("token1").isRestored());
+    }
+}
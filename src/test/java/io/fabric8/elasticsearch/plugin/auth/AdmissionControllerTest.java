@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+public class AdmissionControllerTest {
+
+    private AdmissionController givenController(double userRate, int userBurst, double globalRate, int globalBurst) {
+        return new AdmissionController(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_USER_RATE, userRate)
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_USER_BURST, userBurst)
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_GLOBAL_RATE, globalRate)
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_GLOBAL_BURST, globalBurst)
+                .build());
+    }
+
+    @Test
+    public void testTokensAreLimitedToTheirBurstUntilRefilled() {
+        AdmissionController admission = givenController(1, 2, 0, 1);
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, admission.tryAdmit("alicetoken", now));
+        assertEquals(0, admission.tryAdmit("alicetoken", now));
+        assertEquals(1000, admission.tryAdmit("alicetoken", now));
+        assertEquals(0, admission.tryAdmit("bobtoken", now));
+
+        assertEquals(0, admission.tryAdmit("alicetoken", now + 1000));
+    }
+
+    @Test
+    public void testTheGlobalLimitIsSharedByAllTokens() {
+        AdmissionController admission = givenController(1, 10, 2, 2);
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, admission.tryAdmit("alicetoken", now));
+        assertEquals(0, admission.tryAdmit("bobtoken", now));
+        assertEquals(500, admission.tryAdmit("carltoken", now));
+        assertEquals(0, admission.tryAdmit("carltoken", now + 500));
+    }
+
+    @Test
+    public void testGlobalRejectionsDoNotUseTheTokensBucket() {
+        AdmissionController admission = givenController(1, 1, 1, 1);
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, admission.tryAdmit("alicetoken", now));
+        assertTrue(admission.tryAdmit("bobtoken", now) > 0);
+        assertEquals(0, admission.tryAdmit("bobtoken", now + 1000));
+    }
+
+    @Test
+    public void testDisabled() {
+        AdmissionController admission = new AdmissionController(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_ENABLED, false)
+                .put(ConfigurationSettings.OPENSHIFT_ADMISSION_USER_BURST, 1)
+                .build());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, admission.tryAdmit("alicetoken"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftClientFactory;
+import io.fabric8.kubernetes.api.model.ObjectReferenceBuilder;
+import io.fabric8.kubernetes.client.Watcher.Action;
+import io.fabric8.openshift.api.model.ClusterRoleBinding;
+import io.fabric8.openshift.api.model.ClusterRoleBindingBuilder;
+import io.fabric8.openshift.api.model.Group;
+import io.fabric8.openshift.api.model.GroupBuilder;
+
+public class OperationsUserEvaluatorTest {
+
+    private OperationsUserEvaluator givenEvaluator(boolean authoritative) {
+        OperationsUserEvaluator evaluator = new OperationsUserEvaluator(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_OPS_RBAC_LOCAL_ENABLED, true)
+                .put(ConfigurationSettings.OPENSHIFT_OPS_RBAC_LOCAL_AUTHORITATIVE, authoritative)
+                .build(), mock(OpenshiftClientFactory.class));
+        evaluator.markSynced();
+        return evaluator;
+    }
+
+    private ClusterRoleBinding givenBinding(String name, String role, String user, String group) {
+        return new ClusterRoleBindingBuilder()
+                .withNewMetadata().withName(name).endMetadata()
+                .withNewRoleRef().withName(role).endRoleRef()
+                .withUserNames(user)
+                .withGroupNames(group)
+                .build();
+    }
+
+    private Group givenGroup(String name, String... users) {
+        return new GroupBuilder().withNewMetadata().withName(name).endMetadata().withUsers(users).build();
+    }
+
+    @Test
+    public void testUsersBoundToAnOperationsRoleAreOperationsUsers() {
+        OperationsUserEvaluator evaluator = givenEvaluator(true);
+        evaluator.onBinding(Action.ADDED, givenBinding("cluster-admins", "cluster-admin", "admin", "ops"));
+        evaluator.onGroup(Action.ADDED, givenGroup("ops", "alice"));
+
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("admin"));
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("alice"));
+        assertEquals(Boolean.FALSE, evaluator.isOperationsUser("bob"));
+    }
+
+    @Test
+    public void testBindingsToOtherRolesAreIgnored() {
+        OperationsUserEvaluator evaluator = givenEvaluator(true);
+        evaluator.onBinding(Action.ADDED, givenBinding("self-provisioners", "self-provisioner", "bob", "devs"));
+
+        assertEquals(Boolean.FALSE, evaluator.isOperationsUser("bob"));
+    }
+
+    @Test
+    public void testServiceAccountSubjectsAreOperationsUsers() {
+        OperationsUserEvaluator evaluator = givenEvaluator(true);
+        ClusterRoleBinding binding = new ClusterRoleBindingBuilder()
+                .withNewMetadata().withName("cluster-readers").endMetadata()
+                .withNewRoleRef().withName("cluster-reader").endRoleRef()
+                .withSubjects(new ObjectReferenceBuilder().withKind("ServiceAccount").withNamespace("logging")
+                        .withName("curator").build())
+                .build();
+        evaluator.onBinding(Action.ADDED, binding);
+
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("system:serviceaccount:logging:curator"));
+    }
+
+    @Test
+    public void testEventsUpdateTheDecision() {
+        OperationsUserEvaluator evaluator = givenEvaluator(true);
+        evaluator.onBinding(Action.ADDED, givenBinding("cluster-admins", "cluster-admin", "admin", "ops"));
+        evaluator.onGroup(Action.ADDED, givenGroup("ops", "alice"));
+
+        evaluator.onGroup(Action.MODIFIED, givenGroup("ops", "carol"));
+        assertEquals(Boolean.FALSE, evaluator.isOperationsUser("alice"));
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("carol"));
+
+        evaluator.onBinding(Action.DELETED, givenBinding("cluster-admins", "cluster-admin", "admin", "ops"));
+        assertEquals(Boolean.FALSE, evaluator.isOperationsUser("admin"));
+        assertEquals(Boolean.FALSE, evaluator.isOperationsUser("carol"));
+    }
+
+    @Test
+    public void testBindingToAllAuthenticatedUsers() {
+        OperationsUserEvaluator evaluator = givenEvaluator(true);
+        evaluator.onBinding(Action.ADDED, givenBinding("readers", "cluster-reader", "admin", "system:authenticated"));
+
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("anyone"));
+    }
+
+    @Test
+    public void testUnboundUsersAreLeftForTheSarUnlessAuthoritative() {
+        OperationsUserEvaluator evaluator = givenEvaluator(false);
+        evaluator.onBinding(Action.ADDED, givenBinding("cluster-admins", "cluster-admin", "admin", "ops"));
+
+        assertEquals(Boolean.TRUE, evaluator.isOperationsUser("admin"));
+        assertNull(evaluator.isOperationsUser("bob"));
+    }
+
+    @Test
+    public void testNoDecisionUntilSynced() {
+        OperationsUserEvaluator evaluator = new OperationsUserEvaluator(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_OPS_RBAC_LOCAL_ENABLED, true).build(),
+                mock(OpenshiftClientFactory.class));
+        evaluator.onBinding(Action.ADDED, givenBinding("cluster-admins", "cluster-admin", "admin", "ops"));
+
+        assertNull(evaluator.isOperationsUser("admin"));
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+public class RejectedTokenCacheTest {
+
+    private RejectedTokenCache givenCache(String backoff, String maxBackoff) {
+        return new RejectedTokenCache(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_REJECTED_TOKEN_CACHE_BACKOFF, backoff)
+                .put(ConfigurationSettings.OPENSHIFT_REJECTED_TOKEN_CACHE_MAX_BACKOFF, maxBackoff)
+                .build());
+    }
+
+    @Test
+    public void testRejectedTokensAreBlocked() {
+        RejectedTokenCache cache = givenCache("1m", "1m");
+        assertFalse(cache.isBlocked("badtoken"));
+
+        cache.reject("badtoken");
+
+        assertTrue(cache.isBlocked("badtoken"));
+        assertFalse(cache.isBlocked("othertoken"));
+    }
+
+    @Test
+    public void testBackoffGrowsWithRepeatedRejectionsOfTheSameToken() throws Exception {
+        RejectedTokenCache cache = givenCache("20ms", "1m");
+        cache.reject("badtoken");
+        cache.reject("badtoken");
+        cache.reject("badtoken");
+
+        Thread.sleep(40);
+
+        assertTrue("Exp. the third rejection to block for 80ms", cache.isBlocked("badtoken"));
+    }
+
+    @Test
+    public void testBackoffIsNotSharedBetweenTokens() throws Exception {
+        RejectedTokenCache cache = givenCache("20ms", "1m");
+        cache.reject("badtoken");
+        cache.reject("badtoken");
+        cache.reject("othertoken");
+
+        Thread.sleep(30);
+
+        assertTrue(cache.isBlocked("badtoken"));
+        assertFalse("Exp. the first rejection of a token to block for 20ms", cache.isBlocked("othertoken"));
+    }
+
+    @Test
+    public void testBlockedTokensArePrunedOnceTheBackoffPasses() throws Exception {
+        RejectedTokenCache cache = givenCache("1ms", "1ms");
+        cache.reject("badtoken");
+        Thread.sleep(5);
+
+        cache.prune(System.currentTimeMillis());
+
+        assertFalse(cache.isBlocked("badtoken"));
+    }
+}
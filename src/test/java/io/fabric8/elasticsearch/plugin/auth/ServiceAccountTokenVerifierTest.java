@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.FileUtils;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+
+public class ServiceAccountTokenVerifierTest {
+
+    private static final String LEGACY_CLAIMS = "{\"iss\":\"kubernetes/serviceaccount\","
+            + "\"kubernetes.io/serviceaccount/namespace\":\"logging\","
+            + "\"kubernetes.io/serviceaccount/service-account.name\":\"fluentd\"}";
+    private static final String CLAIMS = LEGACY_CLAIMS.replace("{", "{\"exp\":" + (Long.MAX_VALUE / 1000) + ",");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private KeyPair keyPair;
+    private ServiceAccountTokenVerifier verifier;
+
+    @Before
+    public void setUp() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        keyPair = generator.generateKeyPair();
+        File pem = folder.newFile("sa.pub");
+        FileUtils.writeStringToFile(pem, "-----BEGIN PUBLIC KEY-----\n"
+                + Base64.encodeBase64String(keyPair.getPublic().getEncoded()) + "\n-----END PUBLIC KEY-----\n");
+        verifier = new ServiceAccountTokenVerifier(Settings.builder()
+                .putArray(ConfigurationSettings.OPENSHIFT_SA_TOKEN_PUBLIC_KEYS, pem.getAbsolutePath()).build());
+    }
+
+    private String givenToken(String claims, PrivateKey key) throws Exception {
+        String content = encode("{\"alg\":\"RS256\",\"typ\":\"JWT\"}") + "." + encode(claims);
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(key);
+        signature.update(content.getBytes(StandardCharsets.US_ASCII));
+        return content + "." + Base64.encodeBase64URLSafeString(signature.sign());
+    }
+
+    private String encode(String value) {
+        return Base64.encodeBase64URLSafeString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testVerifiesServiceAccountTokens() throws Exception {
+        assertEquals("system:serviceaccount:logging:fluentd", verifier.verify(givenToken(CLAIMS, keyPair.getPrivate())));
+    }
+
+    @Test
+    public void testOpaqueTokensAreLeftForTheMaster() {
+        assertNull(verifier.verify("ABC123"));
+    }
+
+    @Test
+    public void testTokensSignedWithAnotherKeyAreLeftForTheMaster() throws Exception {
+        KeyPair other = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        assertNull(verifier.verify(givenToken(CLAIMS, other.getPrivate())));
+    }
+
+    @Test
+    public void testExpiredTokensAreLeftForTheMaster() throws Exception {
+        String claims = LEGACY_CLAIMS.replace("{", "{\"exp\":1000,");
+        assertNull(verifier.verify(givenToken(claims, keyPair.getPrivate())));
+    }
+
+    @Test
+    public void testTokensWithoutAnExpirationAreLeftForTheMaster() throws Exception {
+        assertNull(verifier.verify(givenToken(LEGACY_CLAIMS, keyPair.getPrivate())));
+    }
+
+    @Test
+    public void testTokensFromAnotherIssuerAreLeftForTheMaster() throws Exception {
+        String claims = CLAIMS.replace("kubernetes/serviceaccount", "https://example.com");
+        assertNull(verifier.verify(givenToken(claims, keyPair.getPrivate())));
+    }
+}
@@ -50,9 +50,9 @@ public class IndexMappingLoaderTest {
                 .put(ConfigurationSettings.OPENSHIFT_ES_KIBANA_SEED_MAPPINGS_EMPTY,empty.toString())
                 .build();
         IndexMappingLoader loader = new IndexMappingLoader(settings);
-        assertNotNull(loader.getApplicationMappingsTemplate());
-        assertNotNull(loader.getOperationsMappingsTemplate());
-        assertNotNull(loader.getEmptyProjectMappingsTemplate());
+        assertNotNull(loader.getApplicationMappings());
+        assertNotNull(loader.getOperationsMappings());
+        assertNotNull(loader.getEmptyProjectMappings());
     }
 
 }
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.junit.Test;
+
+public class IndexPatternTemplateTest {
+
+    @Test
+    public void testEachTitleIsReplaced() {
+        IndexPatternTemplate template = IndexPatternTemplate.compile("{\"title\":\"$TITLE$\",\"description\":\"Logs of $TITLE$\"}");
+
+        assertEquals("{\"title\":\"project.foo.*\",\"description\":\"Logs of project.foo.*\"}",
+                template.render("project.foo.*").toUtf8());
+        assertEquals("{}", IndexPatternTemplate.compile("{}").render("project.foo.*").toUtf8());
+        assertNull(IndexPatternTemplate.compile(null));
+    }
+
+    @Test
+    public void testTitlesAreEscaped() throws Exception {
+        IndexPatternTemplate template = IndexPatternTemplate.compile("{\"title\":\"$TITLE$\"}");
+
+        String title = "a \"quoted\" \\ title\n\u0001 é";
+        assertEquals(title, XContentHelper.convertToMap(template.render(title), false).v2().get("title"));
+        String plain = "project.foo.*";
+        assertSame(plain, IndexPatternTemplate.escape(plain));
+    }
+}
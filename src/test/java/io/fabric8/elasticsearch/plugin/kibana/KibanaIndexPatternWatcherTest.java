@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TreeSet;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache.SeedState;
+
+public class KibanaIndexPatternWatcherTest {
+
+    private static final String PREFIX = "project";
+
+    private KibanaSeedStateCache seedStates = new KibanaSeedStateCache(Settings.EMPTY);
+    private KibanaSeedExecutor seeds = mock(KibanaSeedExecutor.class);
+    private ClusterService clusterService = mock(ClusterService.class);
+    private KibanaIndexPatternWatcher watcher;
+
+    @Before
+    public void setUp() {
+        watcher = new KibanaIndexPatternWatcher(new PluginSettings(Settings.EMPTY), clusterService, seedStates, seeds,
+                mock(Client.class), mock(ThreadPool.class));
+        givenSeededState("alice", Arrays.asList("foo.1"), Arrays.asList("bar.2"));
+        givenSeededState("bob", Arrays.asList("bar.2", "baz.3"), Arrays.<String>asList());
+    }
+
+    private SeedState givenSeededState(String user, Iterable<String> indexPatterns, Iterable<String> withoutIndices) {
+        HashSet<String> projects = new HashSet<>();
+        TreeSet<String> patterns = new TreeSet<>();
+        TreeSet<String> without = new TreeSet<>();
+        for (String project : indexPatterns) {
+            patterns.add(project);
+            projects.add(project);
+        }
+        for (String project : withoutIndices) {
+            without.add(project);
+            projects.add(project);
+        }
+        SeedState state = new SeedState(ConfigurationSettings.DEFAULT_KIBANA_VERSION, PREFIX, false, projects, patterns,
+                without, null);
+        seedStates.put(".kibana." + user, user, state);
+        return state;
+    }
+
+    private void whenIndicesChanged(String[] created, String... deleted) {
+        watcher.onIndicesChanged(new TreeSet<>(Arrays.asList(created)), new TreeSet<>(Arrays.asList(deleted)));
+    }
+
+    private OpenshiftRequestContext contextOf(final String user) {
+        return argThat(new ArgumentMatcher<OpenshiftRequestContext>() {
+            @Override
+            public boolean matches(Object argument) {
+                return user.equals(((OpenshiftRequestContext) argument).getUser());
+            }
+        });
+    }
+
+    @Test
+    public void testTheUsersOfAProjectWithANewIndexAreSeeded() {
+        whenIndicesChanged(new String[] { "project.bar.2.2017.01.01" });
+
+        verify(seeds, times(1)).resubmit(contextOf("alice"), any(Client.class),
+                eq(ConfigurationSettings.DEFAULT_KIBANA_VERSION), eq(PREFIX));
+        verify(seeds, never()).resubmit(contextOf("bob"), any(Client.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testTheUsersOfAProjectWithADeletedIndexAreSeeded() {
+        whenIndicesChanged(new String[] { "project.baz.30.2017.01.01" }, "project.baz.3.2017.01.01");
+
+        verify(seeds, times(1)).resubmit(contextOf("bob"), any(Client.class), anyString(), anyString());
+        verify(seeds, never()).resubmit(contextOf("alice"), any(Client.class), anyString(), anyString());
+    }
+
+    @Test
+    public void testTheListenerIsOnlyAddedWhenEnabled() {
+        verify(clusterService, times(1)).add(watcher);
+
+        ClusterService disabled = mock(ClusterService.class);
+        new KibanaIndexPatternWatcher(new PluginSettings(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_KIBANA_SEED_WATCH_INDICES_ENABLED, false).build()), disabled,
+                seedStates, seeds, mock(Client.class), mock(ThreadPool.class));
+        verify(disabled, never()).add(any(KibanaIndexPatternWatcher.class));
+    }
+}
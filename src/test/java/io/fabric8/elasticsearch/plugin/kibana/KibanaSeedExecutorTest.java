@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2015 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.fabric8.elasticsearch.plugin.kibana;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.fabric8.elasticsearch.plugin.ConfigurationSettings;
+import io.fabric8.elasticsearch.plugin.KibanaIndexMode;
+import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
+import io.fabric8.elasticsearch.plugin.PluginClient;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedExecutor.SeedJob;
+
+public class KibanaSeedExecutorTest {
+
+    private KibanaSeed seed = mock(KibanaSeed.class);
+    private PluginClient pluginClient = mock(PluginClient.class);
+    private ThreadPool threadPool = mock(ThreadPool.class);
+    private Client client = mock(Client.class);
+    private List<Runnable> queued = new ArrayList<>();
+    private KibanaSeedExecutor executor;
+
+    @Before
+    public void setUp() {
+        when(threadPool.executor(anyString())).thenReturn(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        executor = new KibanaSeedExecutor(Settings.builder()
+                .put(ConfigurationSettings.OPENSHIFT_KIBANA_SEED_ASYNC_AWAIT_TIMEOUT, "10ms").build(), seed, pluginClient,
+                threadPool);
+    }
+
+    private OpenshiftRequestContext givenContext(String... projects) {
+        return new OpenshiftRequestContext("auser", "atoken", false, new HashSet<String>(Arrays.asList(projects)),
+                ConfigurationSettings.DEFAULT_USER_PROFILE_PREFIX, KibanaIndexMode.UNIQUE);
+    }
+
+    private SeedJob whenSubmitting(OpenshiftRequestContext context) {
+        return executor.submit(context, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "");
+    }
+
+    private void runQueued() {
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testSeedingOfAUserRunsOneAtATimeWithTheLatestProjects() {
+        OpenshiftRequestContext first = givenContext("foo");
+        OpenshiftRequestContext second = givenContext("foo", "bar");
+        OpenshiftRequestContext latest = givenContext("bar");
+
+        final SeedJob running = whenSubmitting(first);
+        SeedJob pending = whenSubmitting(second);
+        assertSame(pending, whenSubmitting(latest));
+        assertEquals(1, queued.size());
+
+        runQueued();
+
+        verify(seed).setDashboards(first, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", false);
+        verify(seed, never()).setDashboards(second, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", false);
+        verify(seed).setDashboards(latest, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", false);
+        assertTrue(running.isDone());
+        assertTrue(pending.isDone());
+        assertEquals(0, executor.getQueuedUsers());
+    }
+
+    @Test
+    public void testRequestsOnlyWaitForAMissingKibanaIndex() {
+        OpenshiftRequestContext context = givenContext("foo");
+        SeedJob job = whenSubmitting(context);
+
+        when(pluginClient.indexExists(context.getKibanaIndex())).thenReturn(true);
+        executor.awaitKibanaIndex(context, job);
+        when(pluginClient.indexExists(context.getKibanaIndex())).thenReturn(false);
+        executor.awaitKibanaIndex(context, job);
+
+        assertFalse(job.isDone());
+        runQueued();
+        assertTrue(job.isDone());
+    }
+
+    @Test
+    public void testSeedingRunsOnTheCallerWhenThePoolIsFull() {
+        when(threadPool.executor(anyString())).thenReturn(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new EsRejectedExecutionException("full");
+            }
+        });
+
+        SeedJob job = whenSubmitting(givenContext("foo"));
+
+        assertTrue(job.isDone());
+        verify(seed).setDashboards(any(OpenshiftRequestContext.class), any(Client.class), anyString(), anyString(),
+                anyBoolean());
+        assertEquals(0, executor.getQueuedUsers());
+    }
+
+    @Test
+    public void testChangedIndicesAreSeededAfterTheRunningSeeding() {
+        OpenshiftRequestContext first = givenContext("foo");
+        OpenshiftRequestContext latest = givenContext("foo", "bar");
+
+        whenSubmitting(first);
+        executor.resubmit(first, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "");
+        whenSubmitting(latest);
+        runQueued();
+
+        verify(seed).setDashboards(first, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", false);
+        verify(seed).setDashboards(latest, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", true);
+        assertEquals(0, executor.getQueuedUsers());
+    }
+
+    @Test
+    public void testChangedIndicesOfAnIdleUserAreSeeded() {
+        OpenshiftRequestContext context = givenContext("foo");
+
+        executor.resubmit(context, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "");
+        runQueued();
+
+        verify(seed).setDashboards(context, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION, "", true);
+    }
+}
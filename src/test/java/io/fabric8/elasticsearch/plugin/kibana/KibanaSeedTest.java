@@ -16,8 +16,11 @@
 
 package io.fabric8.elasticsearch.plugin.kibana;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyString;
-import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
@@ -26,17 +29,46 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
 import java.util.concurrent.ExecutionException;
 
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.indices.create.CreateIndexResponse;
-import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetAction;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollAction;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.ClearScrollRequestBuilder;
+import org.elasticsearch.action.search.SearchAction;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollAction;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.search.SearchScrollRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.runners.MockitoJUnitRunner;
 
@@ -46,6 +78,7 @@ import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory;
 import io.fabric8.elasticsearch.plugin.OpenshiftRequestContextFactory.OpenshiftRequestContext;
 import io.fabric8.elasticsearch.plugin.PluginClient;
 import io.fabric8.elasticsearch.plugin.PluginSettings;
+import io.fabric8.elasticsearch.plugin.kibana.KibanaSeedStateCache.SeedState;
 
 @RunWith(MockitoJUnitRunner.class)
 public class KibanaSeedTest {
@@ -58,15 +91,16 @@ public class KibanaSeedTest {
     private PluginSettings settings = new PluginSettings(Settings.EMPTY);
     private IndexMappingLoader loader = mock(IndexMappingLoader.class);
     private Client client = mock(Client.class);
+    private KibanaSeedStateCache seedStates = new KibanaSeedStateCache(Settings.EMPTY);
     private OpenshiftRequestContext context;
     
     @Before
     public void setUp() {
-        seeder = new KibanaSeed(settings, loader, pluginClient);
+        seeder = new KibanaSeed(settings, loader, pluginClient, seedStates);
         context = new OpenshiftRequestContextFactory.OpenshiftRequestContext(USER, TOKEN, true, 
                 new HashSet<String>(), ConfigurationSettings.DEFAULT_USER_PROFILE_PREFIX, KibanaIndexMode.SHARED_OPS);
-        when(loader.getOperationsMappingsTemplate()).thenReturn("{\"foo\":\"bar\"");
-        when(pluginClient.update(anyString(), anyString(), anyString(), anyString())).thenReturn(mock(UpdateResponse.class));
+        when(loader.getOperationsMappings()).thenReturn(IndexPatternTemplate.compile("{\"title\":\"$TITLE$\"}"));
+        when(pluginClient.bulk(any(BulkRequest.class))).thenReturn(mock(BulkResponse.class));
     }
     
     @After
@@ -78,8 +112,29 @@ public class KibanaSeedTest {
         when(pluginClient.indexExists(anyString())).thenReturn(exists);
     }
     
-    private void givenDocumentExistFor(String index, String type, String id, boolean exists) {
-        when(pluginClient.documentExists(eq(index), eq(type), eq(id))).thenReturn(exists);
+    private void givenOperationsIndexPatternsExist(boolean exist) {
+        when(pluginClient.documentsExist(anyString(), anyString(), anyCollectionOf(String.class)))
+                .thenReturn(exist ? settings.getKibanaOpsIndexPatterns() : new HashSet<String>());
+    }
+
+    private List<String> thenTheBulkRequest() {
+        ArgumentCaptor<BulkRequest> bulk = ArgumentCaptor.forClass(BulkRequest.class);
+        verify(pluginClient, times(1)).bulk(bulk.capture());
+        assertTrue("Exp. the bulk request to refresh", bulk.getValue().refresh());
+        List<String> actions = new ArrayList<>();
+        for (ActionRequest<?> request : bulk.getValue().requests()) {
+            if (request instanceof IndexRequest) {
+                IndexRequest index = (IndexRequest) request;
+                actions.add("index " + index.index() + "/" + index.type() + "/" + index.id() + " " + index.source().toUtf8());
+            } else if (request instanceof DeleteRequest) {
+                DeleteRequest delete = (DeleteRequest) request;
+                actions.add("delete " + delete.index() + "/" + delete.type() + "/" + delete.id());
+            } else if (request instanceof UpdateRequest) {
+                UpdateRequest update = (UpdateRequest) request;
+                actions.add("update " + update.index() + "/" + update.type() + "/" + update.id() + " " + update.doc().sourceAsMap());
+            }
+        }
+        return actions;
     }
     
     private void givenCopyKibanaIndexIsSuccessful() throws InterruptedException, ExecutionException, IOException {
@@ -97,20 +152,18 @@ public class KibanaSeedTest {
 
         //given index-patterns do not exist
         givenKibanaIndexExist(false);
-        for (String pattern : ConfigurationSettings.DEFAULT_KIBANA_OPS_INDEX_PATTERNS) {
-            givenDocumentExistFor(context.getKibanaIndex(), "index-pattern", pattern, false);
-        }
+        givenOperationsIndexPatternsExist(false);
         
         givenCopyKibanaIndexIsSuccessful();
         
         whenSettingTheDashboards();
         
-        //thenOperationsIndexPatternsShouldBeCreated();
+        //thenOperationsIndexPatternsShouldBeCreatedInOneRefreshingBulkRequest();
+        List<String> actions = thenTheBulkRequest();
         for (String pattern : ConfigurationSettings.DEFAULT_KIBANA_OPS_INDEX_PATTERNS) {
-            verify(pluginClient, times(1)).createDocument(eq(context.getKibanaIndex()), eq("index-pattern"), eq(pattern), anyString());
+            assertTrue(actions.contains("index " + context.getKibanaIndex() + "/index-pattern/" + pattern + " {\"title\":\"" + pattern + "\"}"));
         }
-        // thenKibanaIndexShouldBeRefreshed
-        verify(pluginClient, times(1)).refreshIndices(eq(context.getKibanaIndex()));
+        verify(pluginClient, never()).refreshIndices(Matchers.<String>anyVararg());
     }
 
     // Should be a no-op since everything exists
@@ -119,18 +172,127 @@ public class KibanaSeedTest {
         
         //given index-patterns do not exist
         givenKibanaIndexExist(true);
-        for (String pattern : ConfigurationSettings.DEFAULT_KIBANA_OPS_INDEX_PATTERNS) {
-            givenDocumentExistFor(context.getKibanaIndex(), "index-pattern", pattern, true);
-        }
+        givenOperationsIndexPatternsExist(true);
         
         whenSettingTheDashboards();
         
-        //thenOperationsIndexPatternsShouldBeCreated();
-        for (String pattern : ConfigurationSettings.DEFAULT_KIBANA_OPS_INDEX_PATTERNS) {
-            verify(pluginClient, never()).createDocument(eq(context.getKibanaIndex()), eq("index-pattern"), eq(pattern), anyString());
+        //thenNothingShouldBeSent();
+        verify(pluginClient, never()).bulk(any(BulkRequest.class));
+        verify(pluginClient, never()).refreshIndices(Matchers.<String>anyVararg());
+    }
+
+    private void givenSeededProjects(OpenshiftRequestContext context, String defaultIndex, String... projects) {
+        seedStates.put(context.getKibanaIndex(), context.getUser(),
+                new SeedState(ConfigurationSettings.DEFAULT_KIBANA_VERSION, ConfigurationSettings.OPENSHIFT_DEFAULT_PROJECT_INDEX_PREFIX,
+                        false, new HashSet<String>(Arrays.asList(projects)), new TreeSet<String>(Arrays.asList(projects)),
+                        new TreeSet<String>(), defaultIndex));
+    }
+
+    private OpenshiftRequestContext givenUserWithProjects(String... projects) {
+        return new OpenshiftRequestContextFactory.OpenshiftRequestContext(USER, TOKEN, false,
+                new HashSet<String>(Arrays.asList(projects)), ConfigurationSettings.DEFAULT_USER_PROFILE_PREFIX, KibanaIndexMode.UNIQUE);
+    }
+
+    @Test
+    public void testSeedingIsSkippedWhenTheSeededProjectsDidNotChange() throws Exception {
+        context = givenUserWithProjects("foo", "bar");
+        givenSeededProjects(context, "bar", "foo", "bar");
+
+        whenSettingTheDashboards();
+
+        verify(pluginClient, never()).indexExists(anyString());
+        verify(pluginClient, never()).bulk(any(BulkRequest.class));
+    }
+
+    @Test
+    public void testOnlyTheChangedProjectsAreSeeded() throws Exception {
+        context = givenUserWithProjects("bar", "baz");
+        givenSeededProjects(context, "foo", "foo", "bar");
+        givenKibanaIndexExist(true);
+        when(loader.getApplicationMappings()).thenReturn(IndexPatternTemplate.compile("{\"title\":\"$TITLE$\"}"));
+
+        whenSettingTheDashboards();
+
+        verify(pluginClient, times(2)).indexExists(anyString());
+        String kibanaIndex = context.getKibanaIndex();
+        assertEquals(Arrays.asList("index " + kibanaIndex + "/index-pattern/baz.* {\"title\":\"baz.*\"}",
+                "delete " + kibanaIndex + "/index-pattern/foo.*",
+                "update " + kibanaIndex + "/config/" + ConfigurationSettings.DEFAULT_KIBANA_VERSION + " {defaultIndex=bar.*}"),
+                thenTheBulkRequest());
+    }
+
+    @Test
+    public void testProjectsAreSeededOnceTheirIndicesChanged() throws Exception {
+        context = givenUserWithProjects("foo", "bar");
+        SeedState state = new SeedState(ConfigurationSettings.DEFAULT_KIBANA_VERSION,
+                ConfigurationSettings.OPENSHIFT_DEFAULT_PROJECT_INDEX_PREFIX, false, context.getProjects(),
+                new TreeSet<String>(Arrays.asList("foo")), new TreeSet<String>(Arrays.asList("bar")), "foo");
+        seedStates.put(context.getKibanaIndex(), context.getUser(), state);
+        givenKibanaIndexExist(true);
+        when(loader.getApplicationMappings()).thenReturn(IndexPatternTemplate.compile("{\"title\":\"$TITLE$\"}"));
+
+        whenSettingTheDashboards();
+        verify(pluginClient, never()).indexExists(anyString());
+
+        seeder.setDashboards(context, client, ConfigurationSettings.DEFAULT_KIBANA_VERSION,
+                ConfigurationSettings.OPENSHIFT_DEFAULT_PROJECT_INDEX_PREFIX, true);
+
+        assertEquals(Arrays.asList("index " + context.getKibanaIndex() + "/index-pattern/bar.* {\"title\":\"bar.*\"}"),
+                thenTheBulkRequest());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> ActionFuture<T> givenFuture(T response) throws Exception {
+        ActionFuture<T> future = mock(ActionFuture.class);
+        when(future.get()).thenReturn(response);
+        return future;
+    }
+
+    private SearchResponse givenIndexPatternsPage(String scrollId, int from, int to) {
+        SearchHit[] hits = new SearchHit[to - from];
+        for (int i = from; i < to; i++) {
+            hits[i - from] = mock(SearchHit.class);
+            when(hits[i - from].getId()).thenReturn("p" + i + ".*");
         }
-        // thenKibanaIndexShouldBeRefreshed
-        verify(pluginClient, never()).refreshIndices(eq(context.getKibanaIndex()));
+        SearchHits searchHits = mock(SearchHits.class);
+        when(searchHits.getHits()).thenReturn(hits);
+        SearchResponse response = mock(SearchResponse.class);
+        when(response.getHits()).thenReturn(searchHits);
+        when(response.getScrollId()).thenReturn(scrollId);
+        return response;
     }
 
+    @Test
+    public void testAllIndexPatternsAreListedWithoutTheirSource() throws Exception {
+        String[] projects = new String[501];
+        for (int i = 0; i < projects.length; i++) {
+            projects[i] = "p" + i;
+        }
+        context = givenUserWithProjects(projects);
+        givenKibanaIndexExist(true);
+        SearchRequestBuilder searchBuilder = new SearchRequestBuilder(client, SearchAction.INSTANCE);
+        SearchScrollRequestBuilder scrollBuilder = new SearchScrollRequestBuilder(client, SearchScrollAction.INSTANCE, "scroll");
+        ClearScrollRequestBuilder clearBuilder = new ClearScrollRequestBuilder(client, ClearScrollAction.INSTANCE);
+        GetRequestBuilder getBuilder = new GetRequestBuilder(client, GetAction.INSTANCE);
+        when(client.prepareSearch(anyString())).thenReturn(searchBuilder);
+        when(client.prepareSearchScroll(anyString())).thenReturn(scrollBuilder);
+        when(client.prepareClearScroll()).thenReturn(clearBuilder);
+        ActionFuture<SearchResponse> firstPage = givenFuture(givenIndexPatternsPage("scroll", 0, 500));
+        ActionFuture<SearchResponse> lastPage = givenFuture(givenIndexPatternsPage("scroll", 500, 501));
+        when(client.search(any(SearchRequest.class))).thenReturn(firstPage);
+        when(client.searchScroll(any(SearchScrollRequest.class))).thenReturn(lastPage);
+        when(client.prepareGet(anyString(), anyString(), anyString())).thenReturn(getBuilder);
+        GetResponse config = mock(GetResponse.class);
+        when(config.getSource()).thenReturn(Collections.<String, Object>singletonMap(KibanaSeed.DEFAULT_INDEX_FIELD, "p0.*"));
+        ActionFuture<GetResponse> configFuture = givenFuture(config);
+        when(client.get(any(GetRequest.class))).thenReturn(configFuture);
+
+        whenSettingTheDashboards();
+
+        ArgumentCaptor<SearchRequest> search = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(client).search(search.capture());
+        assertTrue(XContentHelper.convertToJson(search.getValue().source(), false).contains("\"_source\":false"));
+        verify(client).clearScroll(any(ClearScrollRequest.class));
+        assertEquals(Arrays.asList("delete " + context.getKibanaIndex() + "/index-pattern/.all"), thenTheBulkRequest());
+    }
 }